@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stages everything under a directory as a pipeline of three stages joined by bounded queues:
+ *
+ * <ol>
+ * <li>one walker thread lists the tree and drops files whose stat data matches their index entry;</li>
+ * <li>a pool of workers reads each remaining file once, hashing, compressing and storing it in one
+ * pass ({@link ObjectStore#writeBlob});</li>
+ * <li>the calling thread collects the new entries and commits them to the index in batches through
+ * {@link IndexBatcher}, so concurrent {@code updateIndex} callers are never locked out for long.</li>
+ * </ol>
+ *
+ * The queues keep the stages running side by side with bounded memory: a slow disk backs the walker
+ * up instead of queueing the whole tree. The first failure stops the walk; the stages then drain,
+ * whatever batches were already committed stay in the index, and the failure is thrown.
+ */
+public class BulkAdder {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 8192;
+
+    /** Marks the end of a queue. */
+    private static final Object END = new Object();
+
+    private final Path gitDir;
+    private final ObjectStore store;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder filesStaged = new LongAdder();
+    private final LongAdder bytesStaged = new LongAdder();
+    private int batches;
+
+    public BulkAdder(Path gitDir, ObjectStore store) {
+        this.gitDir = gitDir;
+        this.store = store;
+    }
+
+    public BulkAdder setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("BulkAdder: need at least one worker");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    /** How many files may wait between stages. */
+    public BulkAdder setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("BulkAdder: queue capacity must be at least 1");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /** How many entries go into one index write. */
+    public BulkAdder setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("BulkAdder: batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /** Files the last add looked at. */
+    public long getFilesScanned() {
+        return filesScanned.sum();
+    }
+
+    /** Files the last add read, stored and staged. */
+    public long getFilesStaged() {
+        return filesStaged.sum();
+    }
+
+    /** Bytes of working-tree content the last add read. */
+    public long getBytesStaged() {
+        return bytesStaged.sum();
+    }
+
+    /** Index writes the last add made. */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * Stages every regular file under {@code root}, with paths relative to {@code worktree}, and
+     * returns how many were (re)staged. {@code gitDir} is skipped if it lies under {@code root}.
+     */
+    public long add(Path worktree, Path root) throws IOException {
+        filesScanned.reset();
+        filesStaged.reset();
+        bytesStaged.reset();
+        batches = 0;
+        IndexBatcher batcher = IndexBatcher.forRepo(gitDir);
+        Run run = new Run(worktree.toAbsolutePath().normalize(), gitDir.toAbsolutePath().normalize(),
+                batcher.snapshot());
+
+        Thread walker = new Thread(() -> run.walk(root.toAbsolutePath().normalize()), "BulkAdder-walk");
+        List<Thread> pool = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            pool.add(new Thread(run::store, "BulkAdder-store-" + i));
+        }
+        walker.start();
+        pool.forEach(Thread::start);
+        run.index(batcher);
+        try {
+            walker.join();
+            for (Thread t : pool) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("BulkAdder: interrupted waiting for the pipeline");
+        }
+        IOException failure = run.failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+        return filesStaged.sum();
+    }
+
+    /** A file the walker found that needs storing. */
+    private static final class Found {
+        final Path file;
+        final String path;
+        final BasicFileAttributes attrs;
+
+        Found(Path file, String path, BasicFileAttributes attrs) {
+            this.file = file;
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
+    /** The queues and first failure of one add, shared by its stages. */
+    private final class Run {
+        final Path worktree;
+        final Path gitDir;
+        final GitIndex snapshot;
+        final BlockingQueue<Object> files = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Object> entries = new ArrayBlockingQueue<>(queueCapacity);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Run(Path worktree, Path gitDir, GitIndex snapshot) {
+            this.worktree = worktree;
+            this.gitDir = gitDir;
+            this.snapshot = snapshot;
+        }
+
+        void fail(IOException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        boolean failed() {
+            return failure.get() != null;
+        }
+
+        void walk(Path root) {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (failed()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        return dir.equals(gitDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (!attrs.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        filesScanned.increment();
+                        String path = GitIndex.relativePath(worktree, file);
+                        if (!snapshot.isUpToDate(path, attrs)) {
+                            put(files, new Found(file, path, attrs));
+                        }
+                        return failed() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                        // deleted since its directory was listed: nothing to stage
+                        if (e instanceof NoSuchFileException) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw e;
+                    }
+                });
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                // a path outside the working tree, say: the caller must hear of it, not the thread
+                fail(new IOException(e.getMessage(), e));
+            } finally {
+                for (int i = 0; i < workers; i++) {
+                    putQuietly(files, END);
+                }
+            }
+        }
+
+        void store() {
+            try {
+                Object next;
+                while ((next = take(files)) != END) {
+                    if (failed()) {
+                        continue;
+                    }
+                    Found found = (Found) next;
+                    try {
+                        ObjectId id = store.writeBlob(found.file);
+                        filesStaged.increment();
+                        bytesStaged.add(found.attrs.size());
+                        put(entries, GitIndex.entryFor(found.path, id, found.attrs));
+                    } catch (NoSuchFileException e) {
+                        // deleted after the walk saw it
+                    } catch (IOException e) {
+                        fail(e);
+                    } catch (RuntimeException e) {
+                        // an unreadable pack, say: uncaught, it would end this thread and the
+                        // add would report success with the file never staged
+                        fail(new IOException(e.getMessage(), e));
+                    }
+                }
+            } catch (InterruptedIOException e) {
+                fail(e);
+            } finally {
+                putQuietly(entries, END);
+            }
+        }
+
+        /** Runs on the caller's thread until every worker has finished. */
+        void index(IndexBatcher batcher) throws IOException {
+            List<GitIndex.Entry> batch = new ArrayList<>(Math.min(batchSize, 1024));
+            int running = workers;
+            try {
+                while (running > 0) {
+                    Object next = take(entries);
+                    if (next == END) {
+                        running--;
+                    } else if (!failed()) {
+                        batch.add((GitIndex.Entry) next);
+                    }
+                    if (batch.size() >= batchSize || (running == 0 && !batch.isEmpty() && !failed())) {
+                        commit(batcher, batch);
+                    }
+                }
+            } finally {
+                if (running > 0) {
+                    // interrupted, or a batch died: stop the other stages and wait until they have
+                    fail(new InterruptedIOException("BulkAdder: stopped"));
+                    boolean interrupted = Thread.interrupted();
+                    while (running > 0) {
+                        try {
+                            if (entries.take() == END) {
+                                running--;
+                            }
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        private void commit(IndexBatcher batcher, List<GitIndex.Entry> batch) {
+            List<GitIndex.Entry> staged = new ArrayList<>(batch);
+            batch.clear();
+            try {
+                batcher.update(index -> {
+                    for (GitIndex.Entry e : staged) {
+                        index.add(e);
+                    }
+                });
+                batches++;
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private Object take(BlockingQueue<Object> queue) throws InterruptedIOException {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("BulkAdder: interrupted");
+            }
+        }
+
+        private void put(BlockingQueue<Object> queue, Object item) throws InterruptedIOException {
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("BulkAdder: interrupted");
+            }
+        }
+
+        /** Hands an end marker on even if this thread was interrupted, so the next stage can finish. */
+        private void putQuietly(BlockingQueue<Object> queue, Object item) {
+            boolean interrupted = Thread.interrupted();
+            while (true) {
+                try {
+                    queue.put(item);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes a tree out into a working directory. Each tree is read (through an {@link ObjectReader})
+ * and its directory created as one fork/join task, and each file is written as another, so the
+ * pool's parallelism bounds how many files are in flight at once. Blobs go through
+ * {@link ObjectStore#copyTo}, which copies uncompressed loose objects without decoding them.
+ *
+ * A file that is already there with the right content is left alone: first by its stat data
+ * against the index entry (no read at all), otherwise by hashing it. Files that are not in the tree
+ * are never touched. The index is brought in line with the tree afterwards, with fresh stat data
+ * for every file and the tree ids of every directory cached, so status and the next commit after a
+ * checkout read nothing.
+ */
+public class Checkout {
+    private final ObjectReader reader;
+    private final int parallelism;
+    private final LongAdder filesWritten = new LongAdder();
+    private final LongAdder filesSkipped = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public Checkout(ObjectReader reader, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Checkout: parallelism must be at least 1");
+        }
+        this.reader = reader;
+        this.parallelism = parallelism;
+    }
+
+    public Checkout(ObjectReader reader) {
+        this(reader, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Files the last checkout wrote. */
+    public long getFilesWritten() {
+        return filesWritten.sum();
+    }
+
+    /** Files the last checkout found already in place. */
+    public long getFilesSkipped() {
+        return filesSkipped.sum();
+    }
+
+    /** Bytes the last checkout wrote. */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Writes every file of {@code tree} under {@code worktree} and makes {@code index} match the
+     * tree: entries for paths the tree does not have are dropped (their files stay), the rest are
+     * replaced. The index is only changed in memory; the caller writes it.
+     */
+    public void checkout(ObjectId tree, Path worktree, GitIndex index) throws IOException {
+        filesWritten.reset();
+        filesSkipped.reset();
+        bytesWritten.reset();
+        Path root = worktree.toAbsolutePath().normalize();
+        Run run = new Run(index, root);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(run.new DirTask(tree, root, ""));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        Set<String> paths = new HashSet<>();
+        for (GitIndex.Entry e : run.entries) {
+            paths.add(e.getPath());
+        }
+        List<String> stale = new ArrayList<>();
+        for (GitIndex.Entry e : index.entries()) {
+            if (!paths.contains(e.getPath())) {
+                stale.add(e.getPath());
+            }
+        }
+        for (String path : stale) {
+            index.remove(path);
+        }
+        for (GitIndex.Entry e : run.entries) {
+            index.add(e);
+        }
+        // after the adds, which drop cached trees along their paths
+        for (Map.Entry<String, ObjectId> t : run.trees.entrySet()) {
+            index.cacheTree(t.getKey(), t.getValue());
+        }
+    }
+
+    /** The state of one checkout, shared by its tasks. */
+    private class Run {
+        final GitIndex index;
+        final Path root;
+        final Queue<GitIndex.Entry> entries = new ConcurrentLinkedQueue<>();
+        final Map<String, ObjectId> trees = new ConcurrentHashMap<>();
+
+        Run(GitIndex index, Path root) {
+            this.index = index;
+            this.root = root;
+        }
+
+        /**
+         * Where entry {@code name} of the tree at {@code prefix} goes under {@code dir}. Trees come
+         * from the object store, which anyone can write to, so a name that is not a plain file name,
+         * or that would land outside the working tree, fails the checkout.
+         */
+        Path resolve(Path dir, String prefix, String name) throws IOException {
+            // a backslash separates directories on Windows, so it is refused on every platform
+            if (name.isEmpty() || name.equals(".") || name.equals("..") || name.indexOf('/') >= 0
+                    || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0
+                    || dir.getFileSystem().getPath(name).getRoot() != null) {
+                throw new IOException("Checkout: refusing tree entry \"" + prefix + name + "\": not a plain file name");
+            }
+            Path child = dir.resolve(name);
+            if (!child.normalize().startsWith(root)) {
+                throw new IOException("Checkout: refusing tree entry \"" + prefix + name + "\": outside the working tree");
+            }
+            return child;
+        }
+
+        private class DirTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final ObjectId tree;
+            private final Path dir;
+            /** The directory's index path with a trailing '/', or "" for the root. */
+            private final String prefix;
+
+            DirTask(ObjectId tree, Path dir, String prefix) {
+                this.tree = tree;
+                this.dir = dir;
+                this.prefix = prefix;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    // a directory made just now is empty, so its files need no checking first
+                    boolean created;
+                    try {
+                        Files.createDirectory(dir);
+                        created = true;
+                    } catch (FileAlreadyExistsException e) {
+                        created = false;
+                        if (!prefix.isEmpty() && !Files.readAttributes(dir, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS).isDirectory()) {
+                            // never write through a link; a link or a file in the way is replaced
+                            Files.delete(dir);
+                            Files.createDirectory(dir);
+                            created = true;
+                        }
+                    } catch (NoSuchFileException e) {
+                        // only the root's parents can be missing: subdirectories come after their parent
+                        Files.createDirectories(dir);
+                        created = true;
+                    }
+                    trees.put(prefix.isEmpty() ? "" : prefix.substring(0, prefix.length() - 1), tree);
+                    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                    for (GitObject e : reader.readTree(tree)) {
+                        Path child = resolve(dir, prefix, e.getPath());
+                        if ("tree".equals(e.getType())) {
+                            tasks.add(new DirTask(e.getId(), child, prefix + e.getPath() + "/"));
+                        } else {
+                            tasks.add(new FileTask(e.getId(), child, prefix + e.getPath(), created));
+                        }
+                    }
+                    ForkJoinTask.invokeAll(tasks);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private class FileTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final ObjectId id;
+            private final Path file;
+            private final String path;
+            private final boolean fresh;
+
+            FileTask(ObjectId id, Path file, String path, boolean fresh) {
+                this.id = id;
+                this.file = file;
+                this.path = path;
+                this.fresh = fresh;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    BasicFileAttributes attrs = null;
+                    if (!fresh) {
+                        try {
+                            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (NoSuchFileException e) {
+                            // not there yet: write it
+                        }
+                    }
+                    if (attrs != null) {
+                        if (attrs.isDirectory()) {
+                            throw new FileAlreadyExistsException(file.toString(), null,
+                                    "Checkout: a directory is in the way of a file");
+                        }
+                        if (!attrs.isRegularFile()) {
+                            // never write through a link
+                            Files.delete(file);
+                        } else if (inPlace(attrs)) {
+                            filesSkipped.increment();
+                            entries.add(GitIndex.entryFor(path, id, attrs));
+                            return;
+                        }
+                    }
+                    bytesWritten.add(reader.getStore().copyTo(id, file));
+                    filesWritten.increment();
+                    entries.add(GitIndex.entryFor(path, id, Files.readAttributes(file, BasicFileAttributes.class)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private boolean inPlace(BasicFileAttributes attrs) throws IOException {
+                GitIndex.Entry entry = index.get(path);
+                if (entry != null && entry.getId().equals(id) && index.isUpToDate(path, attrs)) {
+                    return true;
+                }
+                return reader.getStore().hashBlob(file).equals(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The chunks a large blob was split into (see {@link Chunker}), in order: one
+ * {@code "<chunk id> <size>"} line each. A chunked blob is stored under the id of its whole
+ * content, tagged {@link ObjectCodec#TAG_CHUNKED}, with its manifest as the payload; the chunks are
+ * ordinary objects. Ids, trees and the index therefore never know whether a blob was chunked.
+ */
+public class ChunkManifest {
+    private final List<ObjectId> ids;
+    private final List<Long> sizes;
+
+    public ChunkManifest(List<ObjectId> ids, List<Long> sizes) {
+        if (ids.size() != sizes.size()) {
+            throw new IllegalArgumentException("ChunkManifest: " + ids.size() + " ids but " + sizes.size() + " sizes");
+        }
+        this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+        this.sizes = Collections.unmodifiableList(new ArrayList<>(sizes));
+    }
+
+    public List<ObjectId> getIds() {
+        return ids;
+    }
+
+    public List<Long> getSizes() {
+        return sizes;
+    }
+
+    /** The length of the content the chunks add up to. */
+    public long size() {
+        long total = 0;
+        for (long s : sizes) {
+            total += s;
+        }
+        return total;
+    }
+
+    public byte[] format() {
+        StringBuilder sb = new StringBuilder(ids.size() * 52);
+        for (int i = 0; i < ids.size(); i++) {
+            sb.append(ids.get(i).toHex()).append(' ').append(sizes.get(i)).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Reads back what {@link #format} wrote. */
+    public static ChunkManifest parse(byte[] content) {
+        List<ObjectId> ids = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (String line : new String(content, StandardCharsets.US_ASCII).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw new IllegalArgumentException("ChunkManifest: malformed line \"" + line + "\"");
+            }
+            ids.add(ObjectId.fromHex(line.substring(0, space)));
+            sizes.add(Long.parseLong(line.substring(space + 1)));
+        }
+        return new ChunkManifest(ids, sizes);
+    }
+}
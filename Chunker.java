@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into content-defined chunks with FastCDC: a Gear rolling hash is updated one byte
+ * at a time and a chunk ends where its top bits are all zero. Boundaries depend only on the bytes
+ * just before them, so an insertion or edit moves the boundaries near it and no others; the chunks
+ * before and after come out identical and dedupe.
+ *
+ * No boundary is looked for in the first {@code min} bytes of a chunk, and one is forced at
+ * {@code max}. Normalized chunking keeps sizes close to {@code avg}: until then a boundary needs
+ * two more zero bits than the average calls for, after it two fewer.
+ */
+public class Chunker {
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+    /** One random 64-bit value per byte value, from a fixed seed: boundaries must never change. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0x6a09e667f3bcc908L;
+        for (int i = 0; i < GEAR.length; i++) {
+            // SplitMix64, spelled out so the table cannot change with the JDK
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    private final int min;
+    private final int avg;
+    private final int max;
+    private final long maskSmall;
+    private final long maskLarge;
+    private final byte[] buffer;
+    private int start;
+    private int end;
+    private boolean eof;
+
+    public Chunker(InputStream in) {
+        this(in, DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /** {@code avg} must be a power of two, with {@code min <= avg <= max}. */
+    public Chunker(InputStream in, int min, int avg, int max) {
+        if (Integer.bitCount(avg) != 1 || avg < 256 || min < 1 || min > avg || max < avg) {
+            throw new IllegalArgumentException("Chunker: need min <= avg <= max with avg a power of two >= 256, got "
+                    + min + "/" + avg + "/" + max);
+        }
+        this.in = in;
+        this.min = min;
+        this.avg = avg;
+        this.max = max;
+        int bits = Integer.numberOfTrailingZeros(avg);
+        this.maskSmall = topBits(bits + 2);
+        this.maskLarge = topBits(bits - 2);
+        this.buffer = new byte[max * 2];
+    }
+
+    private static long topBits(int n) {
+        // the Gear hash shifts left, so its top bits depend on the most recent 64 bytes
+        return -1L << (64 - n);
+    }
+
+    /** The next chunk, or null once the stream is used up. Does not close the stream. */
+    public byte[] next() throws IOException {
+        fill();
+        int available = end - start;
+        if (available == 0) {
+            return null;
+        }
+        int length = cut(available);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /** Where the chunk starting at {@code start} ends, given {@code available} buffered bytes. */
+    private int cut(int available) {
+        if (available <= min) {
+            return available;
+        }
+        int limit = Math.min(available, max);
+        int normal = Math.min(limit, avg);
+        long hash = 0;
+        int i = min;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buffer[start + i] & 0xff];
+            if ((hash & maskSmall) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[buffer[start + i] & 0xff];
+            if ((hash & maskLarge) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Tops the buffer up to at least {@code max} bytes past {@code start}, unless the stream ends first. */
+    private void fill() throws IOException {
+        if (end - start >= max || eof) {
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        while (end < buffer.length) {
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0) {
+                eof = true;
+                return;
+            }
+            end += n;
+        }
+    }
+}
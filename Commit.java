@@ -0,0 +1,146 @@
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A commit object: the root tree of a snapshot, the commits it follows, who made it and when, and
+ * a message. Stored as text in git's layout:
+ *
+ * <pre>
+ * tree &lt;id&gt;
+ * parent &lt;id&gt;              (zero or more)
+ * author &lt;ident&gt; &lt;epoch seconds&gt; &lt;+hhmm&gt;
+ * committer &lt;ident&gt; &lt;epoch seconds&gt; &lt;+hhmm&gt;
+ *
+ * &lt;message&gt;
+ * </pre>
+ *
+ * Author and committer share one timestamp.
+ */
+public class Commit {
+    private final ObjectId tree;
+    private final List<ObjectId> parents;
+    private final String author;
+    private final String committer;
+    private final long time;
+    private final String zone;
+    private final String message;
+
+    public Commit(ObjectId tree, List<ObjectId> parents, String author, String committer, long time, String zone,
+            String message) {
+        this.tree = tree;
+        this.parents = Collections.unmodifiableList(new ArrayList<>(parents));
+        this.author = author;
+        this.committer = committer;
+        this.time = time;
+        this.zone = zone;
+        this.message = message;
+    }
+
+    /** A commit made now, in this machine's time zone, by {@code author} as both author and committer. */
+    public static Commit now(ObjectId tree, List<ObjectId> parents, String author, String message) {
+        Instant now = Instant.now();
+        return new Commit(tree, parents, author, author, now.getEpochSecond(),
+                zoneOf(ZoneId.systemDefault().getRules().getOffset(now)), message);
+    }
+
+    public ObjectId getTree() {
+        return tree;
+    }
+
+    public List<ObjectId> getParents() {
+        return parents;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getCommitter() {
+        return committer;
+    }
+
+    /** Seconds since the epoch. */
+    public long getTime() {
+        return time;
+    }
+
+    /** The offset from UTC the commit was made in, as {@code +hhmm}. */
+    public String getZone() {
+        return zone;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public byte[] format() {
+        StringBuilder sb = new StringBuilder(160 + message.length());
+        sb.append("tree ").append(tree.toHex()).append('\n');
+        for (ObjectId parent : parents) {
+            sb.append("parent ").append(parent.toHex()).append('\n');
+        }
+        sb.append("author ").append(author).append(' ').append(time).append(' ').append(zone).append('\n');
+        sb.append("committer ").append(committer).append(' ').append(time).append(' ').append(zone).append('\n');
+        sb.append('\n').append(message);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Reads back what {@link #format} wrote. */
+    public static Commit parse(byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        int end = text.indexOf("\n\n");
+        if (end < 0) {
+            throw new IllegalArgumentException("Commit: no blank line after the header");
+        }
+        ObjectId tree = null;
+        List<ObjectId> parents = new ArrayList<>();
+        String author = null;
+        String committer = null;
+        long time = 0;
+        String zone = null;
+        for (String line : text.substring(0, end).split("\n")) {
+            if (line.startsWith("tree ")) {
+                tree = ObjectId.fromHex(line.substring(5));
+            } else if (line.startsWith("parent ")) {
+                parents.add(ObjectId.fromHex(line.substring(7)));
+            } else if (line.startsWith("author ") || line.startsWith("committer ")) {
+                // "<ident> <time> <zone>", and the ident itself contains spaces
+                String rest = line.substring(line.indexOf(' ') + 1);
+                int zoneAt = rest.lastIndexOf(' ');
+                int timeAt = rest.lastIndexOf(' ', zoneAt - 1);
+                if (timeAt < 0) {
+                    throw new IllegalArgumentException("Commit: malformed line \"" + line + "\"");
+                }
+                String ident = rest.substring(0, timeAt);
+                time = Long.parseLong(rest.substring(timeAt + 1, zoneAt));
+                zone = rest.substring(zoneAt + 1);
+                if (line.startsWith("author ")) {
+                    author = ident;
+                } else {
+                    committer = ident;
+                }
+            }
+        }
+        if (tree == null || author == null || committer == null) {
+            throw new IllegalArgumentException("Commit: missing tree, author or committer");
+        }
+        return new Commit(tree, parents, author, committer, time, zone, text.substring(end + 2));
+    }
+
+    static String zoneOf(ZoneOffset offset) {
+        int minutes = offset.getTotalSeconds() / 60;
+        char sign = minutes < 0 ? '-' : '+';
+        minutes = Math.abs(minutes);
+        return String.format("%c%02d%02d", sign, minutes / 60, minutes % 60);
+    }
+
+    @Override
+    public String toString() {
+        return new String(format(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns the index into a commit on top of HEAD. The index stays locked throughout, so the tree
+ * committed is exactly what was staged. The root tree comes from {@link IndexTreeBuilder} with the
+ * index's cached trees, so a commit writes only the trees on the paths that changed since the
+ * last one, plus the commit object itself; nothing is read back from the store. HEAD then moves
+ * with a compare-and-swap (see {@link Head#update}).
+ *
+ * The tree of the last commit made is remembered, so spotting that nothing changed since costs no
+ * object read either. One committer can be reused for any number of commits.
+ */
+public class Committer {
+    private final Path gitDir;
+    private final ObjectStore store;
+    private ObjectId lastCommit;
+    private ObjectId lastTree;
+    private int treesWritten;
+
+    public Committer(Path gitDir, ObjectStore store) {
+        this.gitDir = gitDir;
+        this.store = store;
+    }
+
+    public ObjectStore getStore() {
+        return store;
+    }
+
+    /** How many trees the last commit had to write. */
+    public int getTreesWritten() {
+        return treesWritten;
+    }
+
+    /**
+     * Commits the staged tree with HEAD as its parent and moves HEAD to it. Returns the new commit's
+     * id, or null if the tree is the one HEAD already has, in which case nothing is written.
+     */
+    public synchronized ObjectId commit(String author, String message) throws IOException {
+        try (IndexLock lock = IndexLock.acquire(gitDir)) {
+            GitIndex index = lock.load();
+            IndexTreeBuilder builder = new IndexTreeBuilder(store);
+            ObjectId tree = builder.build(index);
+            treesWritten = builder.getTreesWritten();
+
+            ObjectId parent = Head.read(gitDir);
+            ObjectId id = null;
+            if (parent == null || !tree.equals(treeOf(parent))) {
+                List<ObjectId> parents = parent == null ? Collections.emptyList() : Collections.singletonList(parent);
+                id = store.write(Commit.now(tree, parents, author, message).format());
+                Head.update(gitDir, parent, id);
+                lastCommit = id;
+                lastTree = tree;
+            }
+            if (treesWritten > 0) {
+                lock.commit(index);
+            }
+            return id;
+        }
+    }
+
+    private ObjectId treeOf(ObjectId commit) throws IOException {
+        if (commit.equals(lastCommit)) {
+            return lastTree;
+        }
+        return Commit.parse(store.read(commit)).getTree();
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Copy/insert deltas between two byte arrays, used by packs to store an object as the
+ * difference from a similar one.
+ *
+ * Format: varint base size, varint target size, then a run of ops:
+ * {@code 0x00 <varint len> <bytes>} inserts literal bytes,
+ * {@code 0x01 <varint offset> <varint len>} copies a range of the base.
+ */
+public class Delta {
+    private static final int BLOCK = 16;
+    private static final int PRIME = 31;
+    private static final int POW = pow(PRIME, BLOCK);
+    private static final byte OP_INSERT = 0;
+    private static final byte OP_COPY = 1;
+
+    private Delta() {
+    }
+
+    public static byte[] create(byte[] base, byte[] target) {
+        return new Index(base).create(target);
+    }
+
+    /**
+     * A base with its blocks already hashed, so the same base can be diffed against many targets
+     * (as a pack writer's delta window does) without re-indexing it each time.
+     */
+    public static class Index {
+        private final byte[] base;
+        private final int[] table;
+        private final int mask;
+
+        public Index(byte[] base) {
+            this.base = base;
+            // index every aligned block of the base by its hash; later blocks win collisions
+            int tableSize = Integer.highestOneBit(Math.max(16, base.length / BLOCK) * 2);
+            this.mask = tableSize - 1;
+            this.table = new int[tableSize];
+            Arrays.fill(table, -1);
+            for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+                table[mix(blockHash(base, i)) & mask] = i;
+            }
+        }
+
+        public byte[] create(byte[] target) {
+            return create(target, Integer.MAX_VALUE);
+        }
+
+        /** Like {@link #create(byte[])}, but gives up and returns null once the delta reaches maxLength. */
+        public byte[] create(byte[] target, int maxLength) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, target.length / 4));
+            writeVarint(out, base.length);
+            writeVarint(out, target.length);
+            if (base.length < BLOCK || target.length < BLOCK) {
+                emitInsert(out, target, 0, target.length);
+                return out.toByteArray();
+            }
+            int insertStart = 0;
+            int i = 0;
+            int h = blockHash(target, 0);
+            while (i + BLOCK <= target.length) {
+                int candidate = table[mix(h) & mask];
+                if (candidate >= 0 && regionEquals(base, candidate, target, i, BLOCK)) {
+                    int c = candidate;
+                    int len = BLOCK;
+                    while (c + len < base.length && i + len < target.length && base[c + len] == target[i + len]) {
+                        len++;
+                    }
+                    while (c > 0 && i > insertStart && base[c - 1] == target[i - 1]) {
+                        c--;
+                        i--;
+                        len++;
+                    }
+                    emitInsert(out, target, insertStart, i - insertStart);
+                    out.write(OP_COPY);
+                    writeVarint(out, c);
+                    writeVarint(out, len);
+                    i += len;
+                    insertStart = i;
+                    if (out.size() >= maxLength) {
+                        return null;
+                    }
+                    if (i + BLOCK <= target.length) {
+                        h = blockHash(target, i);
+                    }
+                } else {
+                    if (i + BLOCK < target.length) {
+                        h = h * PRIME + (target[i + BLOCK] & 0xff) - POW * (target[i] & 0xff);
+                    }
+                    i++;
+                    if (i - insertStart + out.size() >= maxLength) {
+                        // the pending literal run alone already makes this delta too big
+                        return null;
+                    }
+                }
+            }
+            emitInsert(out, target, insertStart, target.length - insertStart);
+            return out.size() < maxLength ? out.toByteArray() : null;
+        }
+    }
+
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        int[] pos = { 0 };
+        long baseSize = readVarint(delta, pos);
+        long targetSize = readVarint(delta, pos);
+        if (baseSize != base.length) {
+            throw new IOException("Delta: base is " + base.length + " bytes, delta expects " + baseSize);
+        }
+        byte[] target = new byte[(int) targetSize];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            byte op = delta[pos[0]++];
+            if (op == OP_INSERT) {
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, t, len);
+                pos[0] += len;
+                t += len;
+            } else if (op == OP_COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, target, t, len);
+                t += len;
+            } else {
+                throw new IOException("Delta: unknown op " + op);
+            }
+        }
+        if (t != target.length) {
+            throw new IOException("Delta: produced " + t + " bytes, expected " + target.length);
+        }
+        return target;
+    }
+
+    private static void emitInsert(ByteArrayOutputStream out, byte[] src, int off, int len) {
+        if (len > 0) {
+            out.write(OP_INSERT);
+            writeVarint(out, len);
+            out.write(src, off, len);
+        }
+    }
+
+    private static int pow(int base, int exp) {
+        int p = 1;
+        for (int i = 0; i < exp; i++) {
+            p *= base;
+        }
+        return p;
+    }
+
+    private static int blockHash(byte[] b, int off) {
+        int h = 0;
+        for (int i = off; i < off + BLOCK; i++) {
+            h = h * PRIME + (b[i] & 0xff);
+        }
+        return h;
+    }
+
+    private static int mix(int h) {
+        // spread the polynomial hash so the low bits used for the table index are well distributed
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        return Arrays.equals(a, aOff, aOff + len, b, bOff, bOff + len);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(byte[] b, int[] pos) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= b.length) {
+                throw new IOException("Delta: truncated varint");
+            }
+            int x = b[pos[0]++] & 0xff;
+            value |= (long) (x & 0x7F) << shift;
+            if ((x & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
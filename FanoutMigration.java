@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Moves loose objects from the old flat layout ({@code objects/<id>}) into fanout directories
+ * ({@code objects/ab/cdef...}, see {@link ObjectStore#path}). A tagged object is moved with a single
+ * rename. An untagged one, from before the object store, is stored afresh in the current format
+ * and the flat file deleted after. Either way the store stays readable while it runs, writers can
+ * keep writing, and a migration that is interrupted finishes when run again. A flat object whose
+ * fanout copy already exists (a writer stored it again meanwhile) just has the flat copy removed.
+ *
+ * Each flat file is read and re-hashed to tell the two formats apart (see
+ * {@link ObjectStore#readFlat}). One that matches neither is moved as it is, for fsck to report.
+ */
+public class FanoutMigration {
+    private final ObjectStore store;
+    private final boolean[] created = new boolean[256];
+
+    private int moved;
+    private int converted;
+    private int duplicates;
+
+    public FanoutMigration(ObjectStore store) {
+        this.store = store;
+    }
+
+    public int getMoved() {
+        return moved;
+    }
+
+    /** Of the objects moved, how many were untagged and had to be stored again. */
+    public int getConverted() {
+        return converted;
+    }
+
+    /** Flat objects that were dropped because the fanout layout already had them. */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /** Migrates every flat object in the store's directory and returns how many were moved. */
+    public int migrate() throws IOException {
+        Path objectsDir = store.getObjectsDir();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(objectsDir)) {
+            for (Path flat : stream) {
+                String name = flat.getFileName().toString();
+                if (ObjectId.isHex(name)) {
+                    migrate(flat, ObjectId.fromHex(name));
+                }
+            }
+        }
+        return moved;
+    }
+
+    private void migrate(Path flat, ObjectId id) throws IOException {
+        Path target = store.path(id);
+        int bucket = id.firstByte();
+        if (!created[bucket]) {
+            Files.createDirectories(target.getParent());
+            created[bucket] = true;
+        }
+        // objects are immutable, so an existing fanout copy has exactly this content
+        if (Files.exists(target)) {
+            Files.delete(flat);
+            duplicates++;
+            return;
+        }
+        byte[] file = Files.readAllBytes(flat);
+        byte[] legacy = store.decodeTagged(id, file) == null ? store.decodeLegacy(id, file) : null;
+        if (legacy != null) {
+            store.write(legacy);
+            Files.delete(flat);
+            converted++;
+        } else {
+            ObjectStore.moveIntoPlace(flat, target);
+        }
+        moved++;
+    }
+}
@@ -0,0 +1,406 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies the object store. Every loose object and every packed copy is decoded and re-hashed,
+ * in slices across a fork/join pool, and must hash to its own id; a chunked blob is reassembled
+ * from its chunks and hashed whole. Then the objects reachable from HEAD's history and from the
+ * index are walked as in {@link GarbageCollector}, and every id a commit, tree, manifest or index
+ * entry refers to must be in the store. Objects nothing reachable refers to are dangling.
+ *
+ * Problems go to the listener as they are found, from whichever worker found them. A corrupt
+ * object is reported once, from the hashing pass, and the walk does not read it.
+ */
+public class Fsck {
+    public enum Kind {
+        CORRUPT("corrupt"), MISSING("missing"), DANGLING("dangling");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        /** The word {@code git fsck} style output uses. */
+        public String label() {
+            return label;
+        }
+    }
+
+    /** Receives problems as they are found. Called from many threads at once. */
+    @FunctionalInterface
+    public interface Listener {
+        /** {@code detail} says where the object was or who refers to it. */
+        void found(Kind kind, ObjectId id, String detail);
+    }
+
+    private static final int SLICE = 256;
+
+    private final Path gitDir;
+    private final ObjectStore store;
+    private final int parallelism;
+    private final LongAdder objectsChecked = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+    private final LongAdder[] counts = new LongAdder[Kind.values().length];
+    private long hashNanos;
+    private long walkNanos;
+
+    public Fsck(Path gitDir, ObjectStore store, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Fsck: parallelism must be at least 1");
+        }
+        this.gitDir = gitDir;
+        this.store = store;
+        this.parallelism = parallelism;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public Fsck(Path gitDir, ObjectStore store) {
+        this(gitDir, store, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Object copies (loose or packed) the last check re-hashed. */
+    public long getObjectsChecked() {
+        return objectsChecked.sum();
+    }
+
+    /** Decoded bytes the last check hashed. */
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    /** How long the last check spent re-hashing, in nanoseconds. */
+    public long getHashNanos() {
+        return hashNanos;
+    }
+
+    /** How long the last check spent walking from HEAD and the index, in nanoseconds. */
+    public long getWalkNanos() {
+        return walkNanos;
+    }
+
+    /** Problems of {@code kind} the last check reported. */
+    public long getCount(Kind kind) {
+        return counts[kind.ordinal()].sum();
+    }
+
+    /** True if the last check found nothing corrupt or missing; dangling objects are harmless. */
+    public boolean isHealthy() {
+        return getCount(Kind.CORRUPT) == 0 && getCount(Kind.MISSING) == 0;
+    }
+
+    /** Checks the whole store. Returns once every problem has gone to the listener. */
+    public void check(Listener listener) throws IOException {
+        objectsChecked.reset();
+        bytesHashed.reset();
+        for (LongAdder c : counts) {
+            c.reset();
+        }
+        Check check = new Check(listener);
+        List<ForkJoinTask<?>> hashing = new ArrayList<>();
+        List<ObjectId> loose = store.listLoose();
+        for (ObjectId id : loose) {
+            check.present.add(id);
+        }
+        hashing.add(check.new HashTask(null, loose, 0, loose.size()));
+        List<PackFile> packs = store.reloadPacks();
+        for (PackFile pack : packs) {
+            List<ObjectId> ids = pack.ids();
+            for (ObjectId id : ids) {
+                check.present.add(id);
+            }
+            hashing.add(check.new HashTask(pack, ids, 0, ids.size()));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long start = System.nanoTime();
+            invoke(pool, hashing);
+            hashNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<ForkJoinTask<?>> walking = new ArrayList<>();
+            // history is a chain, so commits are read in turn; their trees are walked side by side
+            Deque<ObjectId> commits = new ArrayDeque<>();
+            Deque<String> referrers = new ArrayDeque<>();
+            ObjectId head = Head.read(gitDir);
+            if (head != null) {
+                commits.push(head);
+                referrers.push("HEAD");
+            }
+            while (!commits.isEmpty()) {
+                ObjectId id = commits.pop();
+                byte[] content = check.visit(id, referrers.pop());
+                if (content == null) {
+                    continue;
+                }
+                Commit commit;
+                try {
+                    commit = Commit.parse(content);
+                } catch (IllegalArgumentException e) {
+                    check.report(Kind.CORRUPT, id, "not a commit: " + e.getMessage());
+                    continue;
+                }
+                String referrer = "commit " + id;
+                walking.add(check.new TreeTask(commit.getTree(), referrer));
+                for (ObjectId parent : commit.getParents()) {
+                    commits.push(parent);
+                    referrers.push(referrer);
+                }
+            }
+            GitIndex index = GitIndex.load(gitDir);
+            for (ObjectId tree : index.cachedTreeIds()) {
+                walking.add(check.new TreeTask(tree, "index cache"));
+            }
+            List<GitIndex.Entry> staged = new ArrayList<>(index.entries());
+            walking.add(check.new IndexTask(staged, 0, staged.size()));
+            invoke(pool, walking);
+            walkNanos = System.nanoTime() - start;
+        } finally {
+            pool.shutdown();
+        }
+
+        for (ObjectId id : loose) {
+            check.reportDangling(id, "loose");
+        }
+        for (PackFile pack : packs) {
+            for (ObjectId id : pack.ids()) {
+                check.reportDangling(id, pack.getPackPath().getFileName().toString());
+            }
+        }
+    }
+
+    private static void invoke(ForkJoinPool pool, List<ForkJoinTask<?>> tasks) throws IOException {
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** The state of one check, shared by its tasks. */
+    private class Check {
+        final Listener listener;
+        final int idLength = store.getHasher().getIdLength();
+        /** Every id with a loose or packed copy. */
+        final ObjectIdSet present = new ObjectIdSet(idLength);
+        final ObjectIdSet corrupt = new ObjectIdSet(idLength);
+        final ObjectIdSet reachable = new ObjectIdSet(idLength);
+        final ObjectIdSet dangling = new ObjectIdSet(idLength);
+
+        Check(Listener listener) {
+            this.listener = listener;
+        }
+
+        void report(Kind kind, ObjectId id, String detail) {
+            counts[kind.ordinal()].increment();
+            listener.found(kind, id, detail);
+        }
+
+        void reportDangling(ObjectId id, String where) {
+            if (!reachable.contains(id) && dangling.add(id)) {
+                report(Kind.DANGLING, id, where);
+            }
+        }
+
+        /**
+         * Marks {@code id} reachable and returns its content for the walk to follow, or null if it
+         * was already visited, is missing or is corrupt.
+         */
+        byte[] visit(ObjectId id, String referrer) throws IOException {
+            if (!mark(id, referrer) || corrupt.contains(id)) {
+                return null;
+            }
+            try {
+                return store.read(id);
+            } catch (NoSuchFileException e) {
+                // present when listed, gone since: a concurrent gc or repack
+                report(Kind.MISSING, id, "referenced by " + referrer);
+                return null;
+            }
+        }
+
+        /** Marks {@code id} reachable; true the first time, unless it is not in the store. */
+        boolean mark(ObjectId id, String referrer) {
+            if (!reachable.add(id)) {
+                return false;
+            }
+            if (!present.contains(id)) {
+                report(Kind.MISSING, id, "referenced by " + referrer);
+                return false;
+            }
+            return true;
+        }
+
+        /** Marks a blob, and the chunks its manifest lists if it is stored in chunks. */
+        void referBlob(ObjectId id, String referrer) throws IOException {
+            if (!mark(id, referrer)) {
+                return;
+            }
+            ChunkManifest manifest;
+            try {
+                manifest = store.manifest(id);
+            } catch (IllegalArgumentException e) {
+                // an unreadable manifest; hashing has reported the blob as corrupt already
+                return;
+            }
+            if (manifest != null) {
+                for (ObjectId chunk : manifest.getIds()) {
+                    mark(chunk, "chunked blob " + id);
+                }
+            }
+        }
+
+        /** Re-hashes a slice of the loose objects, or of one pack's, splitting it while it is large. */
+        private class HashTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final PackFile pack;
+            private final List<ObjectId> ids;
+            private final int from;
+            private final int to;
+
+            HashTask(PackFile pack, List<ObjectId> ids, int from, int to) {
+                this.pack = pack;
+                this.ids = ids;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > SLICE) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new HashTask(pack, ids, from, mid), new HashTask(pack, ids, mid, to));
+                    return;
+                }
+                byte[] buffer = new byte[64 * 1024];
+                MessageDigest digest = store.getHasher().newDigest();
+                for (int i = from; i < to; i++) {
+                    ObjectId id = ids.get(i);
+                    String where = pack == null ? "loose" : pack.getPackPath().getFileName().toString();
+                    try (InputStream in = pack == null ? store.open(id) : pack.open(id)) {
+                        long size = 0;
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            digest.update(buffer, 0, n);
+                            size += n;
+                        }
+                        objectsChecked.increment();
+                        bytesHashed.add(size);
+                        ObjectId actual = ObjectId.fromBytes(digest.digest());
+                        if (!actual.equals(id)) {
+                            fail(id, where + ", hashes to " + actual);
+                        }
+                    } catch (NoSuchFileException e) {
+                        // a loose object deleted since the listing, or a chunk of a chunked blob
+                        fail(id, where + ", cannot be read: " + e.getMessage() + " is missing");
+                    } catch (IOException | IllegalArgumentException e) {
+                        fail(id, where + ", cannot be decoded: " + e.getMessage());
+                    } finally {
+                        digest.reset();
+                    }
+                }
+            }
+
+            private void fail(ObjectId id, String detail) {
+                corrupt.add(id);
+                report(Kind.CORRUPT, id, detail);
+            }
+        }
+
+        /** Marks a slice of the index's blobs, splitting it while it is large. */
+        private class IndexTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final List<GitIndex.Entry> entries;
+            private final int from;
+            private final int to;
+
+            IndexTask(List<GitIndex.Entry> entries, int from, int to) {
+                this.entries = entries;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > SLICE) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new IndexTask(entries, from, mid), new IndexTask(entries, mid, to));
+                    return;
+                }
+                try {
+                    for (int i = from; i < to; i++) {
+                        GitIndex.Entry e = entries.get(i);
+                        referBlob(e.getId(), "index entry " + e.getPath());
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private class TreeTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final ObjectId id;
+            private final String referrer;
+
+            TreeTask(ObjectId id, String referrer) {
+                this.id = id;
+                this.referrer = referrer;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    byte[] content = visit(id, referrer);
+                    if (content == null) {
+                        return;
+                    }
+                    List<GitObject> entries;
+                    try {
+                        entries = Tree.parse(content);
+                    } catch (IllegalArgumentException e) {
+                        report(Kind.CORRUPT, id, "not a tree: " + e.getMessage());
+                        return;
+                    }
+                    List<ForkJoinTask<?>> subtrees = new ArrayList<>();
+                    String self = "tree " + id;
+                    for (GitObject entry : entries) {
+                        if (entry.getType().equals("tree")) {
+                            subtrees.add(new TreeTask(entry.getId(), self));
+                        } else {
+                            referBlob(entry.getId(), self);
+                        }
+                    }
+                    ForkJoinTask.invokeAll(subtrees);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
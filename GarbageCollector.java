@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reclaims loose objects nothing refers to any more. The mark phase finds every object reachable
+ * from HEAD (each commit in its history, their trees and blobs) and from the index (staged blobs
+ * and cached trees, which the next commit will reuse); the chunks of a chunked blob are reachable
+ * through its manifest. Only the blobs the store recorded as chunked
+ * ({@link ObjectStore#chunkedIds}) are opened to read one, so with chunking unused no blob is read
+ * at all. Trees are read as separate fork/join tasks, and visited ids go into an
+ * {@link ObjectIdSet}, so a subtree shared by many commits is read once.
+ *
+ * The sweep deletes unmarked loose objects whose file is older than the grace period: an object
+ * written moments ago may belong to a commit or index update still in progress. Stale temp files
+ * from interrupted writes and stray directories in the objects directory go the same way. Packed
+ * objects are left alone; repacking is what drops them.
+ *
+ * A reachable commit or tree that cannot be read stops the collection before anything is deleted.
+ */
+public class GarbageCollector {
+    /** As git's {@code gc.pruneExpire}. */
+    public static final Duration DEFAULT_GRACE_PERIOD = Duration.ofDays(14);
+
+    private final Path gitDir;
+    private final ObjectStore store;
+    private final int parallelism;
+    private Duration gracePeriod = DEFAULT_GRACE_PERIOD;
+    private final LongAdder treesRead = new LongAdder();
+    /** Blobs that may be stored in chunks, or null to look at every blob; set by {@link #mark}. */
+    private Set<ObjectId> chunked;
+    private long reachable;
+    private long walkNanos;
+    private long objectsRemoved;
+    private long bytesRemoved;
+    private long strayRemoved;
+
+    public GarbageCollector(Path gitDir, ObjectStore store, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("GarbageCollector: parallelism must be at least 1");
+        }
+        this.gitDir = gitDir;
+        this.store = store;
+        this.parallelism = parallelism;
+    }
+
+    public GarbageCollector(Path gitDir, ObjectStore store) {
+        this(gitDir, store, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Duration getGracePeriod() {
+        return gracePeriod;
+    }
+
+    /** Unreachable objects younger than this are kept. {@link Duration#ZERO} removes them all. */
+    public GarbageCollector setGracePeriod(Duration gracePeriod) {
+        if (gracePeriod.isNegative()) {
+            throw new IllegalArgumentException("GarbageCollector: negative grace period " + gracePeriod);
+        }
+        this.gracePeriod = gracePeriod;
+        return this;
+    }
+
+    /** Objects the last collection found reachable, loose or packed. */
+    public long getReachable() {
+        return reachable;
+    }
+
+    /** Trees the last mark phase read. */
+    public long getTreesRead() {
+        return treesRead.sum();
+    }
+
+    /** How long the last mark phase took, in nanoseconds. */
+    public long getWalkNanos() {
+        return walkNanos;
+    }
+
+    /** Loose objects the last sweep deleted. */
+    public long getObjectsRemoved() {
+        return objectsRemoved;
+    }
+
+    /** Bytes of loose object files the last sweep deleted, as stored (compressed, if the codec does). */
+    public long getBytesRemoved() {
+        return bytesRemoved;
+    }
+
+    /** Stale temp files and stray directories the last sweep deleted. */
+    public long getStrayRemoved() {
+        return strayRemoved;
+    }
+
+    /** Marks, then sweeps. */
+    public void collect() throws IOException {
+        Instant cutoff = Instant.now().minus(gracePeriod);
+        ObjectIdSet marked = mark();
+        objectsRemoved = 0;
+        bytesRemoved = 0;
+        strayRemoved = 0;
+        for (ObjectId id : store.listLoose()) {
+            if (marked.contains(id)) {
+                continue;
+            }
+            Path file = store.path(id);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (attrs.lastModifiedTime().toInstant().isBefore(cutoff) && Files.deleteIfExists(file)) {
+                store.forget(id);
+                objectsRemoved++;
+                bytesRemoved += attrs.size();
+            }
+        }
+        sweepStray(store.getObjectsDir(), cutoff);
+        sweepStray(store.getObjectsDir().resolve("pack"), cutoff);
+    }
+
+    /** Every object reachable from HEAD and the index. */
+    public ObjectIdSet mark() throws IOException {
+        long start = System.nanoTime();
+        treesRead.reset();
+        ObjectIdSet marked = new ObjectIdSet(store.getHasher().getIdLength());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        // the store records every manifest it writes; with no record and chunking off, there are none
+        chunked = store.chunkedIds();
+        if (chunked == null && store.getChunkThreshold() == 0) {
+            chunked = Collections.emptySet();
+        }
+
+        // history is a chain, so commits are read in turn; their trees are walked side by side
+        Deque<ObjectId> commits = new ArrayDeque<>();
+        ObjectId head = Head.read(gitDir);
+        if (head != null) {
+            commits.push(head);
+        }
+        while (!commits.isEmpty()) {
+            ObjectId id = commits.pop();
+            if (!marked.add(id)) {
+                continue;
+            }
+            Commit commit = Commit.parse(readReachable(id));
+            tasks.add(new TreeTask(marked, commit.getTree()));
+            for (ObjectId parent : commit.getParents()) {
+                commits.push(parent);
+            }
+        }
+
+        GitIndex index = GitIndex.load(gitDir);
+        for (ObjectId tree : index.cachedTreeIds()) {
+            tasks.add(new TreeTask(marked, tree));
+        }
+        List<ObjectId> staged = new ArrayList<>(index.size());
+        for (GitIndex.Entry e : index.entries()) {
+            staged.add(e.getId());
+        }
+        tasks.add(new BlobsTask(marked, staged, 0, staged.size()));
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        reachable = marked.size();
+        walkNanos = System.nanoTime() - start;
+        return marked;
+    }
+
+    private byte[] readReachable(ObjectId id) throws IOException {
+        try {
+            return store.read(id);
+        } catch (NoSuchFileException e) {
+            throw new IOException("GarbageCollector: reachable object " + id
+                    + " is missing; nothing was removed", e);
+        }
+    }
+
+    /** Marks a blob, and its chunks if it is stored in chunks. */
+    private void markBlob(ObjectIdSet marked, ObjectId id) throws IOException {
+        if (!marked.add(id) || chunked != null && !chunked.contains(id)) {
+            return;
+        }
+        ChunkManifest manifest = store.manifest(id);
+        if (manifest != null) {
+            for (ObjectId chunk : manifest.getIds()) {
+                marked.add(chunk);
+            }
+        }
+    }
+
+    /** Deletes temp files and non-object directories in {@code dir} older than {@code cutoff}. */
+    private void sweepStray(Path dir, Instant cutoff) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (!attrs.lastModifiedTime().toInstant().isBefore(cutoff)) {
+                    continue;
+                }
+                boolean stray;
+                if (attrs.isDirectory()) {
+                    // fanout directories are two hex digits; anything else (say, one named after
+                    // a tree hash) was never part of the store
+                    stray = !(name.length() == 2 && ObjectId.isHex(name)) && !name.equals("pack")
+                            && isEmpty(p);
+                } else {
+                    stray = name.startsWith("tmp_obj_") || name.startsWith("tmp_pack_")
+                            || name.startsWith("tmp_idx_");
+                }
+                if (stray && Files.deleteIfExists(p)) {
+                    strayRemoved++;
+                }
+            }
+        }
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            return !stream.iterator().hasNext();
+        }
+    }
+
+    private class TreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ObjectIdSet marked;
+        private final ObjectId id;
+
+        TreeTask(ObjectIdSet marked, ObjectId id) {
+            this.marked = marked;
+            this.id = id;
+        }
+
+        @Override
+        protected void compute() {
+            if (!marked.add(id)) {
+                return;
+            }
+            try {
+                treesRead.increment();
+                List<ForkJoinTask<?>> subtrees = new ArrayList<>();
+                for (GitObject entry : Tree.parse(readReachable(id))) {
+                    if (entry.getType().equals("tree")) {
+                        subtrees.add(new TreeTask(marked, entry.getId()));
+                    } else {
+                        markBlob(marked, entry.getId());
+                    }
+                }
+                ForkJoinTask.invokeAll(subtrees);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Marks a slice of the index's blobs, splitting it while it is large. */
+    private class BlobsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SLICE = 1024;
+
+        private final ObjectIdSet marked;
+        private final List<ObjectId> ids;
+        private final int from;
+        private final int to;
+
+        BlobsTask(ObjectIdSet marked, List<ObjectId> ids, int from, int to) {
+            this.marked = marked;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SLICE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlobsTask(marked, ids, from, mid), new BlobsTask(marked, ids, mid, to));
+                return;
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    markBlob(marked, ids.get(i));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
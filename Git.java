@@ -1,21 +1,23 @@
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 public class Git {
+    private static Repository repository;
+    private static ObjectReader objectReader;
+    private static Committer committer;
 
     public static void initializeRepo() {
         File git = new File("git");
         File obj = new File("git/objects");
         File index = new File("git/index");
         File head = new File("git/HEAD");
+        repository = null;
         if (git.exists() && obj.exists() && index.exists() && head.exists()) {
             System.out.println("Git Repository Already Exists");
         } else {
@@ -38,125 +40,192 @@ public class Git {
     public static String hashFile(String filePath) {
         File testFile = new File(filePath);
         if (testFile.exists()) {
+            // big files are hashed from a mapping in windows: no heap copy and no 2 GB limit
             try {
-            byte[] bytes = Files.readAllBytes(Paths.get(filePath));
-            String content = new String(bytes, StandardCharsets.UTF_8);
-            if (!content.isEmpty() && content.charAt(0) == '\uFEFF') {
-                content = content.substring(1);
-            }
-            content = content.replace("\r\n", "\n").replace("\r", "\n");
-            byte[] normalizedBytes = content.getBytes(StandardCharsets.UTF_8);
-            MessageDigest mDigest = MessageDigest.getInstance("SHA-1");
-            byte[] hashedBytes = mDigest.digest(normalizedBytes);
-            StringBuilder hashedString = new StringBuilder();
-            for (byte b : hashedBytes) {
-                String hexB = Integer.toHexString(0xff & b);
-                if (hexB.length() == 1) {
-                    hashedString.append("0");
-                }
-                hashedString.append(hexB);
+                return getRepository().hashFile(testFile.toPath()).toHex();
+            } catch (IOException e) {
+                System.err.println(e);
+                return null;
             }
-            return hashedString.toString();
-        } catch (IOException | NoSuchAlgorithmException e) {
-            System.err.println(e);
-            return null;
-        }
         }
         else {
             return null;
         }
     }
     
-    public static void createBLOB(String filePath) {
-        String fileName = hashFile(filePath);
-        if (fileName == null) {
+    public static String createBLOB(String filePath) {
+        // one pass over the file: the object store hashes and encodes each buffer as it streams
+        // through, then renames the finished object into place. Returns the hash so callers never re-hash.
+        File blobFile = new File(filePath);
+        if (!blobFile.exists()) {
             throw new IllegalArgumentException("createBLOB: said file does not exist.");
         }
-        File dirCheck = new File(filePath);
-        if (dirCheck.isDirectory()) {
+        if (blobFile.isDirectory()) {
             throw new IllegalArgumentException("createBLOB: cannot accept a directory as argument");
         }
-        String path = "git/objects/" + fileName;
-        if (!Files.exists(Paths.get(path))) {
-            try {
-                String data = new String(Files.readAllBytes(Paths.get(filePath)));
-                Files.createFile(Paths.get("git/objects/" + fileName));
-                Files.write(Paths.get("git/objects/" + fileName), data.getBytes(StandardCharsets.UTF_8));
-            } catch (Exception e) {
-                System.err.println(e);
+        try {
+            return getRepository().createBlob(blobFile.toPath()).toHex();
+        } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("BLOB creation failed.");
+            return null;
+        }
+    }
+
+    /** The repository in the current directory, which every facade method works on. */
+    public static synchronized Repository getRepository() {
+        // rebuilt whenever the repo is (re)initialized or its settings change
+        if (repository == null) {
+            repository = new Repository(Paths.get(""));
+        }
+        return repository;
+    }
+
+    public static synchronized ObjectStore getObjectStore() throws IOException {
+        return getRepository().getObjectStore();
+    }
+
+    public static synchronized ObjectReader getObjectReader() throws IOException {
+        // tied to the current store, so a settings change drops the cache along with it
+        ObjectStore store = getObjectStore();
+        if (objectReader == null || objectReader.getStore() != store) {
+            objectReader = new ObjectReader(store);
+        }
+        return objectReader;
+    }
+
+    public static byte[] readObject(String hash) {
+        // a copy: the reader's cache shares its arrays
+        try {
+            return getObjectReader().read(ObjectId.fromHex(hash)).clone();
+        } catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+    public static List<GitObject> readTree(String hash) {
+        try {
+            List<GitObject> entries = new ArrayList<>();
+            for (GitObject e : getObjectReader().readTree(ObjectId.fromHex(hash))) {
+                entries.add(new GitObject(e.getType(), e.getId(), e.getPath()));
             }
-            if (!Files.exists(Paths.get(path))) {
-                System.err.println("BLOB creation failed.");
+            return entries;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+    public static synchronized void setCompression(String codec) {
+        // validate before persisting so a typo can't leave the repo unreadable for writes
+        ObjectCodec.parse(codec);
+        try {
+            GitConfig.load(Paths.get("git")).set(GitConfig.COMPRESSION, codec);
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        repository = null;
+    }
+
+    public static synchronized void setObjectFormat(String format) {
+        // ids of existing objects can't change, so the format is only chosen while the repo is empty
+        ObjectHasher.forName(format);
+        try {
+            ObjectStore store = getObjectStore();
+            if (!store.listLoose().isEmpty() || !store.getPacks().isEmpty()) {
+                System.err.println("Object format can only be changed before any objects are stored.");
+                return;
             }
+            GitConfig.load(Paths.get("git")).set(GitConfig.OBJECT_FORMAT, format);
+        } catch (IOException e) {
+            System.err.println(e);
         }
+        repository = null;
     }
 
-    // private static void compressFile(String fileName) {
-    //     try {
-    //         FileInputStream fIn = new FileInputStream(fileName);
-    //         FileOutputStream fOut = new FileOutputStream(".compress-" + fileName);
-    //         DeflaterOutputStream dOut = new DeflaterOutputStream(fOut);
-    //         int data;
-    //         while ((data = fIn.read()) != -1) {
-    //             dOut.write(data);
-    //         }
-    //         fIn.close();
-    //         dOut.close();
-    //     } catch (Exception e) {
-    //         e.printStackTrace();
-    //     }
-    // }
-    
-    // private static void decompressFile(String fileName) {
-    //     try {
-    //         FileInputStream fIn = new FileInputStream(fileName);
-    //         FileOutputStream fOut = new FileOutputStream(fileName.substring(10));
-    //         InflaterInputStream iIn = new InflaterInputStream(fIn);
-    //         int data;
-    //         while((data=iIn.read())!=-1)
-    //         {
-    //             fOut.write(data);
-    //         }
-    //         fOut.close();
-    //         iIn.close();
-    //     } catch (Exception e) {
-    //         e.printStackTrace();
-    //     }
-    // }
+    public static void repack() {
+        try {
+            PackWriter writer = new PackWriter(getObjectStore());
+            List<Path> packs = writer.repack();
+            System.out.println("Packed " + writer.getObjectsPacked() + " objects (" + writer.getDeltasWritten()
+                    + " as deltas) into " + packs.size() + " pack(s)");
+        } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("Repack failed.");
+        }
+    }
+
+    public static void gc() {
+        // unreachable loose objects younger than gc.pruneExpire stay: a commit may be under way
+        try {
+            GarbageCollector gc = new GarbageCollector(Paths.get("git"), getObjectStore())
+                    .setGracePeriod(GitConfig.load(Paths.get("git")).gcGracePeriod());
+            gc.collect();
+            getObjectReader().clear();
+            System.out.printf("Marked %d reachable objects in %.1f ms; removed %d objects (%.1f MB) and %d stray files%n",
+                    gc.getReachable(), gc.getWalkNanos() / 1e6, gc.getObjectsRemoved(), gc.getBytesRemoved() / 1e6,
+                    gc.getStrayRemoved());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e);
+            System.err.println("Garbage collection failed.");
+        }
+    }
 
-    public static void updateIndex(String fileName) {
+    public static List<String> fsck() {
+        // problems are printed as workers find them; the list comes back sorted
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        try {
+            Fsck fsck = new Fsck(Paths.get("git"), getObjectStore());
+            fsck.check((kind, id, detail) -> {
+                String line = kind.label() + " " + id + " (" + detail + ")";
+                System.out.println(line);
+                lines.add(line);
+            });
+            double seconds = fsck.getHashNanos() / 1e9;
+            System.out.printf("Checked %d objects (%.1f MB) in %.2f s: %.0f objects/s, %.1f MB/s; walk %.1f ms%n",
+                    fsck.getObjectsChecked(), fsck.getBytesHashed() / 1e6, seconds,
+                    fsck.getObjectsChecked() / seconds, fsck.getBytesHashed() / 1e6 / seconds,
+                    fsck.getWalkNanos() / 1e6);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e);
+            System.err.println("Fsck failed.");
+        }
+        List<String> sorted = new ArrayList<>(lines);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    public static void migrateObjects() {
+        // moves objects from the old flat git/objects/<hash> layout into fanout directories
+        try {
+            FanoutMigration migration = new FanoutMigration(getObjectStore());
+            migration.migrate();
+            System.out.println("Moved " + migration.getMoved() + " objects into fanout directories ("
+                    + migration.getConverted() + " untagged objects re-stored, " + migration.getDuplicates()
+                    + " duplicates removed)");
+        } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("Object migration failed.");
+        }
+    }
+
+    public static void updateIndex(String... fileNames) {
         // please only call this on things that exist if you want things to work
+        // files are hashed outside the index lock, skipping any whose size/mtime/inode match their
+        // entry; the entries then go to the batcher, which folds concurrent callers into one write
         if (Files.exists(Paths.get("git/index"))) {
-            String hash = hashFile(fileName);
-            try {
-                String contents = Files.readString(Paths.get("git/index"));
-                if (!contents.isEmpty()) {
-                    contents = contents + "\n";
-                }
-                File file = new File(fileName);
-                Path basePath = Paths.get(new File("..").getAbsolutePath());
-                Path relPath = Paths.get(file.getAbsolutePath());
-                Path correctPath = basePath.relativize(relPath);
-                String newThings = hash + " " + correctPath;
-                // this deals with a file that's already in the index but has new content
-                if (contents.contains(correctPath.toString()) && !contents.contains(hash)) {
-                    ArrayList<String> lines = new ArrayList<String>(Files.readAllLines(Paths.get("git/index")));
-                    for (int i = 0; i < lines.size(); i++) {
-                        if (lines.get(i).contains(correctPath.toString())) {
-                            lines.set(i, newThings);
-                        }
-                    }
-                    StringBuilder str = new StringBuilder();
-                    for (int i = 0; i < lines.size() - 1; i++) {
-                        str.append(lines.get(i) + "\n");
-                    }
-                    str.append(lines.get(lines.size() - 1));
-                    Files.write(Paths.get("git/index"), str.toString().getBytes(StandardCharsets.UTF_8));
-                }
-                //this gets anything that's not in there with the correct hash already
-                else if (!contents.contains(correctPath.toString())) {
-                    Files.write(Paths.get("git/index"), (contents + newThings).getBytes(StandardCharsets.UTF_8));
+            List<Path> files = new ArrayList<>();
+            for (String fileName : fileNames) {
+                try {
+                    files.add(Paths.get(fileName));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("updateIndex: skipping " + fileName + ": " + e);
                 }
+            }
+            try {
+                getRepository().updateIndex(files,
+                        (file, e) -> System.err.println("updateIndex: skipping " + file + ": " + e));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -166,6 +235,134 @@ public class Git {
         }
     }
 
+    public static void addAll(String path) {
+        // walk, store and index run side by side; the index is written in batches, not per file
+        if (!Files.exists(Paths.get("git/index"))) {
+            System.err.println("Repository not initialized.\nHow exactly did this happen?\n\nlol");
+            return;
+        }
+        try {
+            BulkAdder adder = new BulkAdder(Paths.get("git"), getObjectStore());
+            long start = System.nanoTime();
+            adder.add(Paths.get(""), Paths.get(path));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Staged %d of %d files (%.1f MB) in %.2f s%n", adder.getFilesStaged(),
+                    adder.getFilesScanned(), adder.getBytesStaged() / 1e6, seconds);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("Add failed.");
+        }
+    }
+
+    public static void refreshIndex() {
+        // re-hashes only the staged files whose stat data changed since they were staged
+        try (IndexLock lock = IndexLock.acquire(Paths.get("git"))) {
+            GitIndex index = lock.load();
+            int rehashed = index.refresh(Paths.get(""), getObjectStore());
+            lock.commit(index);
+            System.out.println("Refreshed index: " + rehashed + " of " + index.size() + " files re-hashed");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static List<String> status() {
+        // stat data decides for most files; only files whose stat changed are hashed, nothing is stored
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        if (!Files.exists(Paths.get("git/index"))) {
+            System.err.println("Repository not initialized...lol");
+            return lines;
+        }
+        try {
+            GitIndex index = IndexBatcher.forRepo(Paths.get("git")).snapshot();
+            new StatusWalker(getObjectStore()).walk(Paths.get(""), Paths.get("git"), index, (kind, path) -> {
+                String line = kind.code() + " " + path;
+                System.out.println(line);
+                lines.add(line);
+            });
+        } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("Status failed.");
+        }
+        List<String> sorted = new ArrayList<>(lines);
+        Collections.sort(sorted, (a, b) -> a.substring(2).compareTo(b.substring(2)));
+        return sorted;
+    }
+
+    public static synchronized String commit(String message) {
+        // commits what is staged on top of HEAD; only the trees on changed paths are written
+        if (!Files.exists(Paths.get("git/index"))) {
+            System.err.println("Repository not initialized...lol");
+            return null;
+        }
+        try {
+            ObjectStore store = getObjectStore();
+            if (committer == null || committer.getStore() != store) {
+                committer = new Committer(Paths.get("git"), store);
+            }
+            ObjectId id = committer.commit(GitConfig.load(Paths.get("git")).author(), message);
+            if (id == null) {
+                System.out.println("Nothing to commit");
+                return null;
+            }
+            System.out.println(id);
+            return id.toHex();
+        } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("Commit failed.");
+            return null;
+        }
+    }
+
+    /** The commit HEAD points at, or null before the first commit. */
+    public static String getHead() {
+        try {
+            ObjectId head = Head.read(Paths.get("git"));
+            return head == null ? null : head.toHex();
+        } catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+
+    public static void checkout(String commitHash) {
+        // files already in place (stat data, else hash) are not rewritten; files outside the tree stay
+        try (IndexLock lock = IndexLock.acquire(Paths.get("git"))) {
+            ObjectReader reader = getObjectReader();
+            ObjectId commit = ObjectId.fromHex(commitHash);
+            ObjectId tree = Commit.parse(reader.read(commit)).getTree();
+            GitIndex index = lock.load();
+            Checkout checkout = new Checkout(reader);
+            checkout.checkout(tree, Paths.get(""), index);
+            lock.commit(index);
+            Head.update(Paths.get("git"), Head.read(Paths.get("git")), commit);
+            System.out.println("Checked out " + commit + ": " + checkout.getFilesWritten() + " files written, "
+                    + checkout.getFilesSkipped() + " already in place");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e);
+            System.err.println("Checkout failed.");
+        }
+    }
+
+    public static List<String> diff(String fromCommit, String toCommit) {
+        // subtrees with the same hash on both sides are skipped unread; a null commit is an empty tree
+        List<String> lines = new ArrayList<>();
+        try {
+            ObjectReader reader = getObjectReader();
+            ObjectId from = fromCommit == null ? null : Commit.parse(reader.read(ObjectId.fromHex(fromCommit))).getTree();
+            ObjectId to = toCommit == null ? null : Commit.parse(reader.read(ObjectId.fromHex(toCommit))).getTree();
+            new TreeDiff(reader).diff(from, to, (kind, path, oldId, newId) -> {
+                String line = kind.code() + " " + path;
+                System.out.println(line);
+                lines.add(line);
+            });
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e);
+            System.err.println("Diff failed.");
+        }
+        return lines;
+    }
+
     public static void robustReset() {
         // this will not work if there is no repo to reset
         File projectDir = new File(".");
@@ -177,16 +374,24 @@ public class Git {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        // the objects they remember are gone; as initializeRepo, start over on next use
+        synchronized (Git.class) {
+            repository = null;
+            objectReader = null;
+            committer = null;
+        }
     }
     
     private static void removeAllContents(File dir) {
-        // helper method for robustReset()
+        // helper method for robustReset(); the build (pom.xml and each module directory) is kept
         File[] filesList = dir.listFiles();
         for (File f : filesList) {
             if (!f.getName().contains(".java") && f.getName().charAt(0) != '.' && !f.getName().equals("README.md")
-                    && !f.getName().equals("index") && !f.getName().equals("HEAD")) {
+                    && !f.getName().equals("index") && !f.getName().equals("HEAD") && !f.getName().equals("pom.xml")) {
                 if (f.isDirectory()) {
-                    removeAllContents(f);
+                    if (!new File(f, "pom.xml").exists()) {
+                        removeAllContents(f);
+                    }
                 } else {
                     f.delete();
                 }
@@ -195,196 +400,38 @@ public class Git {
     }
     
     public static String makeTree(String path) {
-        StringBuilder contents = new StringBuilder();
         File dir = new File(path);
         if (!dir.exists()) {
             System.err.println("It's generally best to make trees of directories that exist... cough cough");
             return null;
         }
         else {
-            File[] filesList = dir.listFiles();
-        for (File f : filesList) {
-            String fPath = f.getPath();
-            if (!contents.isEmpty()) {
-                if (f.isDirectory()) {
-                makeTree(fPath);
-                contents.append("\ntree " + makeTree(fPath) + " " + fPath);
-            } else {
-                createBLOB(fPath);
-                contents.append("\nblob " + hashFile(fPath) + " " + fPath);
-            }
-            }
-            else {
-                if (f.isDirectory()) {
-                makeTree(fPath);
-                contents.append("tree " + makeTree(fPath) + " " + fPath);
-            } else {
-                createBLOB(fPath);
-                contents.append("blob " + hashFile(fPath) + fPath);
-            }
-            }
-        }
-        String fileName = hashString(contents.toString());
-        if (fileName == null) {
-            System.err.println("Said file does not exist.");
-        }
-        if (!Files.exists(Paths.get(fileName))) {
+            // siblings are hashed in parallel and each subtree is built once; see TreeBuilder
             try {
-                Files.createFile(Paths.get(fileName));
-                Files.write(Paths.get(fileName), contents.toString().getBytes(StandardCharsets.UTF_8));
-            } catch (Exception e) {
+                return getRepository().makeTree(dir.toPath()).toHex();
+            } catch (IOException e) {
                 System.err.println(e);
-            }
-            if (!Files.exists(Paths.get(path))) {
                 System.err.println("Tree creation failed.");
+                return null;
             }
         }
-        return hashString(contents.toString());
-        }
     }
 
-    private static String hashString(String str) {
-        try {
-            byte[] bytes = str.getBytes();
-            String content = new String(bytes, StandardCharsets.UTF_8);
-            if (!content.isEmpty() && content.charAt(0) == '\uFEFF') {
-                content = content.substring(1);
-            }
-            content = content.replace("\r\n", "\n").replace("\r", "\n");
-            byte[] normalizedBytes = content.getBytes(StandardCharsets.UTF_8);
-            MessageDigest mDigest = MessageDigest.getInstance("SHA-1");
-            byte[] hashedBytes = mDigest.digest(normalizedBytes);
-            StringBuilder hashedString = new StringBuilder();
-            for (byte b : hashedBytes) {
-                String hexB = Integer.toHexString(0xff & b);
-                if (hexB.length() == 1) {
-                    hashedString.append("0");
-                }
-                hashedString.append(hexB);
-            }
-            return hashedString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            System.err.println(e);
+    public static String createTreeFromIndex() {
+        // one pass over the sorted index, building directories in memory; each tree is written once,
+        // and directories the index has a cached tree for are skipped entirely
+        if (!Files.exists(Paths.get("git/index"))) {
+            System.err.println("Repository not initialized...lol");
             return null;
         }
-    }
-
-    public static void createTreeFromIndex() {
-        File wL = new File("workingList");
-        // System.out.println(numSlashesTree("blob 7777777777777777777777777777777777777777 12/2/2/2/2.txt"));
-        try {
-            wL.createNewFile();
-            byte[] content = Files.readAllBytes(Paths.get("git/index"));
-            Files.write(Paths.get("workingList"), content);
-            ArrayList<String> lines = new ArrayList<String>(Files.readAllLines(Paths.get("workingList")));
-            ArrayList<GitObject> objects = new ArrayList<GitObject>();
-            for (String line : lines) {
-                objects.add(new GitObject(line.substring(0, 41), line.substring(41)));
-            }
-            // System.out.println(lines);
-            Collections.sort(objects);
-            // System.out.println(objects);
-            StringBuilder wLCont = new StringBuilder();
-            for (GitObject gitObject : objects) {
-                wLCont.append("blob "+gitObject.toString() + "\n");
-            }
-            String data = wLCont.toString();
-            Files.write(Paths.get("workingList"), data.trim().getBytes(StandardCharsets.UTF_8));
-            String info = new String(Files.readAllBytes(Paths.get("workingList")));
-            while (info.contains("\n")) {
-                condense();
-                info = new String(Files.readAllBytes(Paths.get("workingList")));
-            }
-            String rootHash = hashFile("workingList");
-            File root = new File("git/objects/"+ rootHash);
-            root.createNewFile();
-            Files.write(Paths.get("git/objects/"+ rootHash), Files.readAllBytes(Paths.get("workingList")));
-            Files.write(Paths.get("workingList"), ("tree " + rootHash + " (root)").getBytes(StandardCharsets.UTF_8));
-            String topHash = hashFile("workingList");
-            System.out.println(rootHash);
-            System.out.println(topHash);
-            File finalFile = new File("git/objects/"+topHash);
-            finalFile.createNewFile();
-            Files.write(Paths.get("git/objects/" + topHash), Files.readAllBytes(Paths.get("workingList")));
-            Files.delete(Paths.get("workingList"));
-
-        } catch (Exception e) {
-        }
-    }
-
-    private static void condense() {
         try {
-            ArrayList<String> lines = new ArrayList<String>(Files.readAllLines(Paths.get("workingList")));
-            int mostSlashes = 0;
-            for (int i = 0; i < lines.size(); i++) {
-                if (numSlashesTree(lines.get(i)) > mostSlashes) {
-                    mostSlashes = numSlashesTree(lines.get(i));
-                }
-            }
-            ArrayList<String> longest = new ArrayList<String>();
-            for (int i = 0; i < lines.size(); i++) {
-                if (numSlashesTree(lines.get(i)) == mostSlashes) {
-                    longest.add(lines.get(i));
-                }
-            }
-            String path = "";
-            for (int i = 0; i < longest.get(0).length(); i++) {
-                if (longest.get(0).charAt(i) == '\\') {
-                    path = longest.get(0).substring(46, i + 1);
-                }
-            }
-            String contents = "";
-            for (int i = 0; i < longest.size(); i++) {
-                if (longest.get(i).contains(path)) {
-                    contents += getFinalPath(longest.get(i)) + "\n";
-                }
-            }
-            // System.out.println(longest);
-            File newTree = new File("git/objects/"+hashString(contents.trim()));
-            newTree.createNewFile();
-            newTree.mkdir();
-            Files.write(Paths.get("git/objects/"+hashString(contents.trim())), contents.trim().getBytes(StandardCharsets.UTF_8));
-            for (int i = 0; i < lines.size(); i++) {
-                if (lines.get(i).contains(path)) {
-                    lines.remove(i);
-                    i--;
-                }
-            }
-            lines.add("tree " + hashString(contents.trim()) +" "+ path.substring(0, path.length()-1));
-            StringBuilder data = new StringBuilder();
-            for (int i = 0; i < lines.size(); i++) {
-                data.append(lines.get(i)+"\n");
-            }
-            Files.write(Paths.get("workingList"), data.toString().trim().getBytes(StandardCharsets.UTF_8));
+            ObjectId root = getRepository().createTreeFromIndex();
+            System.out.println(root);
+            return root.toHex();
         } catch (IOException e) {
+            System.err.println(e);
+            System.err.println("Tree creation failed.");
+            return null;
         }
     }
-    
-    private static int numSlashesTree(String str) {
-        // System.out.println("help me");
-        //   System.out.println("help me");
-        str = str.substring(46);
-        //  System.out.println("help me");
-        int count = 0;
-        //  System.out.println("help me");
-        //  System.out.println("help me");
-        for (int i = 0; i < str.length(); i++) {
-            if (str.charAt(i) == '\\') {
-                count++;
-            }
-        }
-        //  System.out.println("help me");
-        return count;
-    }
-    
-    private static String getFinalPath(String str) {
-        int index = 0;
-        String part1 = str.substring(0, 46);
-        for (int i = 0; i < str.length(); i++) {
-            if (str.charAt(i) == '\\') {
-                index = i;
-            }
-        }
-        return part1+str.substring(index + 1);
-    }
 }
\ No newline at end of file
@@ -0,0 +1,1725 @@
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Timing harness for the storage and hashing paths in Git.java.
+ * Every suite builds its own synthetic data in a temp directory and cleans up after itself.
+ *
+ * Usage: java GitBenchmark [suite ...]   (no arguments runs every suite)
+ */
+public class GitBenchmark {
+    private static final Map<String, BenchFunction> SUITES = new LinkedHashMap<>();
+
+    static {
+        SUITES.put("compression", GitBenchmark::runCompressionBenchmark);
+        SUITES.put("pack", GitBenchmark::runPackBenchmark);
+        SUITES.put("tree", GitBenchmark::runTreeScalingBenchmark);
+        SUITES.put("index", GitBenchmark::runIndexBenchmark);
+        SUITES.put("refresh", GitBenchmark::runRefreshBenchmark);
+        SUITES.put("indextree", GitBenchmark::runIndexTreeBenchmark);
+        SUITES.put("cachetree", GitBenchmark::runCacheTreeBenchmark);
+        SUITES.put("objectid", GitBenchmark::runObjectIdBenchmark);
+        SUITES.put("hashing", GitBenchmark::runHashingBenchmark);
+        SUITES.put("bigfile", GitBenchmark::runBigFileBenchmark);
+        SUITES.put("normalize", GitBenchmark::runNormalizeBenchmark);
+        SUITES.put("ingest", GitBenchmark::runIngestBenchmark);
+        SUITES.put("indexlock", GitBenchmark::runIndexLockBenchmark);
+        SUITES.put("fanout", GitBenchmark::runFanoutBenchmark);
+        SUITES.put("reader", GitBenchmark::runReaderBenchmark);
+        SUITES.put("commit", GitBenchmark::runCommitBenchmark);
+        SUITES.put("status", GitBenchmark::runStatusBenchmark);
+        SUITES.put("bulkadd", GitBenchmark::runBulkAddBenchmark);
+        SUITES.put("diff", GitBenchmark::runDiffBenchmark);
+        SUITES.put("checkout", GitBenchmark::runCheckoutBenchmark);
+        SUITES.put("chunking", GitBenchmark::runChunkingBenchmark);
+        SUITES.put("gc", GitBenchmark::runGcBenchmark);
+        SUITES.put("fsck", GitBenchmark::runFsckBenchmark);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> selected = args.length == 0 ? new ArrayList<>(SUITES.keySet()) : Arrays.asList(args);
+        for (String name : selected) {
+            BenchFunction suite = SUITES.get(name);
+            if (suite == null) {
+                System.err.println("Unknown suite: " + name + " (available: " + SUITES.keySet() + ")");
+                continue;
+            }
+            System.out.println("=== " + name + " ===");
+            suite.run();
+            System.out.println();
+        }
+    }
+
+    /**
+     * Writes the same corpus through every codec setting and reports how much disk each one
+     * saves and how fast objects go in and come back out.
+     */
+    public static void runCompressionBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            Path corpus = Files.createDirectory(work.resolve("corpus"));
+            List<Path> files = new ArrayList<>();
+            Random random = new Random(42);
+            for (int i = 0; i < 150; i++) {
+                files.add(writeFile(corpus.resolve("src" + i + ".java"), textContent(random, 64 * 1024)));
+            }
+            for (int i = 0; i < 50; i++) {
+                files.add(writeFile(corpus.resolve("bin" + i + ".dat"), binaryContent(random, 64 * 1024)));
+            }
+            files.add(writeFile(corpus.resolve("big.log"), textContent(random, 32 * 1024 * 1024)));
+            long rawBytes = 0;
+            for (Path f : files) {
+                rawBytes += Files.size(f);
+            }
+
+            System.out.printf("%d files, %.1f MB raw%n", files.size(), rawBytes / 1e6);
+            System.out.printf("%-10s %12s %8s %12s %12s%n", "codec", "stored MB", "saved", "write MB/s", "read MB/s");
+            for (String spec : new String[] { "none", "deflate:1", "deflate:6", "deflate:9" }) {
+                Path objects = Files.createDirectory(work.resolve("objects-" + spec.replace(':', '-')));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.parse(spec));
+
+                List<ObjectId> ids = new ArrayList<>();
+                long start = System.nanoTime();
+                for (Path f : files) {
+                    try (InputStream in = new FileInputStream(f.toFile())) {
+                        ids.add(store.write(in));
+                    }
+                }
+                long writeNanos = System.nanoTime() - start;
+
+                byte[] sink = new byte[ObjectStore.BUFFER_SIZE];
+                start = System.nanoTime();
+                for (ObjectId id : ids) {
+                    try (InputStream in = store.open(id)) {
+                        while (in.read(sink) != -1) {
+                            // drain
+                        }
+                    }
+                }
+                long readNanos = System.nanoTime() - start;
+
+                long stored = directorySize(objects);
+                System.out.printf("%-10s %12.1f %7.1f%% %12.1f %12.1f%n", spec, stored / 1e6,
+                        100.0 * (rawBytes - stored) / rawBytes, mbPerSec(rawBytes, writeNanos),
+                        mbPerSec(rawBytes, readNanos));
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Fills a loose store with many small, revision-like objects, then compares lookup latency,
+     * read latency and disk footprint before and after repacking them.
+     */
+    public static void runPackBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            Path objects = Files.createDirectory(work.resolve("objects"));
+            ObjectStore store = new ObjectStore(objects, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+            Random random = new Random(7);
+            List<ObjectId> ids = new ArrayList<>();
+            for (int file = 0; file < 2000; file++) {
+                byte[] content = textContent(random, 2048 + random.nextInt(6144));
+                for (int rev = 0; rev < 10; rev++) {
+                    content[random.nextInt(content.length)] = (byte) ('a' + random.nextInt(26));
+                    ids.add(store.write(content));
+                }
+            }
+            List<ObjectId> misses = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                misses.add(ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+            }
+            System.out.printf("%d objects%n", ids.size());
+            System.out.printf("%-7s %8s %12s %14s %14s %14s%n", "store", "files", "bytes", "hit ns/op", "miss ns/op",
+                    "read us/op");
+            reportStore("loose", store, objects, ids, misses, random);
+
+            long start = System.nanoTime();
+            PackWriter writer = new PackWriter(store);
+            writer.repack();
+            long repackNanos = System.nanoTime() - start;
+            reportStore("packed", store, objects, ids, misses, random);
+            System.out.printf("repack: %d objects, %d deltas, %.0f ms%n", writer.getObjectsPacked(),
+                    writer.getDeltasWritten(), repackNanos / 1e6);
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Snapshots the same synthetic source tree with 1, 2, 4 ... N threads (N = cores, or
+     * -Dthreads=N) into a fresh store each time and reports throughput and speedup.
+     */
+    public static void runTreeScalingBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            Path src = Files.createDirectory(work.resolve("src"));
+            Random random = new Random(11);
+            long files = 0;
+            long bytes = 0;
+            for (int a = 0; a < 20; a++) {
+                for (int b = 0; b < 10; b++) {
+                    for (int f = 0; f < 50; f++) {
+                        byte[] content = textContent(random, 4096 + random.nextInt(8192));
+                        writeFile(src.resolve("module" + a).resolve("pkg" + b).resolve("File" + f + ".java"), content);
+                        files++;
+                        bytes += content.length;
+                    }
+                }
+            }
+            int maxThreads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+            System.out.printf("%d files, %.1f MB, up to %d threads%n", files, bytes / 1e6, maxThreads);
+            System.out.printf("%-8s %10s %12s %10s %9s%n", "threads", "ms", "files/s", "MB/s", "speedup");
+            double baseline = 0;
+            ObjectId expected = null;
+            for (int threads : threadCounts(maxThreads)) {
+                Path objects = Files.createDirectory(work.resolve("objects-" + threads));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                long start = System.nanoTime();
+                ObjectId root = new TreeBuilder(store, threads).build(src);
+                long nanos = System.nanoTime() - start;
+                if (expected == null) {
+                    expected = root;
+                    baseline = nanos;
+                } else if (!expected.equals(root)) {
+                    throw new IllegalStateException("tree hash differs at " + threads + " threads");
+                }
+                System.out.printf("%-8d %10.0f %12.0f %10.1f %8.2fx%n", threads, nanos / 1e6, files / (nanos / 1e9),
+                        mbPerSec(bytes, nanos), baseline / nanos);
+                deleteRecursively(objects);
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Stages 1k, 10k and 100k small files with the old text-index algorithm (one index read,
+     * substring scan and full rewrite per file) and with GitIndex (one load, one write). The legacy
+     * run is skipped at 100k, where its quadratic cost makes it impractical.
+     */
+    public static void runIndexBenchmark() throws Exception {
+        System.out.printf("%-8s %22s %22s %22s%n", "files", "legacy hash-only ms", "GitIndex hash-only ms",
+                "GitIndex hash+store ms");
+        for (int count : new int[] { 1000, 10000, 100000 }) {
+            Path work = Files.createTempDirectory("gitbench");
+            try {
+                Random random = new Random(count);
+                List<Path> files = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    files.add(writeFile(work.resolve("tree/d" + (i % 100) + "/f" + i + ".txt"),
+                            textContent(random, 64 + random.nextInt(512))));
+                }
+
+                String legacy = "skipped";
+                if (count <= 10000) {
+                    Path legacyIndex = Files.createFile(work.resolve("legacy-index"));
+                    long start = System.nanoTime();
+                    for (Path f : files) {
+                        legacyUpdateIndex(legacyIndex, work, f);
+                    }
+                    legacy = String.format("%.0f", (System.nanoTime() - start) / 1e6);
+                }
+
+                Path gitDir = Files.createDirectory(work.resolve("git"));
+                long start = System.nanoTime();
+                GitIndex index = GitIndex.load(gitDir);
+                for (Path f : files) {
+                    index.add(GitIndex.relativePath(work, f), ObjectId.fromHex(Git.hashFile(f.toString())));
+                }
+                index.write();
+                double hashOnly = (System.nanoTime() - start) / 1e6;
+
+                Files.delete(gitDir.resolve("index"));
+                ObjectStore store = new ObjectStore(Files.createDirectory(gitDir.resolve("objects")),
+                        ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                start = System.nanoTime();
+                index = GitIndex.load(gitDir);
+                for (Path f : files) {
+                    index.add(GitIndex.relativePath(work, f), store.writeBlob(f));
+                }
+                index.write();
+                double withStore = (System.nanoTime() - start) / 1e6;
+
+                System.out.printf("%-8d %22s %22.0f %22.0f%n", count, legacy, hashOnly, withStore);
+            } finally {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    /**
+     * Re-stages an unchanged tree twice: once with the stat data stripped (every file re-hashed,
+     * the old behaviour) and once through the stat cache (one stat per file).
+     */
+    public static void runRefreshBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            Random random = new Random(5);
+            long bytes = 0;
+            for (int i = 0; i < 20000; i++) {
+                byte[] content = textContent(random, 4096 + random.nextInt(16384));
+                writeFile(work.resolve("tree/d" + (i % 200) + "/f" + i + ".txt"), content);
+                bytes += content.length;
+            }
+            Path gitDir = Files.createDirectory(work.resolve("git"));
+            ObjectStore store = new ObjectStore(Files.createDirectory(gitDir.resolve("objects")),
+                    ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+            GitIndex index = GitIndex.load(gitDir);
+            try (Stream<Path> walk = Files.walk(work.resolve("tree"))) {
+                for (Path f : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                    index.stage(GitIndex.relativePath(work, f), f, store);
+                }
+            }
+            Thread.sleep(50);
+            index.write();
+            System.out.printf("%d files, %.1f MB%n", index.size(), bytes / 1e6);
+
+            GitIndex statless = GitIndex.load(gitDir);
+            for (GitIndex.Entry e : new ArrayList<>(statless.entries())) {
+                statless.add(e.getPath(), e.getId());
+            }
+            long start = System.nanoTime();
+            int rehashedFull = statless.refresh(work, store);
+            double fullMs = (System.nanoTime() - start) / 1e6;
+
+            GitIndex cached = GitIndex.load(gitDir);
+            start = System.nanoTime();
+            int rehashedCached = cached.refresh(work, store);
+            double cachedMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("%-22s %10s %10s%n", "mode", "ms", "re-hashed");
+            System.out.printf("%-22s %10.0f %10d%n", "no stat cache", fullMs, rehashedFull);
+            System.out.printf("%-22s %10.0f %10d%n", "stat cache", cachedMs, rehashedCached);
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Compares the old String hash path (Integer.toHexString per byte into a StringBuilder, String
+     * map keys) against ObjectId: throughput and bytes allocated per operation for encoding, decoding
+     * and map lookups, plus the heap each retained id costs.
+     */
+    public static void runObjectIdBenchmark() throws Exception {
+        int count = 1_000_000;
+        Random random = new Random(11);
+        byte[][] digests = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            digests[i] = binaryContent(random, ObjectId.SHA1_LENGTH);
+        }
+        String[] hexes = new String[count];
+        ObjectId[] ids = new ObjectId[count];
+        for (int i = 0; i < count; i++) {
+            hexes[i] = legacyToHex(digests[i]);
+            ids[i] = ObjectId.fromBytes(digests[i]);
+        }
+        Map<String, Integer> stringMap = new HashMap<>();
+        Map<ObjectId, Integer> idMap = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            stringMap.put(hexes[i], i);
+            idMap.put(ids[i], i);
+        }
+
+        System.out.printf("%d ids%n", count);
+        System.out.printf("%-28s %14s %14s%n", "operation", "ops/s", "bytes/op");
+        long[] sink = new long[1];
+        measure("encode: toHexString+SB", count, () -> {
+            for (byte[] d : digests) {
+                sink[0] += legacyToHex(d).length();
+            }
+        });
+        measure("encode: ObjectId.toHex", count, () -> {
+            for (byte[] d : digests) {
+                sink[0] += ObjectId.fromBytes(d).toHex().length();
+            }
+        });
+        measure("decode: hex -> byte[]", count, () -> {
+            for (String h : hexes) {
+                sink[0] += legacyFromHex(h)[0];
+            }
+        });
+        measure("decode: ObjectId.fromHex", count, () -> {
+            for (String h : hexes) {
+                sink[0] += ObjectId.fromHex(h).firstByte();
+            }
+        });
+        measure("lookup: String key", count, () -> {
+            for (byte[] d : digests) {
+                sink[0] += stringMap.get(legacyToHex(d));
+            }
+        });
+        measure("lookup: ObjectId key", count, () -> {
+            for (byte[] d : digests) {
+                sink[0] += idMap.get(ObjectId.fromBytes(d));
+            }
+        });
+
+        // fromBytes allocates exactly the id it returns, so once stored its allocation is its retained size
+        long before = allocatedBytes();
+        for (int i = 0; i < count; i++) {
+            ids[i] = ObjectId.fromBytes(digests[i]);
+        }
+        long idBytes = (allocatedBytes() - before) / count;
+        System.out.printf("retained per id: String %d bytes, ObjectId %d bytes (checksum %d)%n",
+                retainedSize(hexes[0]), idBytes, sink[0] & 0xff);
+    }
+
+    /**
+     * For each object format: small-object hashing with a fresh MessageDigest per call (the old
+     * hashFile) against the hasher's per-thread digest, then bulk MB/s from each input source.
+     */
+    public static void runHashingBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            Random random = new Random(5);
+            int smallCount = 200_000;
+            byte[][] small = new byte[1000][];
+            for (int i = 0; i < small.length; i++) {
+                small[i] = textContent(random, 256 + random.nextInt(1024));
+            }
+            byte[] big = binaryContent(random, 64 * 1024 * 1024);
+            Path bigFile = writeFile(work.resolve("big.bin"), big);
+            ByteBuffer direct = ByteBuffer.allocateDirect(big.length);
+            direct.put(big).flip();
+
+            System.out.printf("%d small objects (256-1280 bytes), %d MB bulk%n", smallCount, big.length >> 20);
+            System.out.printf("%-8s %-26s %14s %12s%n", "format", "case", "ops/s", "MB/s");
+            for (ObjectHasher hasher : new ObjectHasher[] { ObjectHasher.SHA1, ObjectHasher.SHA256 }) {
+                String algorithm = hasher == ObjectHasher.SHA1 ? "SHA-1" : "SHA-256";
+                long[] sink = new long[1];
+                timeHashing(hasher, "small: getInstance per call", smallCount, 0, () -> {
+                    for (int i = 0; i < smallCount; i++) {
+                        MessageDigest d = MessageDigest.getInstance(algorithm);
+                        sink[0] += d.digest(small[i % small.length])[0];
+                    }
+                });
+                timeHashing(hasher, "small: per-thread digest", smallCount, 0, () -> {
+                    for (int i = 0; i < smallCount; i++) {
+                        sink[0] += hasher.hash(small[i % small.length]).firstByte();
+                    }
+                });
+                timeHashing(hasher, "bulk: byte[]", 1, big.length, () -> sink[0] += hasher.hash(big).firstByte());
+                timeHashing(hasher, "bulk: direct ByteBuffer", 1, big.length,
+                        () -> sink[0] += hasher.hash(direct.duplicate()).firstByte());
+                timeHashing(hasher, "bulk: InputStream", 1, big.length, () -> {
+                    try (InputStream in = Files.newInputStream(bigFile)) {
+                        sink[0] += hasher.hash(in).firstByte();
+                    }
+                });
+                timeHashing(hasher, "bulk: FileChannel", 1, big.length, () -> {
+                    try (FileChannel ch = FileChannel.open(bigFile)) {
+                        sink[0] += hasher.hash(ch).firstByte();
+                    }
+                });
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Hashes one large file three ways: read whole onto the heap (the original hashFile), streamed
+     * through a 64K buffer, and mapped in windows. Reports MB/s and how much heap each allocates.
+     * Size with -Dbigfile.mb=N (default 512); the byte[] path is skipped if it can't fit the heap.
+     */
+    public static void runBigFileBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            long size = Long.getLong("bigfile.mb", 512) * 1024 * 1024;
+            Path file = work.resolve("big.bin");
+            Random random = new Random(3);
+            byte[] chunk = binaryContent(random, 1024 * 1024);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < size; written += chunk.length) {
+                    out.write(chunk);
+                }
+            }
+            ObjectHasher hasher = ObjectHasher.SHA1;
+            System.out.printf("%d MB file%n", size >> 20);
+            System.out.printf("%-18s %10s %14s%n", "path", "MB/s", "heap MB");
+            if (size < Runtime.getRuntime().maxMemory() / 2) {
+                timeBigFile("readAllBytes", size, () -> hasher.hash(Files.readAllBytes(file)));
+            } else {
+                System.out.printf("%-18s %10s %14s%n", "readAllBytes", "-", "too big");
+            }
+            timeBigFile("stream 64K", size, () -> {
+                try (InputStream in = Files.newInputStream(file)) {
+                    hasher.hash(in);
+                }
+            });
+            timeBigFile("mapped windows", size, () -> {
+                try (FileChannel ch = FileChannel.open(file)) {
+                    hasher.hashMapped(ch);
+                }
+            });
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Hashes text and binary content three ways: the original String pipeline (decode, strip BOM,
+     * two replace calls, re-encode), the streaming filter as blobs now go through it (binary
+     * detected and passed through), and no filter at all as the disk-speed ceiling.
+     */
+    public static void runNormalizeBenchmark() throws Exception {
+        Random random = new Random(9);
+        byte[] text = textContent(random, 32 * 1024 * 1024);
+        for (int i = 80; i < text.length; i += 80) {
+            text[i - 1] = '\r';
+        }
+        byte[] binary = binaryContent(random, 32 * 1024 * 1024);
+        ObjectHasher hasher = ObjectHasher.SHA1;
+        System.out.printf("%-8s %-14s %10s %16s%n", "content", "path", "MB/s", "alloc bytes/byte");
+        for (String kind : new String[] { "text", "binary" }) {
+            byte[] content = kind.equals("text") ? text : binary;
+            timeNormalize(kind, "String", content, () -> {
+                String decoded = new String(content, StandardCharsets.UTF_8);
+                if (!decoded.isEmpty() && decoded.charAt(0) == '\uFEFF') {
+                    decoded = decoded.substring(1);
+                }
+                decoded = decoded.replace("\r\n", "\n").replace("\r", "\n");
+                hasher.hash(decoded.getBytes(StandardCharsets.UTF_8));
+            });
+            timeNormalize(kind, "stream filter", content, () -> hasher.hash(
+                    NormalizingInputStream.forBlob(new ByteArrayInputStream(content), NormalizingInputStream.Mode.AUTO)));
+            timeNormalize(kind, "raw", content, () -> hasher.hash(new ByteArrayInputStream(content)));
+        }
+    }
+
+    /**
+     * Several workers storing overlapping small objects into one store: a first pass where every
+     * object is new, then the same content again through the same store (known-id set hits) and
+     * through a fresh store over the same directory (one existence syscall per object).
+     */
+    public static void runIngestBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            Random random = new Random(13);
+            List<byte[]> contents = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                contents.add(textContent(random, 200 + random.nextInt(2000)));
+            }
+            int maxThreads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+            System.out.printf("%d distinct objects, every worker stores all of them%n", contents.size());
+            System.out.printf("%-8s %14s %20s %20s%n", "threads", "first obj/s", "again obj/s (known)",
+                    "again obj/s (stat)");
+            for (int threads : threadCounts(Math.max(maxThreads, 4))) {
+                Path objects = Files.createDirectory(work.resolve("objects-" + threads));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                double fresh = ingest(store, contents, threads);
+                double known = ingest(store, contents, threads);
+                double stat = ingest(new ObjectStore(objects, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION)),
+                        contents, threads);
+                System.out.printf("%-8d %14.0f %20.0f %20.0f%n", threads, fresh, known, stat);
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /** Has each of {@code threads} workers store every object (in its own order); returns objects/s. */
+    private static double ingest(ObjectStore store, List<byte[]> contents, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                List<byte[]> order = new ArrayList<>(contents);
+                Collections.shuffle(order, new Random(t));
+                workers.add(pool.submit(() -> {
+                    for (byte[] content : order) {
+                        store.write(content);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> w : workers) {
+                w.get();
+            }
+            return (double) threads * contents.size() / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void runIndexLockBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int existing = Integer.getInteger("index.entries", 20_000);
+            int perThread = 25;
+            int maxThreads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+            System.out.printf("index of %d entries, each thread stages %d files one call at a time%n", existing,
+                    perThread);
+            System.out.printf("%-8s %16s %10s %16s %10s%n", "threads", "locked upd/s", "writes", "batched upd/s",
+                    "writes");
+            for (int threads : threadCounts(Math.max(maxThreads, 4))) {
+                Path lockedDir = Files.createDirectory(work.resolve("locked-" + threads));
+                Path batchedDir = Files.createDirectory(work.resolve("batched-" + threads));
+                seedIndex(lockedDir, existing);
+                seedIndex(batchedDir, existing);
+                double locked = stageConcurrently(threads, perThread, (path, id) -> {
+                    // what every updateIndex call did before batching: a full read-modify-write of its own;
+                    // at high thread counts waits pass the default timeout, so allow them here
+                    try (IndexLock lock = IndexLock.acquire(lockedDir, 600_000)) {
+                        GitIndex index = lock.load();
+                        index.add(path, id);
+                        lock.commit(index);
+                    }
+                });
+                IndexBatcher batcher = new IndexBatcher(batchedDir);
+                double batched = stageConcurrently(threads, perThread,
+                        (path, id) -> batcher.update(index -> index.add(path, id)));
+                System.out.printf("%-8d %16.0f %10d %16.0f %10d%n", threads, locked, threads * perThread, batched,
+                        batcher.getBatches());
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    public static void runFanoutBenchmark() throws Exception {
+        // the directory entries stay in the dentry cache after creation, so this is warm-cache latency
+        int max = Integer.getInteger("fanout.max", 1_000_000);
+        int lookups = 200_000;
+        System.out.printf("%-9s %-7s %12s %12s %12s %14s%n", "objects", "layout", "hit us/op", "miss us/op",
+                "list ms", "migrate ms");
+        for (int count = 100_000; count <= max; count *= 10) {
+            Path work = Files.createTempDirectory("gitbench");
+            try {
+                Path objects = Files.createDirectory(work.resolve("objects"));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.none());
+                List<ObjectId> ids = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ObjectId id = ObjectHasher.SHA1.hash(("object " + i).getBytes(StandardCharsets.UTF_8));
+                    Files.createFile(store.flatPath(id));
+                    ids.add(id);
+                }
+                Random random = new Random(15);
+                List<ObjectId> hits = new ArrayList<>(lookups);
+                List<ObjectId> misses = new ArrayList<>(lookups);
+                for (int i = 0; i < lookups; i++) {
+                    hits.add(ids.get(random.nextInt(count)));
+                    misses.add(ObjectHasher.SHA1.hash(("absent " + i).getBytes(StandardCharsets.UTF_8)));
+                }
+
+                double flatHit = lookupMicros(hits, store::flatPath);
+                double flatMiss = lookupMicros(misses, store::flatPath);
+                long start = System.nanoTime();
+                int listed = 0;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(objects)) {
+                    for (Path p : stream) {
+                        listed += ObjectId.isHex(p.getFileName().toString()) ? 1 : 0;
+                    }
+                }
+                double flatList = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-9d %-7s %12.2f %12.2f %12.0f %14s%n", listed, "flat", flatHit, flatMiss,
+                        flatList, "");
+
+                start = System.nanoTime();
+                new FanoutMigration(store).migrate();
+                double migrate = (System.nanoTime() - start) / 1e6;
+                double fanoutHit = lookupMicros(hits, store::path);
+                double fanoutMiss = lookupMicros(misses, store::path);
+                start = System.nanoTime();
+                listed = store.listLoose().size();
+                double fanoutList = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-9d %-7s %12.2f %12.2f %12.0f %14.0f%n", listed, "fanout", fanoutHit,
+                        fanoutMiss, fanoutList, migrate);
+            } finally {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    public static void runReaderBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int count = Integer.getInteger("reader.files", 20_000);
+            Random random = new Random(16);
+            ObjectStore store = new ObjectStore(Files.createDirectory(work.resolve("objects")),
+                    ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+            List<GitIndex.Entry> entries = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String path = "d" + (i % 20) + "/s" + (i / 20 % 25) + "/f" + i + ".txt";
+                entries.add(new GitIndex.Entry(path, store.write(textContent(random, 200 + random.nextInt(800)))));
+            }
+            entries.sort((a, b) -> a.getPath().compareTo(b.getPath()));
+            ObjectId root = new IndexTreeBuilder(store).build(entries);
+            int walks = 5;
+            System.out.printf("%d files; each walk reads every tree and blob under the root, %d walks%n", count,
+                    walks);
+            System.out.printf("%-20s %12s %10s %12s %12s%n", "reader", "ms/walk", "hit rate", "evictions",
+                    "cached MB");
+
+            walk(store, null, root);
+            long start = System.nanoTime();
+            for (int w = 0; w < walks; w++) {
+                walk(store, null, root);
+            }
+            System.out.printf("%-20s %12.1f %10s %12s %12s%n", "uncached", (System.nanoTime() - start) / 1e6 / walks,
+                    "", "", "");
+
+            for (long capacity : new long[] { 64L << 20, 4L << 20 }) {
+                ObjectReader reader = new ObjectReader(store, capacity);
+                walk(store, reader, root);
+                long hits = reader.getHits();
+                long misses = reader.getMisses();
+                start = System.nanoTime();
+                for (int w = 0; w < walks; w++) {
+                    walk(store, reader, root);
+                }
+                double ms = (System.nanoTime() - start) / 1e6 / walks;
+                double hitRate = (double) (reader.getHits() - hits)
+                        / (reader.getHits() - hits + reader.getMisses() - misses);
+                System.out.printf("%-20s %12.1f %9.0f%% %12d %12.1f%n", "cache " + (capacity >> 20) + " MB", ms,
+                        hitRate * 100, reader.getEvictions(), reader.getCachedBytes() / 1e6);
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    public static void runCommitBenchmark() throws Exception {
+        int commits = 50;
+        System.out.printf("one file changed between commits, %d commits%n", commits);
+        System.out.printf("%-9s %-16s %12s %14s%n", "entries", "trees", "ms/commit", "trees/commit");
+        for (int count : new int[] { 10_000, 100_000 }) {
+            Path work = Files.createTempDirectory("gitbench");
+            try {
+                Random random = new Random(count);
+                ObjectStore store = new ObjectStore(Files.createDirectory(work.resolve("objects")),
+                        ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                GitIndex seed = GitIndex.load(work);
+                for (int i = 0; i < count; i++) {
+                    String path = "d" + (i % 20) + "/s" + (i / 20 % 25) + "/t" + (i / 500 % 10) + "/f" + i + ".txt";
+                    seed.add(path, ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+                }
+                seed.write();
+                List<String> paths = new ArrayList<>();
+                for (GitIndex.Entry e : seed.sortedEntries()) {
+                    paths.add(e.getPath());
+                }
+
+                // every tree rebuilt from the sorted entries, the commit written and HEAD moved by hand
+                long full = 0;
+                for (int c = 0; c < commits; c++) {
+                    stageRandom(work, paths, random);
+                    long start = System.nanoTime();
+                    try (IndexLock lock = IndexLock.acquire(work)) {
+                        ObjectId parent = Head.read(work);
+                        ObjectId tree = new IndexTreeBuilder(store).build(lock.load().sortedEntries());
+                        List<ObjectId> parents = parent == null ? List.of() : List.of(parent);
+                        ObjectId id = store.write(Commit.now(tree, parents, "Bench <bench@localhost>", "c" + c).format());
+                        Head.update(work, parent, id);
+                    }
+                    full += System.nanoTime() - start;
+                }
+                System.out.printf("%-9d %-16s %12.1f %14s%n", count, "all rebuilt", full / 1e6 / commits, "");
+
+                Committer committer = new Committer(work, store);
+                committer.commit("Bench <bench@localhost>", "warm the cached trees");
+                long cached = 0;
+                long trees = 0;
+                for (int c = 0; c < commits; c++) {
+                    stageRandom(work, paths, random);
+                    long start = System.nanoTime();
+                    committer.commit("Bench <bench@localhost>", "c" + c);
+                    cached += System.nanoTime() - start;
+                    trees += committer.getTreesWritten();
+                }
+                System.out.printf("%-9d %-16s %12.1f %14.1f%n", count, "cache-tree", cached / 1e6 / commits,
+                        (double) trees / commits);
+            } finally {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    /**
+     * Status of a 100k-file tree: clean, then with a few files edited and a few only touched, each
+     * at several parallelism levels, against re-hashing every file as the only way to find changes
+     * used to be.
+     */
+    public static void runStatusBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int count = 100_000;
+            Random random = new Random(18);
+            Path gitDir = Files.createDirectory(work.resolve("git"));
+            ObjectStore store = new ObjectStore(Files.createDirectory(gitDir.resolve("objects")),
+                    ObjectCodec.none());
+            GitIndex index = GitIndex.load(gitDir);
+            long bytes = 0;
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String path = "d" + (i % 50) + "/s" + (i / 50 % 40) + "/f" + i + ".txt";
+                byte[] content = textContent(random, 512 + random.nextInt(2048));
+                Path file = work.resolve(path);
+                writeFile(file, content);
+                index.add(GitIndex.entryFor(path, store.hashBlob(file),
+                        Files.readAttributes(file, BasicFileAttributes.class)));
+                paths.add(path);
+                bytes += content.length;
+            }
+            Thread.sleep(50);
+            index.write();
+            index = GitIndex.load(gitDir);
+            System.out.printf("%d files, %.1f MB%n", count, bytes / 1e6);
+            System.out.printf("%-28s %8s %10s %10s %10s%n", "mode", "threads", "ms", "hashed", "changes");
+
+            statusRuns("clean", work, gitDir, index, store);
+
+            for (int i = 0; i < 20; i++) {
+                Files.write(work.resolve(paths.get(random.nextInt(count))), textContent(random, 600));
+                Path touched = work.resolve(paths.get(random.nextInt(count)));
+                Files.setLastModifiedTime(touched, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+            }
+            statusRuns("20 edited, 20 touched", work, gitDir, index, store);
+
+            // no stat data to trust: every tracked file read and hashed
+            GitIndex statless = GitIndex.load(gitDir);
+            for (GitIndex.Entry e : new ArrayList<>(statless.entries())) {
+                statless.add(e.getPath(), e.getId());
+            }
+            statusRuns("re-hash everything", work, gitDir, statless, store);
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Stages a fresh 50k-file tree into an empty repository: one index update per file (how callers
+     * had to do it, timed over the first 2000 files), every file stored in turn and then indexed in
+     * one write, and the BulkAdder pipeline with 1, 4 and 16 store workers.
+     */
+    public static void runBulkAddBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int count = Integer.getInteger("bulkadd.files", 50_000);
+            Random random = new Random(19);
+            Path tree = work.resolve("tree");
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] content = textContent(random, 1024 + random.nextInt(15 * 1024));
+                writeFile(tree.resolve("d" + (i % 40) + "/s" + (i / 40 % 25) + "/f" + i + ".txt"), content);
+                bytes += content.length;
+            }
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> walk = Files.walk(tree)) {
+                walk.filter(Files::isRegularFile).forEach(files::add);
+            }
+            System.out.printf("%d files, %.1f MB%n", count, bytes / 1e6);
+            System.out.printf("%-24s %8s %10s %10s %10s %8s%n", "mode", "files", "ms", "files/s", "MB/s", "writes");
+
+            int perFile = Math.min(2000, files.size());
+            Path gitDir = freshRepo(work, "perfile");
+            ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+            IndexBatcher batcher = new IndexBatcher(gitDir);
+            long perFileBytes = 0;
+            long start = System.nanoTime();
+            for (Path f : files.subList(0, perFile)) {
+                BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+                GitIndex.Entry entry = GitIndex.entryFor(GitIndex.relativePath(work, f), store.writeBlob(f), attrs);
+                batcher.update(index -> index.add(entry));
+                perFileBytes += attrs.size();
+            }
+            reportAdd("update per file", perFile, perFileBytes, System.nanoTime() - start, batcher.getBatches());
+
+            gitDir = freshRepo(work, "sequential");
+            store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+            start = System.nanoTime();
+            try (IndexLock lock = IndexLock.acquire(gitDir)) {
+                GitIndex index = lock.load();
+                for (Path f : files) {
+                    BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+                    index.add(GitIndex.entryFor(GitIndex.relativePath(work, f), store.writeBlob(f), attrs));
+                }
+                lock.commit(index);
+            }
+            reportAdd("sequential, one write", files.size(), bytes, System.nanoTime() - start, 1);
+
+            for (int workers : new int[] { 1, 4, 16 }) {
+                gitDir = freshRepo(work, "bulk" + workers);
+                store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                BulkAdder adder = new BulkAdder(gitDir, store).setWorkers(workers);
+                start = System.nanoTime();
+                adder.add(work, tree);
+                reportAdd("BulkAdder x" + workers, adder.getFilesStaged(), adder.getBytesStaged(),
+                        System.nanoTime() - start, adder.getBatches());
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Diffs two snapshots of a 1M-file tree that differ in ten files: TreeDiff with a cold reader
+     * against reading both trees in full and comparing every path.
+     */
+    public static void runDiffBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int count = Integer.getInteger("diff.files", 1_000_000);
+            Random random = new Random(20);
+            ObjectStore store = new ObjectStore(Files.createDirectory(work.resolve("objects")), ObjectCodec.none());
+            GitIndex index = GitIndex.load(work);
+            for (int i = 0; i < count; i++) {
+                String path = "d" + (i % 100) + "/s" + (i / 100 % 100) + "/f" + i + ".txt";
+                index.add(path, ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+            }
+            IndexTreeBuilder builder = new IndexTreeBuilder(store);
+            ObjectId before = builder.build(index);
+            int trees = builder.getTreesWritten();
+            List<GitIndex.Entry> entries = index.sortedEntries();
+            for (int i = 0; i < 10; i++) {
+                String path = entries.get(random.nextInt(entries.size())).getPath();
+                index.add(path, ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+            }
+            ObjectId after = builder.build(index);
+            System.out.printf("%d files in %d trees, 10 changed%n", count, trees);
+            System.out.printf("%-18s %10s %12s %10s%n", "mode", "ms", "trees read", "changes");
+
+            for (int run = 0; run < 3; run++) {
+                TreeDiff diff = new TreeDiff(new ObjectReader(store));
+                int[] changes = new int[1];
+                long start = System.nanoTime();
+                diff.diff(before, after, (kind, path, oldId, newId) -> changes[0]++);
+                System.out.printf("%-18s %10.2f %12d %10d%n", "TreeDiff", (System.nanoTime() - start) / 1e6,
+                        diff.getTreesRead(), changes[0]);
+            }
+
+            for (int run = 0; run < 2; run++) {
+                long start = System.nanoTime();
+                int[] read = new int[1];
+                Map<String, ObjectId> old = new HashMap<>();
+                flatten(store, before, "", old, read);
+                Map<String, ObjectId> now = new HashMap<>();
+                flatten(store, after, "", now, read);
+                int changes = 0;
+                for (Map.Entry<String, ObjectId> e : now.entrySet()) {
+                    if (!e.getValue().equals(old.remove(e.getKey()))) {
+                        changes++;
+                    }
+                }
+                changes += old.size();
+                System.out.printf("%-18s %10.2f %12d %10d%n", "full walk", (System.nanoTime() - start) / 1e6, read[0],
+                        changes);
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Checks a 100k-file tree out into empty directories (cold) and over a finished checkout
+     * (warm, with the index's stat data and without it), against reading and writing each blob in
+     * turn. Objects are stored raw, so copies can go channel to channel, and deflated.
+     */
+    public static void runCheckoutBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int count = Integer.getInteger("checkout.files", 100_000);
+            Random random = new Random(21);
+            Path src = work.resolve("src");
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] content = textContent(random, 512 + random.nextInt(3584));
+                writeFile(src.resolve("d" + (i % 50) + "/s" + (i / 50 % 40) + "/f" + i + ".txt"), content);
+                bytes += content.length;
+            }
+            System.out.printf("%d files, %.1f MB%n", count, bytes / 1e6);
+            System.out.printf("%-26s %8s %10s %10s %10s %10s%n", "mode", "threads", "ms", "files/s", "MB/s",
+                    "written");
+
+            for (ObjectCodec codec : new ObjectCodec[] { ObjectCodec.none(), ObjectCodec.parse("deflate") }) {
+                ObjectStore store = new ObjectStore(Files.createDirectory(work.resolve("objects-" + codec.tag())),
+                        codec);
+                ObjectId tree = new TreeBuilder(store).build(src);
+                // the first pass over fresh directories runs well behind the rest on some filesystems
+                Path target = work.resolve("warmup");
+                writeTreeByHand(store, tree, target, new long[1]);
+                deleteRecursively(target);
+                new Checkout(new ObjectReader(store)).checkout(tree, target, GitIndex.load(work));
+                deleteRecursively(target);
+
+                target = work.resolve("read-write");
+                long start = System.nanoTime();
+                long[] written = new long[1];
+                writeTreeByHand(store, tree, target, written);
+                reportCheckout("read+write " + codec, 1, count, bytes, System.nanoTime() - start, written[0]);
+                deleteRecursively(target);
+
+                for (int threads : new int[] { 1, 4, 16 }) {
+                    target = work.resolve("cold" + threads);
+                    Files.createDirectories(target.resolve("git"));
+                    GitIndex index = GitIndex.load(target.resolve("git"));
+                    Checkout checkout = new Checkout(new ObjectReader(store), threads);
+                    start = System.nanoTime();
+                    checkout.checkout(tree, target, index);
+                    index.write();
+                    reportCheckout("cold " + codec, threads, count, bytes, System.nanoTime() - start,
+                            checkout.getFilesWritten());
+                    if (threads != 16) {
+                        deleteRecursively(target);
+                    }
+                }
+
+                Path warm = work.resolve("cold16");
+                Thread.sleep(50);
+                GitIndex index = GitIndex.load(warm.resolve("git"));
+                Checkout checkout = new Checkout(new ObjectReader(store), 16);
+                start = System.nanoTime();
+                checkout.checkout(tree, warm, index);
+                reportCheckout("warm, index " + codec, 16, count, bytes, System.nanoTime() - start,
+                        checkout.getFilesWritten());
+
+                start = System.nanoTime();
+                checkout.checkout(tree, warm, GitIndex.load(work));
+                reportCheckout("warm, no index " + codec, 16, count, bytes, System.nanoTime() - start,
+                        checkout.getFilesWritten());
+                deleteRecursively(warm);
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Stores five versions of a 64 MB binary artifact (scattered byte edits, an insertion, a
+     * deletion, an append), whole and in content-defined chunks: bytes on disk, dedupe ratio and
+     * ingest and read-back throughput.
+     */
+    public static void runChunkingBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int size = Integer.getInteger("chunking.mb", 64) * 1024 * 1024;
+            Random random = new Random(22);
+            List<byte[]> versions = new ArrayList<>();
+            byte[] v = binaryContent(random, size);
+            versions.add(v);
+            v = v.clone();
+            for (int i = 0; i < 10; i++) {
+                v[random.nextInt(v.length)] ^= 0x5a;
+            }
+            versions.add(v);
+            versions.add(v = splice(v, v.length / 3, 0, binaryContent(random, 4096)));
+            versions.add(v = splice(v, v.length / 2, 1024 * 1024, new byte[0]));
+            versions.add(splice(v, v.length, 0, binaryContent(random, 1024 * 1024)));
+            long logical = 0;
+            for (byte[] version : versions) {
+                logical += version.length;
+            }
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < versions.size(); i++) {
+                files.add(writeFile(work.resolve("v" + i + ".bin"), versions.get(i)));
+            }
+            System.out.printf("%d versions, %.1f MB logical: v1 10 byte edits, v2 4 KB inserted, v3 1 MB deleted, "
+                    + "v4 1 MB appended%n", versions.size(), logical / 1e6);
+            System.out.printf("%-10s %12s %10s %12s %12s %10s%n", "mode", "stored MB", "dedupe", "ingest MB/s",
+                    "read MB/s", "objects");
+
+            for (boolean chunked : new boolean[] { false, true }) {
+                Path objects = Files.createDirectory(work.resolve(chunked ? "chunked" : "whole"));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.none()).setChunkThreshold(chunked ? 1 : 0);
+                List<ObjectId> ids = new ArrayList<>();
+                long start = System.nanoTime();
+                for (Path f : files) {
+                    ids.add(store.writeBlob(f));
+                }
+                double ingest = logical / 1e6 / ((System.nanoTime() - start) / 1e9);
+                start = System.nanoTime();
+                for (ObjectId id : ids) {
+                    try (InputStream in = store.open(id)) {
+                        in.transferTo(OutputStream.nullOutputStream());
+                    }
+                }
+                double read = logical / 1e6 / ((System.nanoTime() - start) / 1e9);
+                long stored = 0;
+                List<ObjectId> loose = store.listLoose();
+                for (ObjectId id : loose) {
+                    stored += Files.size(store.path(id));
+                }
+                System.out.printf("%-10s %12.1f %9.2fx %12.1f %12.1f %10d%n", chunked ? "chunked" : "whole",
+                        stored / 1e6, (double) logical / stored, ingest, read, loose.size());
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * A history of commits over one working tree plus loose objects nothing refers to: the mark
+     * phase at several thread counts (nothing swept), then one collection that removes the
+     * garbage. Also the heap an ObjectIdSet and a HashSet of ObjectIds take for the same ids.
+     */
+    public static void runGcBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int files = Integer.getInteger("gc.files", 20_000);
+            int commits = Integer.getInteger("gc.commits", 20);
+            int garbage = files / 4;
+            Random random = new Random(23);
+            Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+            ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+            writeHistory(gitDir, store, files, commits, random);
+            for (int i = 0; i < garbage; i++) {
+                store.write(binaryContent(random, 200 + random.nextInt(800)));
+            }
+            int loose = store.listLoose().size();
+            System.out.printf("%d files, %d commits, %d loose objects of which %d unreachable%n", files, commits,
+                    loose, garbage);
+            System.out.printf("%-18s %8s %10s %12s %10s%n", "mode", "threads", "walk ms", "marked", "trees");
+
+            for (int threads : new int[] { 1, 4, 16 }) {
+                for (int run = 0; run < 2; run++) {
+                    GarbageCollector gc = new GarbageCollector(gitDir, store, threads);
+                    gc.mark();
+                    System.out.printf("%-18s %8d %10.1f %12d %10d%n", "mark", threads, gc.getWalkNanos() / 1e6,
+                            gc.getReachable(), gc.getTreesRead());
+                }
+            }
+
+            Thread.sleep(20);
+            GarbageCollector gc = new GarbageCollector(gitDir, store, 4).setGracePeriod(Duration.ZERO);
+            long start = System.nanoTime();
+            gc.collect();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("collect: %.1f ms total (%.1f ms walking), removed %d objects (%.2f MB), %d left%n",
+                    nanos / 1e6, gc.getWalkNanos() / 1e6, gc.getObjectsRemoved(), gc.getBytesRemoved() / 1e6,
+                    store.listLoose().size());
+        } finally {
+            deleteRecursively(work);
+        }
+        compareIdSetMemory(Integer.getInteger("gc.ids", 1_000_000));
+    }
+
+    /**
+     * The same kind of history as the gc suite, stored deflated, with part of it packed: re-hashing
+     * throughput at 1, 4 and 16 threads, and the time to walk from HEAD and the index.
+     */
+    public static void runFsckBenchmark() throws Exception {
+        Path work = Files.createTempDirectory("gitbench");
+        try {
+            int files = Integer.getInteger("fsck.files", 20_000);
+            Random random = new Random(24);
+            Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+            ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.parse("deflate"));
+            writeHistory(gitDir, store, files / 2, 10, random);
+            new PackWriter(store).repack();
+            writeHistory(gitDir, store, files / 2, 10, random);
+            System.out.printf("%d loose objects, %d packed%n", store.listLoose().size(),
+                    store.getPacks().stream().mapToInt(PackFile::getObjectCount).sum());
+            System.out.printf("%-10s %8s %10s %12s %10s %10s %10s%n", "mode", "threads", "hash ms", "objects/s",
+                    "MB/s", "walk ms", "dangling");
+
+            for (int threads : new int[] { 1, 4, 16 }) {
+                for (int run = 0; run < 2; run++) {
+                    Fsck fsck = new Fsck(gitDir, store, threads);
+                    fsck.check((kind, id, detail) -> { });
+                    if (!fsck.isHealthy()) {
+                        throw new IllegalStateException("fsck found problems in a sound store");
+                    }
+                    double seconds = fsck.getHashNanos() / 1e9;
+                    System.out.printf("%-10s %8d %10.0f %12.0f %10.1f %10.1f %10d%n", "fsck", threads,
+                            seconds * 1e3, fsck.getObjectsChecked() / seconds, fsck.getBytesHashed() / 1e6 / seconds,
+                            fsck.getWalkNanos() / 1e6, fsck.getCount(Fsck.Kind.DANGLING));
+                }
+            }
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    /**
+     * Stages {@code files} small random files and makes {@code commits} commits on top of HEAD, each
+     * after the first changing 100 of them. Leaves the index as of the last commit.
+     */
+    private static void writeHistory(Path gitDir, ObjectStore store, int files, int commits, Random random)
+            throws IOException {
+        GitIndex index = GitIndex.load(gitDir);
+        for (int i = 0; i < files; i++) {
+            index.add("d" + (i % 50) + "/s" + (i / 50 % 20) + "/f" + i + ".txt",
+                    store.write(binaryContent(random, 200 + random.nextInt(800))));
+        }
+        IndexTreeBuilder builder = new IndexTreeBuilder(store);
+        List<GitIndex.Entry> entries = index.sortedEntries();
+        ObjectId parent = Head.read(gitDir);
+        ObjectId head = parent;
+        for (int c = 0; c < commits; c++) {
+            for (int i = 0; c > 0 && i < 100; i++) {
+                String path = entries.get(random.nextInt(entries.size())).getPath();
+                index.add(path, store.write(binaryContent(random, 200 + random.nextInt(800))));
+            }
+            ObjectId tree = builder.build(index);
+            head = store.write(Commit.now(tree, head == null ? List.of() : List.of(head), "Bench <b@x>",
+                    "commit " + c).format());
+        }
+        Head.update(gitDir, parent, head);
+        index.write();
+    }
+
+    /** Heap taken by the same ids in both sets; on its own so nothing else is freed in between. */
+    private static void compareIdSetMemory(int ids) throws InterruptedException {
+        ObjectHasher hasher = ObjectHasher.forName("sha1");
+        long before = usedHeap();
+        ObjectIdSet compact = new ObjectIdSet(ObjectId.SHA1_LENGTH);
+        for (int i = 0; i < ids; i++) {
+            compact.add(hasher.hash(Integer.toString(i).getBytes(StandardCharsets.US_ASCII)));
+        }
+        long compactBytes = usedHeap() - before;
+        before = usedHeap();
+        Set<ObjectId> boxed = new HashSet<>();
+        for (int i = 0; i < ids; i++) {
+            boxed.add(hasher.hash(Integer.toString(i).getBytes(StandardCharsets.US_ASCII)));
+        }
+        long boxedBytes = usedHeap() - before;
+        System.out.printf("%d ids: ObjectIdSet %.1f bytes/id, HashSet<ObjectId> %.1f bytes/id%n", compact.size(),
+                (double) compactBytes / ids, (double) boxedBytes / boxed.size());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** {@code content} with {@code removed} bytes at {@code at} replaced by {@code inserted}. */
+    private static byte[] splice(byte[] content, int at, int removed, byte[] inserted) {
+        byte[] out = new byte[content.length - removed + inserted.length];
+        System.arraycopy(content, 0, out, 0, at);
+        System.arraycopy(inserted, 0, out, at, inserted.length);
+        System.arraycopy(content, at + removed, out, at + inserted.length, content.length - at - removed);
+        return out;
+    }
+
+    private static void writeTreeByHand(ObjectStore store, ObjectId tree, Path dir, long[] written) throws IOException {
+        Files.createDirectories(dir);
+        for (GitObject e : Tree.parse(store.read(tree))) {
+            if (e.getType().equals("tree")) {
+                writeTreeByHand(store, e.getId(), dir.resolve(e.getPath()), written);
+            } else {
+                Files.write(dir.resolve(e.getPath()), store.read(e.getId()));
+                written[0]++;
+            }
+        }
+    }
+
+    private static void reportCheckout(String label, int threads, long files, long bytes, long nanos, long written) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-26s %8d %10.0f %10.0f %10.1f %10d%n", label, threads, nanos / 1e6, files / seconds,
+                bytes / 1e6 / seconds, written);
+    }
+
+    private static void flatten(ObjectStore store, ObjectId tree, String prefix, Map<String, ObjectId> files,
+            int[] treesRead) throws IOException {
+        treesRead[0]++;
+        for (GitObject e : Tree.parse(store.read(tree))) {
+            if (e.getType().equals("tree")) {
+                flatten(store, e.getId(), prefix + e.getPath() + "/", files, treesRead);
+            } else {
+                files.put(prefix + e.getPath(), e.getId());
+            }
+        }
+    }
+
+    private static Path freshRepo(Path work, String name) throws IOException {
+        Path gitDir = work.resolve("git-" + name);
+        Files.createDirectories(gitDir.resolve("objects"));
+        return gitDir;
+    }
+
+    private static void reportAdd(String label, long files, long bytes, long nanos, int writes) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-24s %8d %10.0f %10.0f %10.1f %8d%n", label, files, nanos / 1e6, files / seconds,
+                bytes / 1e6 / seconds, writes);
+    }
+
+    private static void statusRuns(String label, Path work, Path gitDir, GitIndex index, ObjectStore store)
+            throws IOException {
+        for (int threads : new int[] { 1, 4, 16 }) {
+            StatusWalker walker = new StatusWalker(store, threads);
+            walker.walk(work, gitDir, index, (kind, path) -> { });
+            long start = System.nanoTime();
+            walker.walk(work, gitDir, index, (kind, path) -> { });
+            double ms = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%-28s %8d %10.0f %10d %10d%n", label, threads, ms, walker.getFilesHashed(),
+                    walker.getChanges());
+        }
+    }
+
+    private static void stageRandom(Path gitDir, List<String> paths, Random random) throws IOException {
+        try (IndexLock lock = IndexLock.acquire(gitDir)) {
+            GitIndex index = lock.load();
+            index.add(paths.get(random.nextInt(paths.size())), ObjectId.fromBytes(binaryContent(random, 20)));
+            lock.commit(index);
+        }
+    }
+
+    /** Reads every tree and blob under {@code tree}, through the reader if there is one. */
+    private static long walk(ObjectStore store, ObjectReader reader, ObjectId tree) throws IOException {
+        long bytes = 0;
+        List<GitObject> entries = reader != null ? reader.readTree(tree) : Tree.parse(store.read(tree));
+        for (GitObject e : entries) {
+            if (e.getType().equals("tree")) {
+                bytes += walk(store, reader, e.getId());
+            } else {
+                bytes += (reader != null ? reader.read(e.getId()) : store.read(e.getId())).length;
+            }
+        }
+        return bytes;
+    }
+
+    /** Average microseconds for a Files.exists on each id's path, after one warm-up pass. */
+    private static double lookupMicros(List<ObjectId> ids, Function<ObjectId, Path> layout) {
+        int found = 0;
+        for (ObjectId id : ids) {
+            found += Files.exists(layout.apply(id)) ? 1 : 0;
+        }
+        long start = System.nanoTime();
+        for (ObjectId id : ids) {
+            found += Files.exists(layout.apply(id)) ? 1 : 0;
+        }
+        long nanos = System.nanoTime() - start;
+        if (found < 0) {
+            throw new IllegalStateException();
+        }
+        return nanos / 1e3 / ids.size();
+    }
+
+    private interface Stager {
+        void stage(String path, ObjectId id) throws IOException;
+    }
+
+    private static void seedIndex(Path gitDir, int entries) throws IOException {
+        GitIndex index = GitIndex.load(gitDir);
+        for (int i = 0; i < entries; i++) {
+            String path = "seed/d" + (i % 100) + "/f" + i + ".txt";
+            index.add(path, ObjectHasher.SHA1.hash(path.getBytes(StandardCharsets.UTF_8)));
+        }
+        index.write();
+    }
+
+    /** Has each of {@code threads} workers stage {@code perThread} new paths; returns updates/s. */
+    private static double stageConcurrently(int threads, int perThread, Stager stager) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        String path = "new/t" + worker + "/f" + i + ".txt";
+                        stager.stage(path, ObjectHasher.SHA1.hash(path.getBytes(StandardCharsets.UTF_8)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> w : workers) {
+                w.get();
+            }
+            return (double) threads * perThread / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void timeNormalize(String kind, String label, byte[] content, BenchFunction body) throws Exception {
+        body.run();
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-8s %-14s %10.0f %16.2f%n", kind, label, mbPerSec(content.length, nanos),
+                (allocatedBytes() - allocBefore) / (double) content.length);
+    }
+
+    private static void timeBigFile(String label, long size, BenchFunction body) throws Exception {
+        body.run();
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-18s %10.0f %14.1f%n", label, mbPerSec(size, nanos),
+                (allocatedBytes() - allocBefore) / 1e6);
+    }
+
+    private static void timeHashing(ObjectHasher hasher, String label, int ops, long bytes, BenchFunction body)
+            throws Exception {
+        body.run();
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        if (bytes == 0) {
+            System.out.printf("%-8s %-26s %14.0f %12s%n", hasher, label, ops / (nanos / 1e9), "");
+        } else {
+            System.out.printf("%-8s %-26s %14s %12.0f%n", hasher, label, "", mbPerSec(bytes, nanos));
+        }
+    }
+
+    /** The hex encoder hashFile and hashString used before ObjectId. */
+    private static String legacyToHex(byte[] hashedBytes) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hashedBytes) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+
+    private static byte[] legacyFromHex(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+
+    /** Compact-strings layout: 24-byte String header plus a 16-byte array header and one byte per char. */
+    private static long retainedSize(String latin1) {
+        return 24 + ((16 + latin1.length() + 7) / 8) * 8;
+    }
+
+    private static void measure(String label, int ops, Runnable body) {
+        for (int warm = 0; warm < 3; warm++) {
+            body.run();
+        }
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        long alloc = allocatedBytes() - allocBefore;
+        System.out.printf("%-28s %14.0f %14.1f%n", label, ops / (nanos / 1e9), alloc / (double) ops);
+    }
+
+    private static long allocatedBytes() {
+        // com.sun.management's bean adds per-thread allocation counters on HotSpot JVMs
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Builds the root tree from indexes of 10k and 1M entries (ids only, no blobs needed) with
+     * IndexTreeBuilder, and from the 10k one with the old workingList/condense loop.
+     */
+    public static void runIndexTreeBenchmark() throws Exception {
+        System.out.printf("%-9s %8s %18s %18s%n", "entries", "trees", "legacy ms", "IndexTreeBuilder ms");
+        for (int count : new int[] { 10_000, 1_000_000 }) {
+            Path work = Files.createTempDirectory("gitbench");
+            try {
+                Random random = new Random(count);
+                GitIndex index = GitIndex.load(work);
+                for (int i = 0; i < count; i++) {
+                    // three levels: 100 top dirs, 10 subdirs each, files spread across them
+                    String path = "d" + (i % 100) + "/s" + (i / 100 % 10) + "/f" + i + ".txt";
+                    index.add(path, ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+                }
+                List<GitIndex.Entry> sorted = index.sortedEntries();
+
+                String legacy = "skipped";
+                if (count <= 10_000) {
+                    ObjectStore store = new ObjectStore(Files.createDirectory(work.resolve("objects-legacy")),
+                            ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                    long start = System.nanoTime();
+                    legacyCreateTreeFromIndex(work, sorted, store);
+                    legacy = String.format("%.0f", (System.nanoTime() - start) / 1e6);
+                }
+
+                Path objects = Files.createDirectory(work.resolve("objects"));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                long start = System.nanoTime();
+                new IndexTreeBuilder(store).build(sorted);
+                double ms = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-9d %8d %18s %18.0f%n", count, store.listLoose().size(), legacy, ms);
+            } finally {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    /**
+     * Builds the root tree of a large index from scratch, then changes one entry and rebuilds it
+     * with the index's cached trees, the way a commit loop would.
+     */
+    public static void runCacheTreeBenchmark() throws Exception {
+        System.out.printf("%-9s %12s %12s %12s %12s%n", "entries", "cold ms", "cold trees", "warm ms", "warm trees");
+        for (int count : new int[] { 100_000, 1_000_000 }) {
+            Path work = Files.createTempDirectory("gitbench");
+            try {
+                Random random = new Random(count);
+                GitIndex index = GitIndex.load(work);
+                for (int i = 0; i < count; i++) {
+                    String path = "d" + (i % 50) + "/s" + (i / 50 % 20) + "/t" + (i / 1000 % 10) + "/f" + i + ".txt";
+                    index.add(path, ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+                }
+                ObjectStore store = new ObjectStore(Files.createDirectory(work.resolve("objects")),
+                        ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                IndexTreeBuilder builder = new IndexTreeBuilder(store);
+
+                long start = System.nanoTime();
+                builder.build(index);
+                double coldMs = (System.nanoTime() - start) / 1e6;
+                int coldTrees = builder.getTreesWritten();
+
+                String touched = index.sortedEntries().get(count / 2).getPath();
+                index.add(touched, ObjectId.fromBytes(binaryContent(random, ObjectId.SHA1_LENGTH)));
+                start = System.nanoTime();
+                builder.build(index);
+                double warmMs = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-9d %12.0f %12d %12.2f %12d%n", count, coldMs, coldTrees, warmMs,
+                        builder.getTreesWritten());
+            } finally {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    /**
+     * The pre-IndexTreeBuilder createTreeFromIndex and its condense() loop as the baseline, with
+     * '/' as the separator (the original looked for '\\' and so never nested anything here).
+     */
+    private static void legacyCreateTreeFromIndex(Path work, List<GitIndex.Entry> sorted, ObjectStore store)
+            throws IOException {
+        Path workingList = work.resolve("workingList");
+        StringBuilder wLCont = new StringBuilder();
+        for (GitIndex.Entry entry : sorted) {
+            wLCont.append("blob " + entry + "\n");
+        }
+        Files.write(workingList, wLCont.toString().trim().getBytes(StandardCharsets.UTF_8));
+        String info = new String(Files.readAllBytes(workingList));
+        while (info.contains("\n")) {
+            if (!legacyCondense(workingList, store)) {
+                break;
+            }
+            info = new String(Files.readAllBytes(workingList));
+        }
+        store.write(Files.readAllBytes(workingList));
+        Files.delete(workingList);
+    }
+
+    private static boolean legacyCondense(Path workingList, ObjectStore store) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>(Files.readAllLines(workingList));
+        int mostSlashes = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (legacyNumSlashes(lines.get(i)) > mostSlashes) {
+                mostSlashes = legacyNumSlashes(lines.get(i));
+            }
+        }
+        if (mostSlashes == 0) {
+            return false;
+        }
+        ArrayList<String> longest = new ArrayList<String>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (legacyNumSlashes(lines.get(i)) == mostSlashes) {
+                longest.add(lines.get(i));
+            }
+        }
+        String path = "";
+        for (int i = 0; i < longest.get(0).length(); i++) {
+            if (longest.get(0).charAt(i) == '/') {
+                path = longest.get(0).substring(46, i + 1);
+            }
+        }
+        String contents = "";
+        for (int i = 0; i < longest.size(); i++) {
+            if (longest.get(i).contains(path)) {
+                String line = longest.get(i);
+                contents += line.substring(0, 46) + line.substring(line.lastIndexOf('/') + 1) + "\n";
+            }
+        }
+        ObjectId tree = store.write(contents.trim().getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).contains(path)) {
+                lines.remove(i);
+                i--;
+            }
+        }
+        lines.add("tree " + tree + " " + path.substring(0, path.length() - 1));
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            data.append(lines.get(i) + "\n");
+        }
+        Files.write(workingList, data.toString().trim().getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    private static int legacyNumSlashes(String line) {
+        int count = 0;
+        for (int i = 46; i < line.length(); i++) {
+            if (line.charAt(i) == '/') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** The pre-GitIndex updateIndex, kept verbatim (bar the paths) as the benchmark baseline. */
+    private static void legacyUpdateIndex(Path indexFile, Path base, Path file) throws IOException {
+        String hash = Git.hashFile(file.toString());
+        String contents = Files.readString(indexFile);
+        if (!contents.isEmpty()) {
+            contents = contents + "\n";
+        }
+        Path correctPath = base.relativize(file);
+        String newThings = hash + " " + correctPath;
+        if (contents.contains(correctPath.toString()) && !contents.contains(hash)) {
+            ArrayList<String> lines = new ArrayList<String>(Files.readAllLines(indexFile));
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).contains(correctPath.toString())) {
+                    lines.set(i, newThings);
+                }
+            }
+            StringBuilder str = new StringBuilder();
+            for (int i = 0; i < lines.size() - 1; i++) {
+                str.append(lines.get(i) + "\n");
+            }
+            str.append(lines.get(lines.size() - 1));
+            Files.write(indexFile, str.toString().getBytes(StandardCharsets.UTF_8));
+        } else if (!contents.contains(correctPath.toString())) {
+            Files.write(indexFile, (contents + newThings).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void reportStore(String label, ObjectStore store, Path objects, List<ObjectId> ids,
+            List<ObjectId> misses, Random random) throws IOException {
+        long files;
+        try (Stream<Path> walk = Files.walk(objects)) {
+            files = walk.filter(Files::isRegularFile).count();
+        }
+        int rounds = 5;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (ObjectId id : ids) {
+                if (!store.exists(id)) {
+                    throw new IllegalStateException("missing " + id);
+                }
+            }
+        }
+        double hitNs = (System.nanoTime() - start) / (double) (rounds * ids.size());
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (ObjectId id : misses) {
+                store.exists(id);
+            }
+        }
+        double missNs = (System.nanoTime() - start) / (double) (rounds * misses.size());
+        int reads = 5000;
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            store.read(ids.get(random.nextInt(ids.size())));
+        }
+        double readUs = (System.nanoTime() - start) / 1e3 / reads;
+        System.out.printf("%-7s %8d %12d %14.0f %14.0f %14.1f%n", label, files, directorySize(objects), hitNs, missNs,
+                readUs);
+    }
+
+    // Helper methods for benchmarks
+
+    static Path writeFile(Path path, byte[] content) throws IOException {
+        Files.createDirectories(path.getParent());
+        return Files.write(path, content);
+    }
+
+    static byte[] textContent(Random random, int size) {
+        // source-like lines: a small vocabulary repeated with variation compresses like real code
+        String[] words = { "public", "static", "void", "return", "String", "int", "if", "else", "for",
+                "hash", "tree", "blob", "index", "path", "new", "null", "(", ")", "{", "}", ";" };
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            int n = 3 + random.nextInt(10);
+            sb.append("    ");
+            for (int i = 0; i < n; i++) {
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            sb.append(random.nextInt(1000)).append('\n');
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes();
+    }
+
+    static byte[] binaryContent(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /** 1, 2, 4 ... doubling up to and always including max. */
+    static List<Integer> threadCounts(int max) {
+        List<Integer> counts = new ArrayList<>();
+        for (int t = 1; t < max; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(max);
+        return counts;
+    }
+
+    static double mbPerSec(long bytes, long nanos) {
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    static long directorySize(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    // Functional interface for benchmark suites
+    @FunctionalInterface
+    private interface BenchFunction {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Properties;
+
+/**
+ * Repository settings kept in {@code git/config} as plain key=value lines.
+ * A missing file just means every setting is at its default.
+ */
+public class GitConfig {
+    public static final String COMPRESSION = "core.compression";
+    public static final String OBJECT_FORMAT = "extensions.objectFormat";
+    public static final String BIG_FILE_THRESHOLD = "core.bigFileThreshold";
+    public static final String NORMALIZE = "core.normalize";
+    public static final String CHUNK_THRESHOLD = "core.chunkThreshold";
+    public static final String GC_PRUNE_EXPIRE = "gc.pruneExpire";
+    public static final String USER_NAME = "user.name";
+    public static final String USER_EMAIL = "user.email";
+
+    public static final String DEFAULT_COMPRESSION = "deflate:1";
+    public static final String DEFAULT_OBJECT_FORMAT = "sha1";
+    public static final String DEFAULT_BIG_FILE_THRESHOLD = "64m";
+    public static final String DEFAULT_NORMALIZE = "auto";
+    public static final String DEFAULT_CHUNK_THRESHOLD = "0";
+    public static final String DEFAULT_GC_PRUNE_EXPIRE = "2.weeks.ago";
+    public static final String DEFAULT_USER_NAME = "Unknown";
+    public static final String DEFAULT_USER_EMAIL = "unknown@localhost";
+
+    private final Path file;
+    private final Properties props = new Properties();
+
+    private GitConfig(Path file) {
+        this.file = file;
+    }
+
+    public static GitConfig load(Path gitDir) throws IOException {
+        GitConfig config = new GitConfig(gitDir.resolve("config"));
+        if (Files.exists(config.file)) {
+            try (InputStream in = Files.newInputStream(config.file)) {
+                config.props.load(in);
+            }
+        }
+        return config;
+    }
+
+    public String get(String key, String defaultValue) {
+        return props.getProperty(key, defaultValue);
+    }
+
+    /** Sets a value and writes the whole config back out. */
+    public void set(String key, String value) throws IOException {
+        props.setProperty(key, value);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            props.store(out, null);
+        }
+    }
+
+    public ObjectCodec compression() {
+        return ObjectCodec.parse(get(COMPRESSION, DEFAULT_COMPRESSION));
+    }
+
+    /** Files at least this many bytes are stored and hashed as-is; see ObjectStore#writeBlob. */
+    public long bigFileThreshold() {
+        return parseSize(get(BIG_FILE_THRESHOLD, DEFAULT_BIG_FILE_THRESHOLD));
+    }
+
+    /** Files at least this many bytes are stored in content-defined chunks; 0 turns chunking off. */
+    public long chunkThreshold() {
+        return parseSize(get(CHUNK_THRESHOLD, DEFAULT_CHUNK_THRESHOLD));
+    }
+
+    /** How old an unreachable object must be before gc deletes it; see GarbageCollector. */
+    public Duration gcGracePeriod() {
+        return parseAge(get(GC_PRUNE_EXPIRE, DEFAULT_GC_PRUNE_EXPIRE));
+    }
+
+    /** Which blobs get BOM and line-ending normalization: auto (text only), always or never. */
+    public NormalizingInputStream.Mode normalization() {
+        return NormalizingInputStream.Mode.parse(get(NORMALIZE, DEFAULT_NORMALIZE));
+    }
+
+    /** Who commits are made by, as {@code Name <email>}. */
+    public String author() {
+        return get(USER_NAME, DEFAULT_USER_NAME) + " <" + get(USER_EMAIL, DEFAULT_USER_EMAIL) + ">";
+    }
+
+    /** Parses a byte count with an optional k, m or g suffix, as git does. */
+    static long parseSize(String value) {
+        String s = value.trim().toLowerCase();
+        long unit = 1;
+        if (s.endsWith("k")) {
+            unit = 1024;
+        } else if (s.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (s.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            return Long.parseLong(s) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("GitConfig: bad size \"" + value + "\"");
+        }
+    }
+
+    /**
+     * Parses an age the way git spells them in {@code gc.pruneExpire}: {@code now}, or a count and
+     * a unit such as {@code 2.weeks.ago}, {@code 30.minutes} or {@code 1.day}.
+     */
+    static Duration parseAge(String value) {
+        String s = value.trim().toLowerCase();
+        if (s.equals("now")) {
+            return Duration.ZERO;
+        }
+        if (s.endsWith(".ago")) {
+            s = s.substring(0, s.length() - 4);
+        }
+        int dot = s.indexOf('.');
+        if (dot > 0) {
+            String unit = s.substring(dot + 1);
+            if (unit.endsWith("s")) {
+                unit = unit.substring(0, unit.length() - 1);
+            }
+            ChronoUnit chrono;
+            switch (unit) {
+                case "second": chrono = ChronoUnit.SECONDS; break;
+                case "minute": chrono = ChronoUnit.MINUTES; break;
+                case "hour": chrono = ChronoUnit.HOURS; break;
+                case "day": chrono = ChronoUnit.DAYS; break;
+                case "week": chrono = ChronoUnit.WEEKS; break;
+                default: chrono = null;
+            }
+            try {
+                if (chrono != null) {
+                    return chrono.getDuration().multipliedBy(Long.parseLong(s.substring(0, dot)));
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("GitConfig: bad age \"" + value + "\"");
+    }
+
+    /** The hash algorithm object ids are computed with. */
+    public ObjectHasher objectFormat() {
+        return ObjectHasher.forName(get(OBJECT_FORMAT, DEFAULT_OBJECT_FORMAT));
+    }
+}
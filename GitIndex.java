@@ -0,0 +1,503 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The staging area, held in memory as a map from exact path to entry. It is loaded with one read,
+ * changed in memory however many paths are staged, and written back with one write. Updates that
+ * other processes may race with go through {@link IndexLock}; concurrent stagers in one JVM share
+ * writes through {@link IndexBatcher}.
+ *
+ * Each entry also caches the file's size, modification time and file key (inode) as they were
+ * when it was hashed. If a file still stats the same, its content is assumed unchanged and it is
+ * not re-hashed. That is what makes re-staging an untouched tree a stat walk rather than a full
+ * read.
+ *
+ * The index also caches the tree id of every directory whose trees have been written and whose
+ * entries have not changed since (git's cache-tree). Changing an entry drops the cached trees of
+ * its ancestor directories only, so rebuilding the root after touching one file re-hashes one
+ * tree per level instead of every tree.
+ *
+ * File layout: "GIDX", version, id length, entry count, then per entry (sorted by path) the raw
+ * id bytes, size (8), mtime in nanoseconds (8), file key (8), a 2-byte path length and the UTF-8
+ * path. Then the cached tree count and per tree a 2-byte path length, the directory path ("" for
+ * the root) and its id. A SHA-1 of everything before it ends the file. Version 1 (no stat data)
+ * and version 2 (no cached trees) files still load. Paths are relative to the working tree and
+ * use '/'.
+ */
+public class GitIndex {
+    static final byte[] MAGIC = { 'G', 'I', 'D', 'X' };
+    static final int VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+    private static final int CHECKSUM_SIZE = 20;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, ObjectId> cachedTrees = new HashMap<>();
+    private List<Entry> sorted;
+    private long loadedMtimeNanos = Long.MIN_VALUE;
+    private boolean frozen;
+
+    private GitIndex(Path file) {
+        this.file = file;
+    }
+
+    /** Loads {@code git/index}; a missing or empty file is an empty index. */
+    public static GitIndex load(Path gitDir) throws IOException {
+        GitIndex index = new GitIndex(gitDir.resolve("index"));
+        if (Files.exists(index.file)) {
+            index.loadedMtimeNanos = mtimeNanos(Files.getLastModifiedTime(index.file).toInstant());
+            byte[] data = Files.readAllBytes(index.file);
+            if (data.length > 0) {
+                if (startsWithMagic(data)) {
+                    index.parse(data);
+                } else {
+                    index.parseLegacy(data);
+                }
+            }
+        }
+        index.settle();
+        return index;
+    }
+
+    public static class Entry {
+        private final String path;
+        private final ObjectId id;
+        private final long size;
+        private final long mtimeNanos;
+        private final long fileKey;
+
+        public Entry(String path, ObjectId id) {
+            this(path, id, -1, 0, 0);
+        }
+
+        public Entry(String path, ObjectId id, long size, long mtimeNanos, long fileKey) {
+            this.path = path;
+            this.id = id;
+            this.size = size;
+            this.mtimeNanos = mtimeNanos;
+            this.fileKey = fileKey;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public ObjectId getId() {
+            return id;
+        }
+
+        public String getHash() {
+            return id.toHex();
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getMtimeNanos() {
+            return mtimeNanos;
+        }
+
+        /** True if the file's current stat data is exactly what was recorded when it was hashed. */
+        public boolean statMatches(BasicFileAttributes attrs) {
+            return size == attrs.size() && mtimeNanos == mtimeNanos(attrs.lastModifiedTime().toInstant())
+                    && fileKey == fileKeyOf(attrs);
+        }
+
+        public String toString() {
+            return id + " " + path;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    public void add(String path, ObjectId id) {
+        put(new Entry(path, id));
+    }
+
+    /** Adds an entry along with the stat data the file had when it was hashed. */
+    public void add(String path, ObjectId id, BasicFileAttributes attrs) {
+        put(entryFor(path, id, attrs));
+    }
+
+    public void add(Entry e) {
+        put(e);
+    }
+
+    /** An entry recording the stat data the file had when it was hashed, not yet in any index. */
+    public static Entry entryFor(String path, ObjectId id, BasicFileAttributes attrs) {
+        return new Entry(path, id, attrs.size(), mtimeNanos(attrs.lastModifiedTime().toInstant()), fileKeyOf(attrs));
+    }
+
+    private void put(Entry e) {
+        checkNotFrozen();
+        Entry old = entries.put(e.path, e);
+        if (old == null || !old.id.equals(e.id)) {
+            invalidateTrees(e.path);
+        }
+        if (sorted != null) {
+            if (old == null) {
+                sorted = null;
+            } else {
+                // same path, same place: patch the sorted view instead of re-sorting
+                sorted.set(indexOf(e.path), e);
+            }
+        }
+    }
+
+    /**
+     * True if the entry can be trusted without re-hashing. An entry modified no earlier than the
+     * index file itself is "racily clean": the file could have changed again within the same
+     * timestamp tick, so it is hashed anyway.
+     */
+    public boolean isUpToDate(String path, BasicFileAttributes attrs) {
+        Entry e = entries.get(path);
+        return e != null && e.statMatches(attrs) && e.mtimeNanos < loadedMtimeNanos;
+    }
+
+    /**
+     * Stages {@code file} under {@code path}, skipping the hash entirely when its stat data is
+     * unchanged. Returns true if the file had to be read and hashed.
+     */
+    public boolean stage(String path, Path file, ObjectStore store) throws IOException {
+        // stat before reading: if the file changes mid-hash, the recorded stat is already stale
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (isUpToDate(path, attrs)) {
+            return false;
+        }
+        add(path, store.writeBlob(file), attrs);
+        return true;
+    }
+
+    /**
+     * Re-stages every entry whose file changed since it was hashed; unchanged files cost one stat.
+     * Entries whose files have disappeared are left alone. Returns how many files were re-hashed.
+     */
+    public int refresh(Path worktree, ObjectStore store) throws IOException {
+        int rehashed = 0;
+        for (Entry e : new ArrayList<>(entries.values())) {
+            Path f = worktree.resolve(e.path);
+            if (Files.isRegularFile(f) && stage(e.path, f, store)) {
+                rehashed++;
+            }
+        }
+        return rehashed;
+    }
+
+    public Entry remove(String path) {
+        checkNotFrozen();
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            invalidateTrees(path);
+            sorted = null;
+        }
+        return removed;
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Entries in path order, the order they are written in. The order is worked out when the index
+     * is loaded or written and kept; once paths are added or removed, each call sorts afresh until
+     * the next write.
+     */
+    public List<Entry> sortedEntries() {
+        return Collections.unmodifiableList(sorted != null ? sorted : sort());
+    }
+
+    private List<Entry> sort() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort((a, b) -> a.path.compareTo(b.path));
+        return list;
+    }
+
+    /** Position of {@code path} in the kept order, which must be there, or -(insertion point) - 1. */
+    private int indexOf(String path) {
+        List<Entry> list = sorted;
+        int lo = 0;
+        int hi = list.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = list.get(mid).path.compareTo(path);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /** The cached tree id for a directory ("" for the root), or null if it must be rebuilt. */
+    public ObjectId getCachedTree(String dir) {
+        return cachedTrees.get(dir);
+    }
+
+    /** Records the tree written for a directory ("" for the root) from the current entries. */
+    public void cacheTree(String dir, ObjectId id) {
+        checkNotFrozen();
+        cachedTrees.put(dir, id);
+    }
+
+    /** The ids of every cached tree; each is an object the index still relies on. */
+    public Collection<ObjectId> cachedTreeIds() {
+        return Collections.unmodifiableCollection(cachedTrees.values());
+    }
+
+    public int cachedTreeCount() {
+        return cachedTrees.size();
+    }
+
+    /**
+     * Sorts the entries and drops the cached trees of directories no entry lies under, when the
+     * index is loaded and when it is written: never on a read, so an index shared with other
+     * threads is only ever read.
+     *
+     * Removing a file invalidates only the directories above it, so a directory cached with
+     * nothing in it (an empty directory a checkout wrote, say) was never invalidated: its tree
+     * stayed cached, and kept from gc, for good. A binary search per cached directory, so cheap
+     * next to writing the entries.
+     */
+    private void settle() {
+        if (sorted == null) {
+            sorted = sort();
+        }
+        if (!cachedTrees.isEmpty()) {
+            cachedTrees.keySet().removeIf(dir -> !dir.isEmpty() && !hasEntriesUnder(dir));
+        }
+    }
+
+    private boolean hasEntriesUnder(String dir) {
+        String prefix = dir + "/";
+        int i = indexOf(prefix);
+        int at = i < 0 ? -i - 1 : i;
+        return at < sorted.size() && sorted.get(at).path.startsWith(prefix);
+    }
+
+    private void invalidateTrees(String path) {
+        if (cachedTrees.isEmpty()) {
+            return;
+        }
+        cachedTrees.remove("");
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            cachedTrees.remove(path.substring(0, slash));
+        }
+    }
+
+    /**
+     * Writes the whole index out in one go under {@code git/index.lock}, replacing the old file
+     * atomically. This overwrites whatever the index holds now; to change an index that other
+     * processes may also be updating, load and commit it through an {@link IndexLock} instead.
+     */
+    public void write() throws IOException {
+        try (IndexLock lock = IndexLock.acquire(file.getParent())) {
+            lock.commit(this);
+        }
+    }
+
+    /** Called once this index is the file on disk, so the racily-clean check uses its new mtime. */
+    void written(BasicFileAttributes attrs) {
+        loadedMtimeNanos = mtimeNanos(attrs.lastModifiedTime().toInstant());
+    }
+
+    /**
+     * Makes this index read-only, so it can be handed to any number of threads: every later change
+     * throws. A {@link #copy} can be changed again.
+     */
+    GitIndex freeze() {
+        frozen = true;
+        return this;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("GitIndex: " + file + " is a shared snapshot; change a copy");
+        }
+    }
+
+    /** An independent copy: changing either index leaves the other as it was. */
+    public GitIndex copy() {
+        GitIndex copy = new GitIndex(file);
+        copy.entries.putAll(entries);
+        copy.cachedTrees.putAll(cachedTrees);
+        copy.sorted = sorted == null ? null : new ArrayList<>(sorted);
+        copy.loadedMtimeNanos = loadedMtimeNanos;
+        return copy;
+    }
+
+    /** The index path for a file: relative to the working tree, with '/' separators. */
+    public static String relativePath(Path worktree, Path file) {
+        Path rel = worktree.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+        if (rel.toString().isEmpty() || rel.startsWith("..")) {
+            throw new IllegalArgumentException("GitIndex: " + file + " is outside the working tree");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Path part : rel) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(part.toString());
+        }
+        return sb.toString();
+    }
+
+    byte[] serialize() throws IOException {
+        settle();
+        int idLength = sorted.isEmpty() ? ObjectId.SHA1_LENGTH : sorted.get(0).id.length();
+        List<String> dirs = new ArrayList<>(cachedTrees.keySet());
+        Collections.sort(dirs);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + sorted.size() * 88 + CHECKSUM_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(idLength);
+        out.writeInt(sorted.size());
+        for (Entry e : sorted) {
+            e.id.writeTo(out);
+            out.writeLong(e.size);
+            out.writeLong(e.mtimeNanos);
+            out.writeLong(e.fileKey);
+            byte[] path = e.path.getBytes(StandardCharsets.UTF_8);
+            if (path.length > 0xffff) {
+                throw new IOException("GitIndex: path too long to index: " + e.path);
+            }
+            out.writeShort(path.length);
+            out.write(path);
+        }
+        out.writeInt(dirs.size());
+        for (String dir : dirs) {
+            byte[] path = dir.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(path.length);
+            out.write(path);
+            cachedTrees.get(dir).writeTo(out);
+        }
+        out.flush();
+        out.write(sha1(bytes.toByteArray(), bytes.size()));
+        return bytes.toByteArray();
+    }
+
+    private void parse(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE + CHECKSUM_SIZE) {
+            throw new IOException("GitIndex: " + file + " is truncated");
+        }
+        int body = data.length - CHECKSUM_SIZE;
+        if (!Arrays.equals(sha1(data, body), Arrays.copyOfRange(data, body, data.length))) {
+            throw new IOException("GitIndex: checksum mismatch in " + file);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, body);
+        buf.position(MAGIC.length);
+        int version = buf.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("GitIndex: unsupported index version " + version);
+        }
+        int idLength = buf.getInt();
+        if (idLength != ObjectId.SHA1_LENGTH && idLength != ObjectId.SHA256_LENGTH) {
+            throw new IOException("GitIndex: unsupported id length " + idLength);
+        }
+        int count = buf.getInt();
+        List<Entry> inOrder = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ObjectId id = ObjectId.fromBuffer(buf, buf.position(), idLength);
+            buf.position(buf.position() + idLength);
+            long size = -1;
+            long mtime = 0;
+            long fileKey = 0;
+            if (version >= 2) {
+                size = buf.getLong();
+                mtime = buf.getLong();
+                fileKey = buf.getLong();
+            }
+            int pathLength = buf.getShort() & 0xffff;
+            String path = new String(data, buf.position(), pathLength, StandardCharsets.UTF_8);
+            buf.position(buf.position() + pathLength);
+            Entry e = new Entry(path, id, size, mtime, fileKey);
+            entries.put(path, e);
+            inOrder.add(e);
+        }
+        // entries are written in path order, so the sorted view comes for free
+        sorted = inOrder;
+        if (version >= 3) {
+            int trees = buf.getInt();
+            for (int i = 0; i < trees; i++) {
+                int pathLength = buf.getShort() & 0xffff;
+                String dir = new String(data, buf.position(), pathLength, StandardCharsets.UTF_8);
+                buf.position(buf.position() + pathLength);
+                cachedTrees.put(dir, ObjectId.fromBuffer(buf, buf.position(), idLength));
+                buf.position(buf.position() + idLength);
+            }
+        }
+    }
+
+    private void parseLegacy(byte[] data) {
+        // the old text index: "<hash> <path>" per line, paths relative to the repo's parent directory
+        for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                String path = line.substring(space + 1).replace('\\', '/');
+                int slash = path.indexOf('/');
+                add(slash >= 0 ? path.substring(slash + 1) : path, ObjectId.fromHex(line.substring(0, space)));
+            }
+        }
+    }
+
+    static long mtimeNanos(Instant t) {
+        return t.getEpochSecond() * 1_000_000_000L + t.getNano();
+    }
+
+    static long fileKeyOf(BasicFileAttributes attrs) {
+        // the Unix file key (device + inode) is not a public type, so fold its text form to 64 bits
+        Object key = attrs.fileKey();
+        if (key == null) {
+            return 0;
+        }
+        String s = key.toString();
+        long h = 1125899906842597L;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private static boolean startsWithMagic(byte[] data) {
+        return data.length >= MAGIC.length && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    private static byte[] sha1(byte[] data, int length) {
+        MessageDigest mDigest = ObjectHasher.SHA1.digest();
+        mDigest.update(data, 0, length);
+        return mDigest.digest();
+    }
+}
@@ -1,11 +1,19 @@
 public class GitObject implements Comparable<GitObject> {
-    // private String type;
-    private String hash;
+    private String type;
+    private ObjectId id;
     private String path;
 
     public GitObject(String hash, String path) {
-        // this.type = type;
-        this.hash = hash;
+        this("blob", hash, path);
+    }
+
+    public GitObject(String type, String hash, String path) {
+        this(type, ObjectId.fromHex(hash), path);
+    }
+
+    public GitObject(String type, ObjectId id, String path) {
+        this.type = type;
+        this.id = id;
         this.path = path;
     }
 
@@ -22,32 +30,39 @@ public class GitObject implements Comparable<GitObject> {
     
     
 
-    // /**
-    //  * @return the type
-    //  */
-    // public String getType() {
-    //     return type;
-    // // }
+    /**
+     * @return the type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @param type the type to set
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
 
-    // /**
-    //  * @param type the type to set
-    //  */
-    // public void setType(String type) {
-    //     this.type = type;
-    // }
+    /**
+     * @return the object id
+     */
+    public ObjectId getId() {
+        return id;
+    }
 
     /**
      * @return the hash
      */
     public String getHash() {
-        return hash;
+        return id.toHex();
     }
 
     /**
      * @param hash the hash to set
      */
     public void setHash(String hash) {
-        this.hash = hash;
+        this.id = ObjectId.fromHex(hash);
     }
 
     /**
@@ -65,6 +80,6 @@ public class GitObject implements Comparable<GitObject> {
     }
 
     public String toString() {
-        return hash + " " + path;
+        return id + " " + path;
     }
 }
\ No newline at end of file
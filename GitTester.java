@@ -1,10 +1,29 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 /**
  * Comprehensive test suite for Git.java implementation
@@ -25,8 +44,12 @@ public class GitTester {
             runInitializationTests();
             runHashingTests();
             runBlobTests();
+            runPackTests();
+            runChunkingTests();
+            runConcurrencyTests();
             runIndexTests();
             runTreeTests();
+            runCommitTests();
             runEdgeCaseTests();
             runIntegrationTests();
             
@@ -36,10 +59,15 @@ public class GitTester {
         } catch (Exception e) {
             System.err.println("Test suite failed with exception: " + e.getMessage());
             e.printStackTrace();
+            testsFailed++;
         } finally {
             // Clean up test files
             // cleanup();
         }
+        // a non-zero exit fails the build (mvn test runs this class)
+        if (testsFailed > 0) {
+            System.exit(1);
+        }
     }
 
     /**
@@ -106,6 +134,56 @@ public class GitTester {
             String hash2 = Git.hashFile("hash_test2.txt");
             return hash1 != null && hash2 != null && !hash1.equals(hash2);
         });
+
+        // Test 6: ObjectId hex round trip and ordering
+        test("ObjectId round trips hex and sorts like hex", () -> {
+            String low = "0a4d55a8d778e5022fab701977c5d840bbc486d0";
+            String high = "f0000000000000000000000000000000000000ff";
+            ObjectId a = ObjectId.fromHex(low);
+            ObjectId b = ObjectId.fromHex(high);
+            return a.toHex().equals(low) && b.toHex().equals(high) && a.compareTo(b) < 0 && b.compareTo(a) > 0
+                    && a.equals(ObjectId.fromBytes(a.toBytes())) && a.hashCode() == ObjectId.fromHex(low).hashCode()
+                    && b.firstByte() == 0xf0;
+        });
+
+        // Test 7: every hasher input source gives the same id
+        test("Hasher sources agree", () -> {
+            byte[] content = Files.readAllBytes(Paths.get("hash_test1.txt"));
+            ObjectHasher hasher = ObjectHasher.SHA1;
+            ObjectId fromBytes = hasher.hash(content);
+            ObjectId fromBuffer = hasher.hash(ByteBuffer.wrap(content));
+            ObjectId fromStream = hasher.hash(new ByteArrayInputStream(content));
+            ObjectId fromChannel;
+            try (FileChannel ch = FileChannel.open(Paths.get("hash_test1.txt"))) {
+                fromChannel = hasher.hash(ch);
+            }
+            return fromBytes.equals(fromBuffer) && fromBytes.equals(fromStream) && fromBytes.equals(fromChannel)
+                    && fromBytes.toHex().equals(Git.hashFile("hash_test1.txt"));
+        });
+
+        // Test 8: SHA-256 ids are 32 bytes and round trip through a store
+        test("SHA-256 object store round trip", () -> {
+            Path dir = Files.createTempDirectory("sha256_objects");
+            try {
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION),
+                        ObjectHasher.SHA256);
+                byte[] content = "Hello World".getBytes(StandardCharsets.UTF_8);
+                ObjectId id = store.write(content);
+                return id.length() == 32 && id.toHex().length() == 64 && id.equals(ObjectId.fromHex(id.toHex()))
+                        && id.equals(ObjectHasher.SHA256.hash(content)) && store.exists(id)
+                        && new String(store.read(id), StandardCharsets.UTF_8).equals("Hello World")
+                        && store.listLoose().contains(id);
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+
+        // Test 9: the object format is fixed once the repository has objects
+        test("Object format change refused in non-empty repository", () -> {
+            Git.createBLOB("hash_test1.txt");
+            Git.setObjectFormat("sha256");
+            return Git.hashFile("hash_test1.txt").length() == 40;
+        });
     }
 
     /**
@@ -118,7 +196,7 @@ public class GitTester {
         test("Create blob for existing file", () -> {
             Git.createBLOB("hash_test1.txt");
             String hash = Git.hashFile("hash_test1.txt");
-            File blobFile = new File("git/objects/" + hash);
+            File blobFile = objectFile(hash);
             return blobFile.exists();
         });
         
@@ -146,9 +224,537 @@ public class GitTester {
         test("Create blob for empty file", () -> {
             Git.createBLOB("hash_test3.txt");
             String hash = Git.hashFile("hash_test3.txt");
-            File blobFile = new File("git/objects/" + hash);
+            File blobFile = objectFile(hash);
             return blobFile.exists();
         });
+        
+        // Test 5: createBLOB returns the same hash hashFile computes
+        test("Create blob returns file hash", () -> {
+            createTestFile("blob_crlf.txt", "\uFEFFline one\r\nline two\rline three\n");
+            String hash = Git.createBLOB("blob_crlf.txt");
+            return hash != null && hash.equals(Git.hashFile("blob_crlf.txt"));
+        });
+        
+        // Test 6: Stored blob bytes hash back to the blob's name
+        test("Stored blob matches its name", () -> {
+            String hash = Git.createBLOB("blob_crlf.txt");
+            String stored = new String(Git.readObject(hash), StandardCharsets.UTF_8);
+            createTestFile("blob_roundtrip.txt", stored);
+            return stored.equals("line one\nline two\nline three\n") && hash.equals(Git.hashFile("blob_roundtrip.txt"));
+        });
+        
+        // Test 7: Compressed objects are smaller on disk and read back intact
+        test("Compressed blob round trip", () -> {
+            createTestFile("blob_compress.txt", "compress me ".repeat(2000));
+            String hash = Git.createBLOB("blob_compress.txt");
+            long onDisk = Files.size(objectFile(hash).toPath());
+            String stored = new String(Git.readObject(hash), StandardCharsets.UTF_8);
+            return onDisk < 24000 && stored.equals("compress me ".repeat(2000));
+        });
+        
+        // Test 8: Objects written with a different codec stay readable
+        test("Mixed codecs stay readable", () -> {
+            Git.setCompression("none");
+            createTestFile("blob_plain.txt", "stored without compression");
+            String plain = Git.createBLOB("blob_plain.txt");
+            Git.setCompression("deflate:9");
+            String compressed = Git.createBLOB("blob_compress.txt");
+            Git.setCompression(GitConfig.DEFAULT_COMPRESSION);
+            return new String(Git.readObject(plain), StandardCharsets.UTF_8).equals("stored without compression")
+                    && Git.readObject(compressed).length == 24000;
+        });
+
+        // Test 9: Binary content is stored byte for byte, CR and BOM bytes included
+        test("Binary blob stored unmodified", () -> {
+            byte[] content = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'P', 'N', 'G', '\r', '\n', 0, 0, '\r', 1, 2 };
+            Files.write(Paths.get("blob_binary.bin"), content);
+            String hash = Git.createBLOB("blob_binary.bin");
+            return hash.equals(Git.hashFile("blob_binary.bin")) && Arrays.equals(Git.readObject(hash), content);
+        });
+
+        // Test 10: normalization can be forced on or off per repository setting
+        test("Normalization modes", () -> {
+            Path dir = Files.createTempDirectory("norm_objects");
+            try {
+                createTestFile("blob_text.txt", "a\r\nb\r\n");
+                Path text = Paths.get("blob_text.txt");
+                Path binary = Paths.get("blob_binary.bin");
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.none());
+                boolean never = Arrays.equals(
+                        store.read(store.setNormalization(NormalizingInputStream.Mode.NEVER).writeBlob(text)),
+                        Files.readAllBytes(text));
+                boolean always = new String(
+                        store.read(store.setNormalization(NormalizingInputStream.Mode.ALWAYS).writeBlob(binary)),
+                        StandardCharsets.ISO_8859_1).indexOf('\r') < 0;
+                boolean auto = new String(
+                        store.read(store.setNormalization(NormalizingInputStream.Mode.AUTO).writeBlob(text)),
+                        StandardCharsets.UTF_8).equals("a\nb\n");
+                return never && always && auto;
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+
+        // Test 11: an object deleted and forgotten, as gc does, is written again, not taken as known
+        test("Deleted object is rewritten", () -> {
+            createTestFile("blob_deleted.txt", "deleted behind the store's back");
+            String hash = Git.createBLOB("blob_deleted.txt");
+            Files.delete(objectFile(hash).toPath());
+            Git.getObjectStore().forget(ObjectId.fromHex(hash));
+            boolean rewritten = hash.equals(Git.createBLOB("blob_deleted.txt")) && objectFile(hash).exists();
+            Git.getObjectReader().clear();
+            return rewritten && new String(Git.readObject(hash), StandardCharsets.UTF_8)
+                    .equals("deleted behind the store's back");
+        });
+
+        // Test 12: storing a known object again skips the disk; a fresh store refreshes its file time
+        test("Repeated write skips the disk", () -> {
+            Path dir = Files.createTempDirectory("known_objects");
+            try {
+                byte[] content = "stored twice".getBytes(StandardCharsets.UTF_8);
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.none());
+                ObjectId id = store.write(content);
+                FileTime month = FileTime.from(Instant.now().minus(Duration.ofDays(30)));
+                Files.setLastModifiedTime(store.path(id), month);
+                boolean skipped = id.equals(store.write(content))
+                        && Files.getLastModifiedTime(store.path(id)).equals(month);
+                boolean refreshed = id.equals(new ObjectStore(dir, ObjectCodec.none()).write(content))
+                        && Files.getLastModifiedTime(store.path(id)).compareTo(month) > 0;
+                return skipped && refreshed;
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+    }
+
+    /**
+     * Test packfile functionality
+     */
+    public static void runPackTests() {
+        System.out.println("--- Testing Packfiles ---");
+        
+        // Test 1: Deltas reproduce the target exactly
+        test("Delta round trip", () -> {
+            StringBuilder base = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                base.append("line ").append(i).append(" of the original file\n");
+            }
+            String target = base.toString().replace("line 250 ", "changed line 250 ") + "appended tail\n";
+            byte[] delta = Delta.create(base.toString().getBytes(StandardCharsets.UTF_8), target.getBytes(StandardCharsets.UTF_8));
+            byte[] rebuilt = Delta.apply(base.toString().getBytes(StandardCharsets.UTF_8), delta);
+            return delta.length < target.length() / 10 && target.equals(new String(rebuilt, StandardCharsets.UTF_8));
+        });
+        
+        // Test 2: Repack moves loose objects into a pack and they stay readable
+        test("Repack serves objects from the pack", () -> {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                content.append("packed line ").append(i).append("\n");
+            }
+            createTestFile("pack_a.txt", content.toString());
+            createTestFile("pack_b.txt", content.toString() + "one more line\n");
+            String a = Git.createBLOB("pack_a.txt");
+            String b = Git.createBLOB("pack_b.txt");
+            Git.repack();
+            boolean looseGone = !objectFile(a).exists() && !objectFile(b).exists();
+            boolean readable = new String(Git.readObject(a), StandardCharsets.UTF_8).equals(content.toString())
+                    && new String(Git.readObject(b), StandardCharsets.UTF_8).equals(content + "one more line\n");
+            return looseGone && readable && Git.getObjectStore().exists(ObjectId.fromHex(a));
+        });
+        
+        // Test 3: Storing an object that is already packed does not recreate it loose
+        test("Packed objects are not rewritten loose", () -> {
+            String a = Git.createBLOB("pack_a.txt");
+            return !objectFile(a).exists() && Git.getObjectStore().isPacked(ObjectId.fromHex(a));
+        });
+
+        // Test 4: a store in the old flat layout stays readable and migrates into fanout directories
+        test("Flat objects migrate into fanout directories", () -> {
+            Path dir = Files.createTempDirectory("flat_objects");
+            try {
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                List<ObjectId> ids = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    ObjectId id = store.write(("flat object " + i).getBytes(StandardCharsets.UTF_8));
+                    Files.move(store.path(id), dir.resolve(id.toHex()));
+                    ids.add(id);
+                }
+                // one object was written again after the upgrade, so it exists in both layouts
+                Files.createDirectories(store.path(ids.get(0)).getParent());
+                Files.copy(dir.resolve(ids.get(0).toHex()), store.path(ids.get(0)));
+                ObjectStore fresh = new ObjectStore(dir, ObjectCodec.none());
+                boolean readableBefore = new String(fresh.read(ids.get(7)), StandardCharsets.UTF_8).equals("flat object 7");
+                FanoutMigration migration = new FanoutMigration(fresh);
+                int moved = migration.migrate();
+                boolean intact = true;
+                for (int i = 0; i < ids.size(); i++) {
+                    ObjectId id = ids.get(i);
+                    intact &= !Files.exists(dir.resolve(id.toHex())) && Files.exists(fresh.path(id))
+                            && new String(fresh.read(id), StandardCharsets.UTF_8).equals("flat object " + i);
+                }
+                return readableBefore && intact && moved == 49 && migration.getDuplicates() == 1
+                        && fresh.listLoose().size() == 50 && new FanoutMigration(fresh).migrate() == 0;
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+
+        // Test 5: untagged objects from before the object store stay readable and migrate in the current format
+        test("Untagged flat objects are read and migrated", () -> {
+            Path dir = Files.createTempDirectory("flat_objects");
+            try {
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                // as the first createBLOB wrote them: the file's bytes, named by the hash of them normalized
+                byte[] text = "\uFEFFline one\r\nline two\r\n".getBytes(StandardCharsets.UTF_8);
+                byte[] binary = { 0, 1, 2, 'x', 0 };
+                byte[] empty = {};
+                ObjectHasher sha1 = ObjectHasher.forName("sha1");
+                ObjectId textId = sha1.hash("line one\nline two\n".getBytes(StandardCharsets.UTF_8));
+                ObjectId binaryId = sha1.hash(binary);
+                ObjectId emptyId = sha1.hash(empty);
+                Files.write(dir.resolve(textId.toHex()), text);
+                Files.write(dir.resolve(binaryId.toHex()), binary);
+                Files.write(dir.resolve(emptyId.toHex()), empty);
+                boolean readableBefore = new String(store.read(textId), StandardCharsets.UTF_8)
+                        .equals("line one\nline two\n")
+                        && Arrays.equals(store.read(binaryId), binary) && store.read(emptyId).length == 0;
+
+                FanoutMigration migration = new FanoutMigration(store);
+                int moved = migration.migrate();
+                ObjectStore fresh = new ObjectStore(dir, ObjectCodec.none());
+                boolean tagged = true;
+                for (ObjectId id : List.of(textId, binaryId, emptyId)) {
+                    byte[] file = Files.readAllBytes(fresh.path(id));
+                    tagged &= !Files.exists(dir.resolve(id.toHex())) && file.length > 0
+                            && (file[0] == ObjectCodec.TAG_NONE || file[0] == ObjectCodec.TAG_DEFLATE);
+                }
+                return readableBefore && tagged && moved == 3 && migration.getConverted() == 3
+                        && new String(fresh.read(textId), StandardCharsets.UTF_8).equals("line one\nline two\n")
+                        && Arrays.equals(fresh.read(binaryId), binary) && fresh.read(emptyId).length == 0;
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+    }
+
+    /**
+     * Test large blobs stored as content-defined chunks
+     */
+    public static void runChunkingTests() {
+        System.out.println("--- Testing Chunked Storage ---");
+
+        // Test 1: chunks are content-defined, bounded, and put back together give the input
+        test("Chunker splits within bounds and is deterministic", () -> {
+            byte[] data = new byte[3 * 1024 * 1024];
+            new Random(22).nextBytes(data);
+            List<byte[]> chunks = new ArrayList<>();
+            Chunker chunker = new Chunker(new ByteArrayInputStream(data), 4096, 16384, 65536);
+            for (byte[] c; (c = chunker.next()) != null; ) {
+                chunks.add(c);
+            }
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            boolean bounded = true;
+            for (int i = 0; i < chunks.size(); i++) {
+                int len = chunks.get(i).length;
+                bounded &= len <= 65536 && (len >= 4096 || i == chunks.size() - 1);
+                joined.write(chunks.get(i));
+            }
+            Chunker again = new Chunker(new ByteArrayInputStream(data), 4096, 16384, 65536);
+            boolean same = true;
+            for (byte[] c : chunks) {
+                same &= Arrays.equals(c, again.next());
+            }
+            return bounded && same && again.next() == null && Arrays.equals(joined.toByteArray(), data)
+                    && chunks.size() > 50;
+        });
+
+        // Test 2: a chunked blob keeps its whole-content id, reads back whole, and survives a repack
+        test("Chunked blob round trip", () -> {
+            Path dir = Files.createTempDirectory("chunk_objects");
+            Path file = dir.resolve("artifact.bin");
+            try {
+                Path objects = Files.createDirectory(dir.resolve("objects"));
+                ObjectStore store = new ObjectStore(objects, ObjectCodec.parse("deflate")).setChunkThreshold(1024 * 1024);
+                byte[] data = new byte[2 * 1024 * 1024];
+                new Random(23).nextBytes(data);
+                Files.write(file, data);
+                ObjectId id = store.writeBlob(file);
+                ChunkManifest manifest;
+                try (InputStream in = Files.newInputStream(store.path(id))) {
+                    in.read();
+                    manifest = ChunkManifest.parse(in.readAllBytes());
+                }
+                Path copy = dir.resolve("copy.bin");
+                store.copyTo(id, copy);
+                boolean before = id.equals(store.hashBlob(file)) && store.isChunked(id)
+                        && manifest.getIds().size() > 1 && manifest.size() == data.length
+                        && Arrays.equals(store.read(id), data) && Arrays.equals(Files.readAllBytes(copy), data);
+                new PackWriter(store).repack();
+                ObjectStore reopened = new ObjectStore(objects, ObjectCodec.parse("deflate"));
+                return before && reopened.isChunked(id) && Arrays.equals(reopened.read(id), data);
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+
+        // Test 3: an edit in the middle of a chunked file stores only the chunks around it
+        test("Edited chunked file shares its other chunks", () -> {
+            Path dir = Files.createTempDirectory("chunk_objects");
+            try {
+                ObjectStore store = new ObjectStore(Files.createDirectory(dir.resolve("objects")), ObjectCodec.none())
+                        .setChunkThreshold(1);
+                byte[] data = new byte[4 * 1024 * 1024];
+                new Random(24).nextBytes(data);
+                Path file = dir.resolve("artifact.bin");
+                Files.write(file, data);
+                store.writeBlob(file);
+                int before = store.listLoose().size();
+                byte[] edited = new byte[data.length + 10];
+                System.arraycopy(data, 0, edited, 0, data.length / 2);
+                System.arraycopy("INSERTED!!".getBytes(StandardCharsets.UTF_8), 0, edited, data.length / 2, 10);
+                System.arraycopy(data, data.length / 2, edited, data.length / 2 + 10, data.length - data.length / 2);
+                Files.write(file, edited);
+                ObjectId id = store.writeBlob(file);
+                int added = store.listLoose().size() - before;
+                // a new manifest plus the chunk or two the insertion landed in
+                return added >= 2 && added <= 4 && Arrays.equals(store.read(id), edited) && before > 40;
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+    }
+
+    /**
+     * Test concurrent use of the object store and index
+     */
+    public static void runConcurrencyTests() {
+        System.out.println("--- Testing Concurrency ---");
+
+        // Test 1: many threads storing overlapping content leave exactly one intact copy of each object
+        test("Concurrent writers store overlapping objects", () -> {
+            Path dir = Files.createTempDirectory("stress_objects");
+            ExecutorService pool = Executors.newFixedThreadPool(16);
+            try {
+                List<byte[]> contents = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    contents.add(("shared object " + i + "\n").repeat(1 + i * 7).getBytes(StandardCharsets.UTF_8));
+                }
+                // two stores over one directory stand in for two processes
+                ObjectStore first = new ObjectStore(dir, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                ObjectStore second = new ObjectStore(dir, ObjectCodec.parse(GitConfig.DEFAULT_COMPRESSION));
+                List<Future<List<ObjectId>>> results = new ArrayList<>();
+                for (int t = 0; t < 32; t++) {
+                    ObjectStore store = t % 2 == 0 ? first : second;
+                    long seed = t;
+                    results.add(pool.submit(() -> {
+                        List<byte[]> order = new ArrayList<>(contents);
+                        Collections.shuffle(order, new Random(seed));
+                        List<ObjectId> ids = new ArrayList<>();
+                        for (byte[] content : order) {
+                            ids.add(seed % 3 == 0 ? store.write(new ByteArrayInputStream(content)) : store.write(content));
+                        }
+                        return ids;
+                    }));
+                }
+                for (Future<List<ObjectId>> f : results) {
+                    f.get();
+                }
+                long files;
+                try (Stream<Path> walk = Files.walk(dir)) {
+                    files = walk.filter(Files::isRegularFile).count();
+                }
+                ObjectStore reader = new ObjectStore(dir, ObjectCodec.none());
+                boolean intact = true;
+                for (byte[] content : contents) {
+                    intact &= Arrays.equals(reader.read(ObjectHasher.SHA1.hash(content)), content);
+                }
+                return intact && files == contents.size() && reader.listLoose().size() == contents.size();
+            } finally {
+                pool.shutdown();
+                deleteDirectory(dir.toFile());
+            }
+        });
+
+        // Test 2: the index lock admits one holder, and closing without a commit leaves the index alone
+        test("Index lock is exclusive and rolls back", () -> {
+            Path dir = Files.createTempDirectory("index_lock");
+            try {
+                ObjectId id = ObjectHasher.SHA1.hash("locked".getBytes(StandardCharsets.UTF_8));
+                boolean refused = false;
+                try (IndexLock held = IndexLock.acquire(dir)) {
+                    GitIndex index = held.load();
+                    index.add("abandoned.txt", id);
+                    try {
+                        IndexLock.acquire(dir, 20).close();
+                        return false;
+                    } catch (IOException e) {
+                        refused = e.getMessage().contains("index.lock");
+                    }
+                }
+                boolean rolledBack = !Files.exists(dir.resolve("index.lock")) && !Files.exists(dir.resolve("index"));
+                try (IndexLock lock = IndexLock.acquire(dir, 0)) {
+                    GitIndex index = lock.load();
+                    index.add("kept.txt", id);
+                    lock.commit(index);
+                }
+                GitIndex reloaded = GitIndex.load(dir);
+                return refused && rolledBack && !Files.exists(dir.resolve("index.lock")) && reloaded.size() == 1
+                        && reloaded.contains("kept.txt");
+            } finally {
+                for (File f : dir.toFile().listFiles()) {
+                    f.delete();
+                }
+                Files.delete(dir);
+            }
+        });
+
+        // Test 3: raw lock holders (other processes) and two batchers (other JVMs) racing lose nothing
+        test("Concurrent index writers lose no updates", () -> {
+            Path dir = Files.createTempDirectory("index_writers");
+            ExecutorService pool = Executors.newFixedThreadPool(12);
+            try {
+                IndexBatcher[] batchers = { new IndexBatcher(dir), new IndexBatcher(dir) };
+                List<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < 12; t++) {
+                    int writer = t;
+                    results.add(pool.submit(() -> {
+                        for (int i = 0; i < 25; i++) {
+                            String path = "w" + writer + "/f" + i + ".txt";
+                            ObjectId id = ObjectHasher.SHA1.hash(path.getBytes(StandardCharsets.UTF_8));
+                            if (writer % 3 == 0) {
+                                try (IndexLock lock = IndexLock.acquire(dir)) {
+                                    GitIndex index = lock.load();
+                                    index.add(path, id);
+                                    lock.commit(index);
+                                }
+                            } else {
+                                batchers[writer % 3 - 1].update(index -> index.add(path, id));
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : results) {
+                    f.get();
+                }
+                GitIndex index = GitIndex.load(dir);
+                boolean all = index.size() == 12 * 25;
+                for (GitIndex.Entry e : index.entries()) {
+                    all &= e.getId().equals(ObjectHasher.SHA1.hash(e.getPath().getBytes(StandardCharsets.UTF_8)));
+                }
+                return all && batchers[0].getUpdates() == 4 * 25 && batchers[1].getUpdates() == 4 * 25;
+            } finally {
+                pool.shutdown();
+                for (File f : dir.toFile().listFiles()) {
+                    f.delete();
+                }
+                Files.delete(dir);
+            }
+        });
+
+        // Test 4: updates queued while a batch is being written all go out together in the next one
+        test("Batched stagers share one index write", () -> {
+            Path dir = Files.createTempDirectory("index_batch");
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try {
+                IndexBatcher batcher = new IndexBatcher(dir);
+                List<Future<?>> results = new ArrayList<>();
+                // hold the lock so the first batch stalls while the rest queue up behind it
+                IndexLock held = IndexLock.acquire(dir);
+                try {
+                    for (int t = 0; t < 8; t++) {
+                        String path = "queued" + t + ".txt";
+                        results.add(pool.submit(() -> {
+                            batcher.update(index -> index.add(path, ObjectHasher.SHA1.hash(new byte[0])));
+                            return null;
+                        }));
+                        if (t == 0) {
+                            while (!batcher.isWriting()) {
+                                Thread.sleep(1);
+                            }
+                        }
+                    }
+                    while (batcher.queued() < 7) {
+                        Thread.sleep(1);
+                    }
+                } finally {
+                    held.close();
+                }
+                for (Future<?> f : results) {
+                    f.get();
+                }
+                return batcher.getBatches() == 2 && batcher.getUpdates() == 8 && GitIndex.load(dir).size() == 8;
+            } finally {
+                pool.shutdown();
+                for (File f : dir.toFile().listFiles()) {
+                    f.delete();
+                }
+                Files.delete(dir);
+            }
+        });
+
+        // Test 5: the index a batcher hands out is frozen; changes go through update
+        test("Batcher snapshot is read-only", () -> {
+            Path dir = Files.createTempDirectory("index_snapshot");
+            try {
+                IndexBatcher batcher = new IndexBatcher(dir);
+                ObjectId id = ObjectHasher.SHA1.hash(new byte[0]);
+                batcher.update(index -> index.add("a.txt", id));
+                boolean frozen = true;
+                for (GitIndex snapshot : List.of(batcher.snapshot(), new IndexBatcher(dir).snapshot())) {
+                    try {
+                        snapshot.add("b.txt", id);
+                        frozen = false;
+                    } catch (IllegalStateException e) {
+                        frozen &= snapshot.size() == 1;
+                    }
+                }
+                batcher.update(index -> index.add("b.txt", id));
+                return frozen && batcher.snapshot().size() == 2;
+            } finally {
+                for (File f : dir.toFile().listFiles()) {
+                    f.delete();
+                }
+                Files.delete(dir);
+            }
+        });
+
+        // Test 6: updateIndex called from many threads at once keeps every file it was given
+        test("Parallel updateIndex keeps every file", () -> {
+            Path dir = Files.createDirectories(Paths.get("stage_par"));
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            List<String> paths = new ArrayList<>();
+            try {
+                for (int i = 0; i < 40; i++) {
+                    Path f = dir.resolve("par" + i + ".txt");
+                    Files.write(f, ("parallel " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    paths.add("stage_par/par" + i + ".txt");
+                }
+                List<Future<?>> results = new ArrayList<>();
+                for (String path : paths) {
+                    results.add(pool.submit(() -> Git.updateIndex(path)));
+                }
+                for (Future<?> f : results) {
+                    f.get();
+                }
+                GitIndex index = GitIndex.load(Paths.get("git"));
+                boolean all = true;
+                for (String path : paths) {
+                    all &= index.contains(path) && index.get(path).getHash().equals(Git.hashFile(path));
+                }
+                return all && !Files.exists(Paths.get("git/index.lock"));
+            } finally {
+                pool.shutdown();
+                try (IndexLock lock = IndexLock.acquire(Paths.get("git"))) {
+                    GitIndex index = lock.load();
+                    for (String path : paths) {
+                        index.remove(path);
+                    }
+                    lock.commit(index);
+                }
+                deleteDirectory(dir.toFile());
+            }
+        });
     }
 
     /**
@@ -160,7 +766,7 @@ public class GitTester {
         // Test 1: Update index with new file
         test("Update index with new file", () -> {
             Git.updateIndex("hash_test1.txt");
-            String indexContent = readFile("git/index");
+            String indexContent = readIndex();
             return indexContent.contains("hash_test1.txt");
         });
         
@@ -168,7 +774,7 @@ public class GitTester {
         test("Update index with multiple files", () -> {
             Git.updateIndex("hash_test2.txt");
             Git.updateIndex("hash_test3.txt");
-            String indexContent = readFile("git/index");
+            String indexContent = readIndex();
             return indexContent.contains("hash_test2.txt") && 
                    indexContent.contains("hash_test3.txt");
         });
@@ -178,17 +784,186 @@ public class GitTester {
             // Modify file content
             Files.write(Paths.get("hash_test1.txt"), "Modified content".getBytes(StandardCharsets.UTF_8));
             Git.updateIndex("hash_test1.txt");
-            String indexContent = readFile("git/index");
+            String indexContent = readIndex();
             return indexContent.contains("hash_test1.txt");
         });
         
-        // Test 4: Update index without repository (should handle gracefully)
+        // Test 4: A modified file replaces its entry instead of adding a second one
+        test("Modified file keeps a single entry", () -> {
+            GitIndex index = GitIndex.load(Paths.get("git"));
+            return index.get("hash_test1.txt").getHash().equals(Git.hashFile("hash_test1.txt"))
+                    && readIndex().split("hash_test1.txt", -1).length == 2;
+        });
+        
+        // Test 5: Paths are matched exactly, never as substrings of each other
+        test("Index paths match exactly", () -> {
+            createTestFile("idx.txt", "short name");
+            createTestFile("idx.txt.bak", "longer name");
+            Git.updateIndex("idx.txt.bak", "idx.txt");
+            createTestFile("idx.txt", "short name changed");
+            Git.updateIndex("idx.txt");
+            GitIndex index = GitIndex.load(Paths.get("git"));
+            return index.get("idx.txt").getHash().equals(Git.hashFile("idx.txt"))
+                    && index.get("idx.txt.bak").getHash().equals(Git.hashFile("idx.txt.bak"));
+        });
+        
+        // Test 6: The checksum catches a damaged index
+        test("Corrupt index is rejected", () -> {
+            byte[] good = Files.readAllBytes(Paths.get("git/index"));
+            byte[] bad = good.clone();
+            bad[bad.length / 2] ^= 0x55;
+            Files.write(Paths.get("git/index"), bad);
+            try {
+                GitIndex.load(Paths.get("git"));
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                Files.write(Paths.get("git/index"), good);
+            }
+        });
+        
+        // Test 7: Refresh skips files whose stat data is unchanged
+        test("Refresh skips unchanged files", () -> {
+            createTestFile("stat_a.txt", "stat cache a");
+            createTestFile("stat_b.txt", "stat cache b");
+            Thread.sleep(50); // keep the files' mtimes clear of the index write's timestamp tick
+            Git.updateIndex("stat_a.txt", "stat_b.txt");
+            GitIndex index = GitIndex.load(Paths.get("git"));
+            return index.refresh(Paths.get(""), Git.getObjectStore()) == 0;
+        });
+        
+        // Test 8: Refresh re-hashes a file that changed since it was staged
+        test("Refresh re-hashes changed files", () -> {
+            createTestFile("stat_b.txt", "stat cache b, edited");
+            GitIndex index = GitIndex.load(Paths.get("git"));
+            int rehashed = index.refresh(Paths.get(""), Git.getObjectStore());
+            return rehashed == 1 && index.get("stat_b.txt").getHash().equals(Git.hashFile("stat_b.txt"));
+        });
+        
+        // Test 9: Update index without repository (should handle gracefully)
         test("Update index without repository", () -> {
             // This test would require removing the git directory
             // For now, we'll just verify the method doesn't crash
             Git.updateIndex("hash_test1.txt");
             return true;
         });
+
+        // Test 10: status finds modified, deleted and untracked files, and a touched file stays clean
+        test("Status reports working tree changes", () -> {
+            Path work = Files.createTempDirectory("status_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects"));
+                gitDir = gitDir.getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                GitIndex index = GitIndex.load(gitDir);
+                String[] tracked = { "keep.txt", "edit.txt", "touch.txt", "gone.txt", "sub/deep/keep.txt",
+                    "sub/edit.txt" };
+                for (String path : tracked) {
+                    Path f = work.resolve(path);
+                    Files.createDirectories(f.getParent());
+                    Files.write(f, ("original " + path).getBytes(StandardCharsets.UTF_8));
+                    index.stage(path, f, store);
+                }
+                index.write();
+                Files.write(work.resolve("edit.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+                Files.write(work.resolve("sub/edit.txt"), "changed too".getBytes(StandardCharsets.UTF_8));
+                Files.setLastModifiedTime(work.resolve("touch.txt"), FileTime.fromMillis(0));
+                Files.delete(work.resolve("gone.txt"));
+                Files.write(work.resolve("sub/new.txt"), "untracked".getBytes(StandardCharsets.UTF_8));
+
+                List<String> changes = Collections.synchronizedList(new ArrayList<>());
+                StatusWalker walker = new StatusWalker(store, 4);
+                walker.walk(work, gitDir, GitIndex.load(gitDir), (kind, path) -> changes.add(kind.code() + " " + path));
+                Collections.sort(changes);
+                return changes.equals(List.of("? sub/new.txt", "D gone.txt", "M edit.txt", "M sub/edit.txt"))
+                        && walker.getFilesScanned() == 6 && walker.getFilesHashed() >= 3;
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 11: the facade reports an untracked file in the repository
+        test("Status lists untracked file", () -> {
+            createTestFile("status_new.txt", "not staged");
+            try {
+                List<String> status = Git.status();
+                return status.contains("? status_new.txt") && !status.contains("? git/index");
+            } finally {
+                new File("status_new.txt").delete();
+            }
+        });
+
+        // Test 12: bulk add stages a whole tree in batches, skips git/, and a second run stages nothing
+        test("Bulk add stages every file in batches", () -> {
+            Path work = Files.createTempDirectory("bulk_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                for (int i = 0; i < 300; i++) {
+                    Path f = work.resolve("d" + (i % 7) + "/s" + (i % 3) + "/f" + i + ".txt");
+                    Files.createDirectories(f.getParent());
+                    Files.write(f, ("bulk file " + i).getBytes(StandardCharsets.UTF_8));
+                }
+                BulkAdder adder = new BulkAdder(gitDir, store).setWorkers(3).setQueueCapacity(4).setBatchSize(50);
+                long staged = adder.add(work, work);
+                GitIndex index = GitIndex.load(gitDir);
+                boolean allThere = index.size() == 300;
+                for (GitIndex.Entry e : index.entries()) {
+                    allThere &= e.getId().equals(store.hashBlob(work.resolve(e.getPath()))) && store.exists(e.getId());
+                }
+                Thread.sleep(20);
+                long again = new BulkAdder(gitDir, store).add(work, work);
+                StatusWalker walker = new StatusWalker(store, 2);
+                List<String> changes = Collections.synchronizedList(new ArrayList<>());
+                walker.walk(work, gitDir, GitIndex.load(gitDir), (kind, path) -> changes.add(path));
+                return staged == 300 && allThere && adder.getBatches() == 6 && adder.getFilesScanned() == 300
+                        && again == 0 && changes.isEmpty();
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 13: a root outside the working tree fails instead of staging odd paths
+        test("Bulk add refuses paths outside the working tree", () -> {
+            Path work = Files.createTempDirectory("bulk_work");
+            Path outside = Files.createTempDirectory("bulk_outside");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                Files.write(outside.resolve("stray.txt"), "stray".getBytes(StandardCharsets.UTF_8));
+                try {
+                    new BulkAdder(gitDir, new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none()))
+                            .add(work, outside);
+                    return false;
+                } catch (IOException e) {
+                    return GitIndex.load(gitDir).size() == 0;
+                }
+            } finally {
+                deleteDirectory(work.toFile());
+                deleteDirectory(outside.toFile());
+            }
+        });
+
+        // Test 14: an unchecked failure in a store worker fails the add instead of dropping the file
+        test("Bulk add reports a worker's unchecked failure", () -> {
+            Path work = Files.createTempDirectory("bulk_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                // every write looks in the packs first, and this one can't be read
+                Path pack = Files.createDirectories(gitDir.resolve("objects/pack"));
+                Files.write(pack.resolve("pack-broken.idx"), "not a pack index".getBytes(StandardCharsets.UTF_8));
+                Files.write(work.resolve("a.txt"), "a".getBytes(StandardCharsets.UTF_8));
+                try {
+                    new BulkAdder(gitDir, new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none()))
+                            .setWorkers(2).add(work, work);
+                    return false;
+                } catch (IOException e) {
+                    return GitIndex.load(gitDir).size() == 0;
+                }
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
     }
 
     /**
@@ -214,12 +989,539 @@ public class GitTester {
             return treeHash == null;
         });
         
-        // Test 3: Create tree from index
+        // Test 3: Tree entries are name-sorted and carry bare names
+        test("Tree lists sorted entry names", () -> {
+            String treeHash = Git.makeTree("test_dir");
+            String tree = new String(Git.readObject(treeHash), StandardCharsets.UTF_8);
+            return tree.equals("blob " + Git.hashFile("test_dir/file1.txt") + " file1.txt\n"
+                    + "blob " + Git.hashFile("test_dir/file2.txt") + " file2.txt");
+        });
+        
+        // Test 4: Parallel and sequential builds produce identical trees
+        test("Parallel tree matches sequential tree", () -> {
+            createTestFile("test_dir/nested/a/deep.txt", "deep");
+            createTestFile("test_dir/nested/b.txt", "b");
+            createTestFile("test_dir/nested/c/d/e.txt", "e");
+            createTestDirectory("test_dir/empty");
+            ObjectId sequential = new TreeBuilder(Git.getObjectStore(), 1).build(Paths.get("test_dir"));
+            ObjectId parallel = new TreeBuilder(Git.getObjectStore(), 4).build(Paths.get("test_dir"));
+            return sequential.equals(parallel) && sequential.toHex().equals(Git.makeTree("test_dir"));
+        });
+        
+        // Test 5: Create tree from index
         test("Create tree from index", () -> {
-        Git.createTreeFromIndex();
-            // This method doesn't return a value, so we just verify it doesn't crash
+            String root = Git.createTreeFromIndex();
+            return root != null && Git.readObject(root) != null;
+        });
+
+        // Test 6: Index trees match makeTree for the same files
+        test("Index tree matches directory tree", () -> {
+            deleteDirectory(new File("test_dir"));
+            createTestFile("test_dir/top.txt", "top");
+            createTestFile("test_dir/nested/b.txt", "b");
+            createTestFile("test_dir/nested/c/d/e.txt", "e");
+            createTestFile("test_dir/nested.txt", "sorts between nested/ entries");
+            Git.updateIndex("test_dir/top.txt", "test_dir/nested/b.txt", "test_dir/nested/c/d/e.txt",
+                    "test_dir/nested.txt");
+            String root = Git.createTreeFromIndex();
+            String expected = "tree " + Git.makeTree("test_dir") + " test_dir";
+            String rootTree = new String(Git.readObject(root), StandardCharsets.UTF_8);
+            return Arrays.asList(rootTree.split("\n")).contains(expected);
+        });
+
+        // Test 7: the index caches the trees it wrote
+        test("Index caches written trees", () -> {
+            String root = Git.createTreeFromIndex();
+            GitIndex index = GitIndex.load(Paths.get("git"));
+            return root.equals(index.getCachedTree("").toHex()) && index.getCachedTree("test_dir/nested/c/d") != null;
+        });
+
+        // Test 8: changing one file only rebuilds the trees above it, and matches a full rebuild
+        test("Cached tree rebuilds only changed path", () -> {
+            createTestFile("test_dir/nested/c/d/e.txt", "e changed");
+            Git.updateIndex("test_dir/nested/c/d/e.txt");
+            GitIndex index = GitIndex.load(Paths.get("git"));
+            IndexTreeBuilder incremental = new IndexTreeBuilder(Git.getObjectStore());
+            ObjectId root = incremental.build(index);
+            ObjectId full = new IndexTreeBuilder(Git.getObjectStore()).build(index.sortedEntries());
+            // root, test_dir, nested, c, d
+            return root.equals(full) && incremental.getTreesWritten() == 5;
+        });
+
+        // Test 9: a tree read back through the reader matches what makeTree wrote
+        test("Read tree back", () -> {
+            String hash = Git.makeTree("test_dir");
+            List<GitObject> entries = Git.readTree(hash);
+            String text = new String(Git.readObject(hash), StandardCharsets.UTF_8);
+            StringBuilder rejoined = new StringBuilder();
+            for (GitObject e : entries) {
+                rejoined.append(rejoined.length() > 0 ? "\n" : "").append(e.getType()).append(' ').append(e.getHash())
+                        .append(' ').append(e.getPath());
+            }
+            return !entries.isEmpty() && text.equals(rejoined.toString());
+        });
+
+        // Test 10: repeated reads hit the cache, which stays within its byte budget by evicting LRU entries
+        test("Object reader caches by size", () -> {
+            ObjectStore store = Git.getObjectStore();
+            ObjectId tree = ObjectId.fromHex(Git.makeTree("test_dir"));
+            ObjectReader reader = new ObjectReader(store, 4096).setMaxBlobSize(1024);
+            List<GitObject> first = reader.readTree(tree);
+            boolean cachedTree = reader.readTree(tree) == first && reader.getHits() == 1 && reader.getMisses() == 1;
+            List<ObjectId> blobs = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                blobs.add(store.write(("cached blob " + i + "\n").repeat(20).getBytes(StandardCharsets.UTF_8)));
+            }
+            for (ObjectId id : blobs) {
+                reader.read(id);
+            }
+            ObjectId big = store.write(new byte[4096]);
+            reader.read(big);
+            reader.read(big);
+            long hits = reader.getHits();
+            reader.read(blobs.get(19));
+            return cachedTree && reader.getEvictions() > 0 && reader.getCachedBytes() <= 4096
+                    && reader.getHits() == hits + 1 && reader.getMisses() == 1 + 20 + 2
+                    && Arrays.equals(reader.read(blobs.get(0)), store.read(blobs.get(0)));
+        });
+    }
+
+    /**
+     * Test commits and HEAD
+     */
+    public static void runCommitTests() {
+        System.out.println("--- Testing Commits ---");
+
+        // Test 1: the first commit records the staged tree, has no parent, and HEAD points at it
+        test("Commit staged tree and move HEAD", () -> {
+            String root = Git.createTreeFromIndex();
+            String id = Git.commit("first snapshot");
+            Commit commit = Commit.parse(Git.readObject(id));
+            return id != null && id.equals(Git.getHead()) && commit.getTree().toHex().equals(root)
+                    && commit.getParents().isEmpty() && commit.getMessage().equals("first snapshot");
+        });
+
+        // Test 2: committing an unchanged index writes nothing and leaves HEAD alone
+        test("Unchanged index makes no commit", () -> {
+            String head = Git.getHead();
+            return Git.commit("again") == null && head.equals(Git.getHead());
+        });
+
+        // Test 3: the next commit follows HEAD and only writes the trees on the changed path
+        test("Commit writes only changed trees", () -> {
+            String first = Git.getHead();
+            createTestFile("test_dir/nested/c/d/e.txt", "e changed for commit");
+            Git.updateIndex("test_dir/nested/c/d/e.txt");
+            Committer committer = new Committer(Paths.get("git"), Git.getObjectStore());
+            ObjectId id = committer.commit("Tester <tester@example.com>", "second\n\nwith a body\n");
+            Commit commit = Commit.parse(Git.readObject(id.toHex()));
+            // root, test_dir, nested, c, d
+            return committer.getTreesWritten() == 5 && id.toHex().equals(Git.getHead())
+                    && commit.getParents().equals(List.of(ObjectId.fromHex(first)))
+                    && commit.getAuthor().equals("Tester <tester@example.com>")
+                    && commit.getMessage().equals("second\n\nwith a body\n");
+        });
+
+        // Test 4: HEAD only moves from the commit the writer built on
+        test("HEAD update refuses a moved HEAD", () -> {
+            ObjectId head = ObjectId.fromHex(Git.getHead());
+            ObjectId stale = ObjectHasher.SHA1.hash("not the head".getBytes(StandardCharsets.UTF_8));
+            try {
+                Head.update(Paths.get("git"), stale, stale);
+                return false;
+            } catch (IOException e) {
+                return head.equals(Head.read(Paths.get("git"))) && !Files.exists(Paths.get("git/HEAD.lock"));
+            }
+        });
+
+        // Test 5: commit text round trips, including idents with spaces
+        test("Commit format round trip", () -> {
+            ObjectId tree = ObjectHasher.SHA1.hash(new byte[0]);
+            ObjectId parent = ObjectHasher.SHA1.hash(new byte[1]);
+            Commit commit = new Commit(tree, List.of(parent), "A. N. Author <a@example.com>", "C Committer <c@example.com>",
+                    1_700_000_000L, "-0530", "subject\n\nbody line\n");
+            Commit back = Commit.parse(commit.format());
+            return back.getTree().equals(tree) && back.getParents().equals(List.of(parent))
+                    && back.getAuthor().equals(commit.getAuthor()) && back.getCommitter().equals(commit.getCommitter())
+                    && back.getTime() == 1_700_000_000L && back.getZone().equals("-0530")
+                    && back.getMessage().equals(commit.getMessage()) && Arrays.equals(back.format(), commit.format());
+        });
+
+        // Test 6: diffing HEAD against its parent finds the one file the last commit changed
+        test("Diff of consecutive commits", () -> {
+            String head = Git.getHead();
+            String parent = Commit.parse(Git.readObject(head)).getParents().get(0).toHex();
+            List<String> changes = Git.diff(parent, head);
+            return changes.equals(List.of("M test_dir/nested/c/d/e.txt")) && Git.diff(head, head).isEmpty();
+        });
+
+        // Test 7: equal subtrees are skipped unread; one-sided and file/directory changes are reported per file
+        test("Tree diff prunes equal subtrees", () -> {
+            Path dir = Files.createTempDirectory("diff_objects");
+            try {
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.none());
+                ObjectId one = store.write("one".getBytes(StandardCharsets.UTF_8));
+                ObjectId two = store.write("two".getBytes(StandardCharsets.UTF_8));
+                ObjectId deep = store.write(Tree.format(List.of(new GitObject("blob", one, "x.txt"))));
+                ObjectId keep = store.write(Tree.format(List.of(new GitObject("tree", deep, "deep"))));
+                ObjectId gone = store.write(Tree.format(List.of(new GitObject("blob", one, "f.txt"),
+                        new GitObject("blob", two, "g.txt"))));
+                ObjectId swapped = store.write(Tree.format(List.of(new GitObject("blob", two, "inner.txt"))));
+                ObjectId before = store.write(Tree.format(List.of(new GitObject("blob", one, "a.txt"),
+                        new GitObject("tree", gone, "gone"), new GitObject("tree", keep, "keep"),
+                        new GitObject("blob", one, "swap"))));
+                ObjectId after = store.write(Tree.format(List.of(new GitObject("blob", two, "a.txt"),
+                        new GitObject("tree", keep, "keep"), new GitObject("blob", one, "new.txt"),
+                        new GitObject("tree", swapped, "swap"))));
+
+                List<String> changes = new ArrayList<>();
+                TreeDiff diff = new TreeDiff(new ObjectReader(store));
+                diff.diff(before, after, (kind, path, oldId, newId) -> changes.add(kind.code() + " " + path));
+                List<String> expected = List.of("M a.txt", "D gone/f.txt", "D gone/g.txt", "A new.txt", "D swap",
+                        "A swap/inner.txt");
+                List<String> fromEmpty = new ArrayList<>();
+                TreeDiff created = new TreeDiff(new ObjectReader(store));
+                created.diff(null, keep, (kind, path, oldId, newId) -> fromEmpty.add(kind.code() + " " + path));
+                // both roots, gone and swap; keep is never opened
+                return changes.equals(expected) && diff.getTreesRead() == 4 && diff.getSubtreesSkipped() == 1
+                        && fromEmpty.equals(List.of("A deep/x.txt"));
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
+
+        // Test 8: checkout writes a tree into an empty directory, raw or deflated, and leaves the index clean
+        test("Checkout materializes a tree", () -> {
+            for (ObjectCodec codec : List.of(ObjectCodec.none(), ObjectCodec.parse("deflate"))) {
+                Path src = Files.createTempDirectory("checkout_src");
+                Path work = Files.createTempDirectory("checkout_work");
+                try {
+                    Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                    ObjectStore store = new ObjectStore(gitDir.resolve("objects"), codec);
+                    for (int i = 0; i < 40; i++) {
+                        Path f = src.resolve("d" + (i % 4) + "/e" + (i % 3) + "/f" + i + ".txt");
+                        Files.createDirectories(f.getParent());
+                        Files.write(f, ("checkout " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    ObjectId tree = new TreeBuilder(store, 1).build(src);
+                    GitIndex index = GitIndex.load(gitDir);
+                    Checkout checkout = new Checkout(new ObjectReader(store), 3);
+                    checkout.checkout(tree, work, index);
+                    index.write();
+                    boolean same = checkout.getFilesWritten() == 40 && index.size() == 40
+                            && tree.equals(index.getCachedTree(""));
+                    for (GitIndex.Entry e : index.entries()) {
+                        same &= Arrays.equals(Files.readAllBytes(work.resolve(e.getPath())),
+                                Files.readAllBytes(src.resolve(e.getPath())));
+                    }
+                    List<String> changes = Collections.synchronizedList(new ArrayList<>());
+                    new StatusWalker(store, 2).walk(work, gitDir, GitIndex.load(gitDir),
+                            (kind, path) -> changes.add(path));
+                    if (!same || !changes.isEmpty()) {
+                        return false;
+                    }
+                } finally {
+                    deleteDirectory(src.toFile());
+                    deleteDirectory(work.toFile());
+                }
+            }
             return true;
         });
+
+        // Test 9: a second checkout rewrites only what changed and leaves untracked files alone
+        test("Checkout skips files already in place", () -> {
+            Path src = Files.createTempDirectory("checkout_src");
+            Path work = Files.createTempDirectory("checkout_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                for (int i = 0; i < 10; i++) {
+                    Path f = src.resolve("d" + (i % 2) + "/f" + i + ".txt");
+                    Files.createDirectories(f.getParent());
+                    Files.write(f, ("again " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                ObjectId tree = new TreeBuilder(store, 1).build(src);
+                GitIndex index = GitIndex.load(gitDir);
+                new Checkout(new ObjectReader(store), 2).checkout(tree, work, index);
+                Thread.sleep(20);
+                index.write();
+
+                Files.write(work.resolve("d0/f0.txt"), "edited".getBytes(StandardCharsets.UTF_8));
+                Files.write(work.resolve("d1/extra.txt"), "mine".getBytes(StandardCharsets.UTF_8));
+                index = GitIndex.load(gitDir);
+                Checkout again = new Checkout(new ObjectReader(store), 2);
+                again.checkout(tree, work, index);
+                return again.getFilesWritten() == 1 && again.getFilesSkipped() == 9
+                        && new String(Files.readAllBytes(work.resolve("d0/f0.txt")), StandardCharsets.UTF_8)
+                                .equals("again 0\n")
+                        && Files.exists(work.resolve("d1/extra.txt")) && !index.contains("d1/extra.txt");
+            } finally {
+                deleteDirectory(src.toFile());
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 10: tree entries that would land outside the working tree fail the checkout, naming the entry
+        test("Checkout refuses unsafe entry names", () -> {
+            Path base = Files.createTempDirectory("checkout_evil");
+            try {
+                Path gitDir = Files.createDirectories(base.resolve("work/git/objects")).getParent();
+                Path work = gitDir.getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                ObjectId evil = store.write("evil\n".getBytes(StandardCharsets.UTF_8));
+                ObjectId inner = store.write(Tree.format(List.of(new GitObject("blob", evil, "escape.txt"))));
+                boolean refused = true;
+                for (String name : List.of("", ".", "..", "../escape.txt", base.resolve("escape.txt").toString(), "a\\b",
+                        "nul\0.txt")) {
+                    for (String type : List.of("blob", "tree")) {
+                        ObjectId entry = "blob".equals(type) ? evil : inner;
+                        ObjectId sub = store.write(Tree.format(List.of(new GitObject(type, entry, name))));
+                        ObjectId tree = store.write(Tree.format(List.of(new GitObject("tree", sub, "sub"))));
+                        GitIndex index = GitIndex.load(gitDir);
+                        try {
+                            new Checkout(new ObjectReader(store), 2).checkout(tree, work, index);
+                            refused = false;
+                        } catch (IOException e) {
+                            refused &= e.getMessage().contains("\"sub/" + name + "\"") && index.size() == 0;
+                        }
+                    }
+                }
+                try (Stream<Path> files = Files.walk(base)) {
+                    return refused && files.noneMatch(f -> f.getFileName().toString().contains("escape"));
+                }
+            } finally {
+                deleteDirectory(base.toFile());
+            }
+        });
+
+        // Test 11: a link or a file where the tree has a directory is replaced, never followed
+        test("Checkout replaces a symlinked directory", () -> {
+            Path base = Files.createTempDirectory("checkout_link");
+            try {
+                Path gitDir = Files.createDirectories(base.resolve("work/git/objects")).getParent();
+                Path work = gitDir.getParent();
+                Path outside = Files.createDirectory(base.resolve("outside"));
+                Files.createSymbolicLink(work.resolve("sub"), outside);
+                Files.write(work.resolve("plain"), "in the way".getBytes(StandardCharsets.UTF_8));
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                ObjectId blob = store.write("inside\n".getBytes(StandardCharsets.UTF_8));
+                ObjectId inner = store.write(Tree.format(List.of(new GitObject("blob", blob, "f.txt"))));
+                ObjectId tree = store.write(Tree.format(List.of(new GitObject("tree", inner, "plain"),
+                        new GitObject("tree", inner, "sub"))));
+                new Checkout(new ObjectReader(store), 2).checkout(tree, work, GitIndex.load(gitDir));
+                try (Stream<Path> escaped = Files.list(outside)) {
+                    return escaped.count() == 0
+                            && Files.isDirectory(work.resolve("sub"), LinkOption.NOFOLLOW_LINKS)
+                            && Files.isDirectory(work.resolve("plain"))
+                            && "inside\n".equals(new String(Files.readAllBytes(work.resolve("sub/f.txt")), StandardCharsets.UTF_8))
+                            && Files.exists(work.resolve("plain/f.txt"));
+                }
+            } finally {
+                deleteDirectory(base.toFile());
+            }
+        });
+
+        // Test 12: the id set used for marking keeps every id across many resizes
+        test("Object id set grows without losing ids", () -> {
+            ObjectIdSet set = new ObjectIdSet(20);
+            ObjectHasher hasher = ObjectHasher.forName("sha1");
+            boolean added = true;
+            for (int i = 0; i < 20000; i++) {
+                added &= set.add(hasher.hash(("id " + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            boolean present = true;
+            for (int i = 0; i < 20000; i++) {
+                present &= !set.add(hasher.hash(("id " + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            return added && present && set.size() == 20000
+                    && !set.contains(hasher.hash("absent".getBytes(StandardCharsets.UTF_8)));
+        });
+
+        // Test 13: gc keeps history, index and chunks, and removes only old unreachable objects
+        test("Gc removes unreachable objects past the grace period", () -> {
+            Path work = Files.createTempDirectory("gc_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none()).setChunkThreshold(1);
+                byte[] big = new byte[300 * 1024];
+                new Random(25).nextBytes(big);
+                Files.write(work.resolve("big.bin"), big);
+                ObjectId chunked = store.writeBlob(work.resolve("big.bin"));
+                ObjectId v1 = store.write("v1".getBytes(StandardCharsets.UTF_8));
+                ObjectId v2 = store.write("v2".getBytes(StandardCharsets.UTF_8));
+                ObjectId t1 = store.write(Tree.format(List.of(new GitObject("blob", v1, "a.txt"))));
+                ObjectId sub = store.write(Tree.format(List.of(new GitObject("blob", chunked, "big.bin"))));
+                ObjectId t2 = store.write(Tree.format(List.of(new GitObject("blob", v2, "a.txt"),
+                        new GitObject("tree", sub, "sub"))));
+                ObjectId c1 = store.write(Commit.now(t1, List.of(), "T <t@x>", "one").format());
+                ObjectId c2 = store.write(Commit.now(t2, List.of(c1), "T <t@x>", "two").format());
+                Head.update(gitDir, null, c2);
+                ObjectId staged = store.write("staged".getBytes(StandardCharsets.UTF_8));
+                ObjectId cached = store.write(Tree.format(List.of(new GitObject("blob", staged, "s.txt"))));
+                GitIndex index = GitIndex.load(gitDir);
+                index.add("s.txt", staged);
+                index.cacheTree("", cached);
+                index.write();
+
+                ObjectId garbage = store.write("garbage".getBytes(StandardCharsets.UTF_8));
+                ObjectId garbageTree = store.write(Tree.format(List.of(new GitObject("blob", garbage, "g"))));
+                Path objects = gitDir.resolve("objects");
+                Files.createDirectory(objects.resolve(t1.toHex()));
+                Files.write(objects.resolve("tmp_obj_1"), new byte[10]);
+                List<ObjectId> everything = store.listLoose();
+
+                GarbageCollector fresh = new GarbageCollector(gitDir, store, 2).setGracePeriod(Duration.ofHours(1));
+                fresh.collect();
+                boolean keptFresh = fresh.getObjectsRemoved() == 0 && fresh.getStrayRemoved() == 0
+                        && store.listLoose().size() == everything.size();
+
+                FileTime old = FileTime.from(Instant.now().minus(Duration.ofHours(2)));
+                try (Stream<Path> files = Files.walk(objects)) {
+                    for (Path p : (Iterable<Path>) files::iterator) {
+                        Files.setLastModifiedTime(p, old);
+                    }
+                }
+                GarbageCollector gc = new GarbageCollector(gitDir, store, 2).setGracePeriod(Duration.ofHours(1));
+                gc.collect();
+                List<ObjectId> left = store.listLoose();
+                return keptFresh && gc.getObjectsRemoved() == 2 && gc.getStrayRemoved() == 2
+                        && gc.getBytesRemoved() > 0 && left.size() == everything.size() - 2
+                        && !left.contains(garbage) && !left.contains(garbageTree) && !store.exists(garbage)
+                        && left.containsAll(List.of(c1, c2, t1, t2, sub, v1, v2, chunked, staged, cached))
+                        && left.containsAll(store.manifest(chunked).getIds())
+                        && store.chunkedIds().equals(Set.of(chunked))
+                        && !Files.exists(objects.resolve(t1.toHex())) && !Files.exists(objects.resolve("tmp_obj_1"))
+                        && Arrays.equals(store.read(chunked), big);
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 14: storing an old object again makes it new, so gc can't remove it before it's referenced
+        test("Re-added object survives gc", () -> {
+            Path work = Files.createTempDirectory("gc_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                Files.write(work.resolve("readded.txt"), "re-added from a file".getBytes(StandardCharsets.UTF_8));
+                ObjectId fromFile = store.writeBlob(work.resolve("readded.txt"));
+                ObjectId fromBytes = store.write("re-added from bytes".getBytes(StandardCharsets.UTF_8));
+                ObjectId abandoned = store.write("abandoned".getBytes(StandardCharsets.UTF_8));
+                FileTime month = FileTime.from(Instant.now().minus(Duration.ofDays(30)));
+                for (ObjectId id : List.of(fromFile, fromBytes, abandoned)) {
+                    Files.setLastModifiedTime(store.path(id), month);
+                }
+
+                // added again later, by a store that hasn't seen them yet
+                ObjectStore later = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                boolean same = fromFile.equals(later.writeBlob(work.resolve("readded.txt")))
+                        && fromBytes.equals(later.write("re-added from bytes".getBytes(StandardCharsets.UTF_8)));
+                GarbageCollector gc = new GarbageCollector(gitDir, store, 2);
+                gc.collect();
+                List<ObjectId> left = store.listLoose();
+                return same && gc.getObjectsRemoved() == 1 && left.contains(fromFile) && left.contains(fromBytes)
+                        && !left.contains(abandoned);
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 15: a directory with no index entries left under it loses its cached trees, so gc can take them
+        test("Removed directory's trees are collected", () -> {
+            Path work = Files.createTempDirectory("gc_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none());
+                ObjectId kept = store.write("kept".getBytes(StandardCharsets.UTF_8));
+                ObjectId a = store.write("a".getBytes(StandardCharsets.UTF_8));
+                // "gone" holds a file and an empty directory, which has a tree but no index entries
+                ObjectId empty = store.write(Tree.format(List.of()));
+                ObjectId gone = store.write(Tree.format(List.of(new GitObject("blob", a, "a.txt"),
+                        new GitObject("tree", empty, "empty"))));
+                ObjectId tree = store.write(Tree.format(List.of(new GitObject("blob", kept, "keep.txt"),
+                        new GitObject("tree", gone, "gone"))));
+                GitIndex index = GitIndex.load(gitDir);
+                new Checkout(new ObjectReader(store), 2).checkout(tree, work, index);
+                index.write();
+
+                index = GitIndex.load(gitDir);
+                index.remove("gone/a.txt");
+                ObjectId root = new IndexTreeBuilder(store).build(index);
+                index.write();
+                GarbageCollector gc = new GarbageCollector(gitDir, store, 2).setGracePeriod(Duration.ZERO);
+                gc.collect();
+                List<ObjectId> left = store.listLoose();
+                GitIndex reloaded = GitIndex.load(gitDir);
+                return reloaded.cachedTreeCount() == 1 && root.equals(reloaded.getCachedTree(""))
+                        && left.containsAll(List.of(root, kept)) && !left.contains(tree) && !left.contains(gone)
+                        && !left.contains(empty) && !left.contains(a);
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 16: fsck re-hashes loose and packed copies and finds nothing wrong in a sound store
+        test("Fsck passes a healthy store", () -> {
+            Path work = Files.createTempDirectory("fsck_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.parse("deflate"));
+                ObjectId a = store.write("alpha\n".getBytes(StandardCharsets.UTF_8));
+                ObjectId tree = store.write(Tree.format(List.of(new GitObject("blob", a, "a.txt"))));
+                ObjectId commit = store.write(Commit.now(tree, List.of(), "T <t@x>", "one").format());
+                Head.update(gitDir, null, commit);
+                new PackWriter(store).repack();
+                ObjectId b = store.write("beta\n".getBytes(StandardCharsets.UTF_8));
+                GitIndex index = GitIndex.load(gitDir);
+                index.add("b.txt", b);
+                index.write();
+                ObjectId stray = store.write("stray\n".getBytes(StandardCharsets.UTF_8));
+
+                List<String> found = Collections.synchronizedList(new ArrayList<>());
+                Fsck fsck = new Fsck(gitDir, store, 2);
+                fsck.check((kind, id, detail) -> found.add(kind.label() + " " + id));
+                return fsck.isHealthy() && found.equals(List.of("dangling " + stray))
+                        && fsck.getObjectsChecked() == 5 && fsck.getBytesHashed() > 0;
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
+
+        // Test 17: a tampered object is corrupt, a deleted one missing, and a lost chunk both
+        test("Fsck reports corrupt, missing and dangling objects", () -> {
+            Path work = Files.createTempDirectory("fsck_work");
+            try {
+                Path gitDir = Files.createDirectories(work.resolve("git/objects")).getParent();
+                ObjectStore store = new ObjectStore(gitDir.resolve("objects"), ObjectCodec.none()).setChunkThreshold(1);
+                byte[] big = new byte[300 * 1024];
+                new Random(26).nextBytes(big);
+                Files.write(work.resolve("big.bin"), big);
+                ObjectId chunked = store.writeBlob(work.resolve("big.bin"));
+                ObjectId tampered = store.write("original\n".getBytes(StandardCharsets.UTF_8));
+                ObjectId lost = store.write("lost\n".getBytes(StandardCharsets.UTF_8));
+                ObjectId tree = store.write(Tree.format(List.of(new GitObject("blob", chunked, "big.bin"),
+                        new GitObject("blob", lost, "lost.txt"), new GitObject("blob", tampered, "t.txt"))));
+                ObjectId commit = store.write(Commit.now(tree, List.of(), "T <t@x>", "one").format());
+                Head.update(gitDir, null, commit);
+                ObjectId stray = store.write("stray\n".getBytes(StandardCharsets.UTF_8));
+
+                Files.write(store.path(tampered), "\0tampered\n".getBytes(StandardCharsets.UTF_8));
+                Files.delete(store.path(lost));
+                ObjectId chunk = store.manifest(chunked).getIds().get(1);
+                Files.delete(store.path(chunk));
+
+                List<String> found = Collections.synchronizedList(new ArrayList<>());
+                Fsck fsck = new Fsck(gitDir, store, 2);
+                fsck.check((kind, id, detail) -> found.add(kind.label() + " " + id));
+                Collections.sort(found);
+                List<String> expected = new ArrayList<>(List.of("corrupt " + tampered, "corrupt " + chunked,
+                        "missing " + lost, "missing " + chunk, "dangling " + stray));
+                Collections.sort(expected);
+                return found.equals(expected) && !fsck.isHealthy() && fsck.getCount(Fsck.Kind.CORRUPT) == 2;
+            } finally {
+                deleteDirectory(work.toFile());
+            }
+        });
     }
 
     /**
@@ -252,6 +1554,41 @@ public class GitTester {
             String hash = Git.hashFile("large_file.txt");
             return hash != null && hash.length() == 40;
         });
+
+        // Test 4: files over 2 GB hash through the mapped path
+        test("Hash sparse file over 2 GB", () -> {
+            try (RandomAccessFile raf = new RandomAccessFile("sparse_big.bin", "rw")) {
+                raf.setLength(2L * 1024 * 1024 * 1024 + 4096);
+                raf.seek(raf.length() - 4);
+                raf.write(new byte[] { 'e', 'n', 'd', '\n' });
+            }
+            try {
+                String hash = Git.hashFile("sparse_big.bin");
+                ObjectId streamed;
+                try (FileChannel ch = FileChannel.open(Paths.get("sparse_big.bin"))) {
+                    streamed = ObjectHasher.SHA1.hash(ch);
+                }
+                return hash != null && hash.equals(streamed.toHex());
+            } finally {
+                new File("sparse_big.bin").delete();
+            }
+        });
+
+        // Test 5: big files are stored as-is, so their content still matches their name
+        test("Big file stored raw under its hash", () -> {
+            Path dir = Files.createTempDirectory("big_objects");
+            try {
+                ObjectStore store = new ObjectStore(dir, ObjectCodec.none()).setBigFileThreshold(16);
+                createTestFile("big_crlf.txt", "line one\r\nline two\r\n");
+                Path file = Paths.get("big_crlf.txt");
+                ObjectId id = store.writeBlob(file);
+                return id.equals(store.hashBlob(file))
+                        && Arrays.equals(store.read(id), Files.readAllBytes(file))
+                        && id.equals(ObjectHasher.SHA1.hash(Files.readAllBytes(file)));
+            } finally {
+                deleteDirectory(dir.toFile());
+            }
+        });
     }
 
     /**
@@ -276,7 +1613,7 @@ public class GitTester {
             Git.updateIndex("integration1.txt");
             Git.updateIndex("integration2.txt");
             
-            String indexContent = readFile("git/index");
+            String indexContent = readIndex();
             return indexContent.contains("integration1.txt") && 
                    indexContent.contains("integration2.txt");
         });
@@ -312,6 +1649,9 @@ public class GitTester {
     
     private static void createTestFile(String filename, String content) {
         try {
+            if (Paths.get(filename).getParent() != null) {
+                Files.createDirectories(Paths.get(filename).getParent());
+            }
             Files.write(Paths.get(filename), content.getBytes(StandardCharsets.UTF_8));
         } catch (IOException e) {
             System.err.println("Failed to create test file: " + filename);
@@ -330,6 +1670,19 @@ public class GitTester {
         }
     }
     
+    private static String readIndex() {
+        // the index is binary, so render it as "hash path" lines for the assertions
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (GitIndex.Entry entry : GitIndex.load(Paths.get("git")).sortedEntries()) {
+                sb.append(entry).append("\n");
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+    
     private static void printTestResults() {
         System.out.println("\n=== Test Results ===");
         System.out.println("Tests passed: " + testsPassed);
@@ -350,12 +1703,20 @@ public class GitTester {
         }
     }
     
+    /** Where the repository keeps a loose object: git/objects/ab/cdef... */
+    private static File objectFile(String hash) {
+        return new File("git/objects/" + hash.substring(0, 2) + "/" + hash.substring(2));
+    }
+
     private static void cleanup() {
         // Clean up test files
         String[] testFiles = {
             "hash_test1.txt", "hash_test2.txt", "hash_test3.txt",
             "special_chars.txt", "unicode.txt", "large_file.txt",
-            "integration1.txt", "integration2.txt"
+            "integration1.txt", "integration2.txt", "blob_crlf.txt",
+            "blob_roundtrip.txt", "blob_compress.txt", "blob_plain.txt", "pack_a.txt", "pack_b.txt",
+            "idx.txt", "idx.txt.bak", "stat_a.txt", "stat_b.txt", "sparse_big.bin", "big_crlf.txt",
+            "blob_binary.bin", "blob_text.txt"
         };
         
         for (String file : testFiles) {
@@ -0,0 +1,47 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * {@code git/HEAD}: the id of the latest commit as one hex line, empty until the first commit.
+ * There are no branches, so HEAD holds the id itself rather than naming a ref.
+ */
+public class Head {
+    private Head() {
+    }
+
+    /** The commit HEAD points at, or null if nothing has been committed yet. */
+    public static ObjectId read(Path gitDir) throws IOException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(gitDir.resolve("HEAD"));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String hex = new String(content, StandardCharsets.US_ASCII).trim();
+        if (hex.isEmpty()) {
+            return null;
+        }
+        if (!ObjectId.isHex(hex)) {
+            throw new IOException("Head: " + gitDir.resolve("HEAD") + " does not hold a commit id: " + hex);
+        }
+        return ObjectId.fromHex(hex);
+    }
+
+    /**
+     * Moves HEAD from {@code expected} (null for no commit yet) to {@code id}, atomically and only
+     * if nobody moved it in between; otherwise fails and leaves HEAD alone, so a commit made
+     * concurrently is never dropped from history.
+     */
+    public static void update(Path gitDir, ObjectId expected, ObjectId id) throws IOException {
+        try (LockFile lock = LockFile.acquire(gitDir.resolve("HEAD"))) {
+            ObjectId current = read(gitDir);
+            if (current == null ? expected != null : !current.equals(expected)) {
+                throw new IOException("Head: HEAD moved to " + current + " while committing on top of " + expected);
+            }
+            lock.commit((id.toHex() + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
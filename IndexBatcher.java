@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces index updates from many threads in this JVM into as few index writes as possible
+ * (group commit). Each caller queues its change and waits. Whichever waiting caller finds no
+ * write in progress becomes the leader: it takes the {@link IndexLock}, applies every queued change
+ * to one index, commits it once and wakes everyone it wrote for. Changes queued meanwhile go out in
+ * the next batch, led by one of their own callers, so no caller writes for longer than one batch.
+ *
+ * The last index this batcher committed is kept in memory and reused for the next batch as long
+ * as the file on disk is still the one it wrote; if another process changed it, it is reloaded.
+ * Hashing should happen before {@link #update}, outside the lock, so batches stay cheap.
+ */
+public class IndexBatcher {
+    private static final Map<Path, IndexBatcher> BATCHERS = new ConcurrentHashMap<>();
+
+    /** A change to apply to the locked index. */
+    @FunctionalInterface
+    public interface Update {
+        void apply(GitIndex index) throws IOException;
+    }
+
+    private final Path gitDir;
+    private final List<Pending> queue = new ArrayList<>();
+    private boolean writing;
+    private int batches;
+    private int updates;
+
+    private volatile GitIndex published;
+    private volatile String publishedStamp;
+
+    public IndexBatcher(Path gitDir) {
+        this.gitDir = gitDir;
+    }
+
+    /** The batcher shared by every caller in this JVM for the repository at {@code gitDir}. */
+    public static IndexBatcher forRepo(Path gitDir) {
+        return BATCHERS.computeIfAbsent(gitDir.toAbsolutePath().normalize(), IndexBatcher::new);
+    }
+
+    /** How many index writes this batcher has made. */
+    public synchronized int getBatches() {
+        return batches;
+    }
+
+    /** How many updates those writes carried. */
+    public synchronized int getUpdates() {
+        return updates;
+    }
+
+    synchronized boolean isWriting() {
+        return writing;
+    }
+
+    /** Updates waiting for the next batch. */
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    /**
+     * The current index, for reading only (e.g. stat checks before hashing), and safe to share
+     * between threads: it is frozen, so any change to it throws. It may be out of date by the time
+     * it is used; changes must go through {@link #update}.
+     */
+    public GitIndex snapshot() throws IOException {
+        GitIndex index = published;
+        if (index != null && stamp().equals(publishedStamp)) {
+            return index;
+        }
+        return GitIndex.load(gitDir).freeze();
+    }
+
+    /**
+     * Applies {@code update} to the index and returns once it is on disk. If the batch it went out
+     * in failed, every update in that batch fails with the same exception and none are written.
+     */
+    public void update(Update update) throws IOException {
+        Pending mine = new Pending(update);
+        synchronized (this) {
+            queue.add(mine);
+            while (writing && !mine.done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("IndexBatcher: interrupted waiting for the index");
+                }
+            }
+            if (!mine.done) {
+                writing = true;
+            }
+        }
+        if (!mine.done) {
+            // nobody is writing and our update is still queued: lead the next batch
+            List<Pending> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+            // stays set only if commit dies with an Error; the next caller in line still gets its turn
+            Exception failure = new IOException("IndexBatcher: batch abandoned");
+            try {
+                commit(batch);
+                failure = null;
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    for (Pending p : batch) {
+                        p.failure = failure;
+                        p.done = true;
+                    }
+                    batches++;
+                    updates += batch.size();
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+        if (mine.failure instanceof IOException) {
+            throw (IOException) mine.failure;
+        }
+        if (mine.failure != null) {
+            throw (RuntimeException) mine.failure;
+        }
+    }
+
+    private void commit(List<Pending> batch) throws IOException {
+        try (IndexLock lock = IndexLock.acquire(gitDir)) {
+            GitIndex last = published;
+            // the published index is shared with snapshot readers, so the batch works on a copy
+            GitIndex index = last != null && stamp().equals(publishedStamp) ? last.copy() : lock.load();
+            for (Pending p : batch) {
+                p.update.apply(index);
+            }
+            publishedStamp = stamp(lock.commit(index));
+            published = index.freeze();
+        }
+    }
+
+    /** Identifies the index file's current version; the rename on commit gives each a new inode. */
+    private String stamp() throws IOException {
+        try {
+            return stamp(Files.readAttributes(gitDir.resolve("index"), BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            return "";
+        }
+    }
+
+    private static String stamp(BasicFileAttributes attrs) {
+        return attrs.size() + ":" + GitIndex.mtimeNanos(attrs.lastModifiedTime().toInstant()) + ":" + attrs.fileKey();
+    }
+
+    private static class Pending {
+        final Update update;
+        boolean done;
+        Exception failure;
+
+        Pending(Update update) {
+            this.update = update;
+        }
+    }
+}
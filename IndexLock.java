@@ -0,0 +1,57 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Holds {@code git/index.lock} while an index is read, changed and written back (see
+ * {@link LockFile} for the protocol). The new index is written into the lock file itself, forced
+ * to disk and renamed over {@code git/index}, so a crash never leaves a half-written index.
+ *
+ * Load the index only after the lock is held ({@link #load()}), or another process's update made
+ * in between is silently overwritten. Closing without committing releases the lock and leaves the
+ * index as it was.
+ */
+public class IndexLock implements Closeable {
+    private final Path gitDir;
+    private final LockFile lock;
+
+    private IndexLock(Path gitDir, LockFile lock) {
+        this.gitDir = gitDir;
+        this.lock = lock;
+    }
+
+    public static IndexLock acquire(Path gitDir) throws IOException {
+        return acquire(gitDir, LockFile.TIMEOUT_MILLIS);
+    }
+
+    /** Takes the lock, waiting up to {@code timeoutMillis} for another holder to finish. */
+    public static IndexLock acquire(Path gitDir, long timeoutMillis) throws IOException {
+        return new IndexLock(gitDir, LockFile.acquire(gitDir.resolve("index"), timeoutMillis));
+    }
+
+    public Path getLockFile() {
+        return lock.getLockFile();
+    }
+
+    /** Loads the current index. Only what is read under the lock is safe to write back. */
+    public GitIndex load() throws IOException {
+        return GitIndex.load(gitDir);
+    }
+
+    /**
+     * Writes {@code index} over the old one and releases the lock. If anything fails the old index
+     * stays. Returns the attributes of the file as committed; see {@link LockFile#commit}.
+     */
+    public BasicFileAttributes commit(GitIndex index) throws IOException {
+        BasicFileAttributes attrs = lock.commit(index.serialize());
+        index.written(attrs);
+        return attrs;
+    }
+
+    /** Releases the lock without touching the index, unless it was already committed. */
+    @Override
+    public void close() throws IOException {
+        lock.close();
+    }
+}
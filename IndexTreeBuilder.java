@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writes the tree objects for an index in one pass over its path-sorted entries. Sorting keeps
+ * every directory's entries contiguous, so directories are opened as paths descend into them and
+ * closed (their tree written, exactly once) as soon as a path leaves them. Nothing but the open
+ * path from the root is held in memory. The trees match what {@link TreeBuilder} writes for the
+ * same files on disk.
+ *
+ * Built from a {@link GitIndex}, directories whose tree the index has cached are not descended
+ * into at all: the cached id is used and the walk jumps past their entries with a binary search.
+ * Every tree that is written goes back into the index's cache.
+ */
+public class IndexTreeBuilder {
+    private final ObjectStore store;
+    private int treesWritten;
+
+    public IndexTreeBuilder(ObjectStore store) {
+        this.store = store;
+    }
+
+    /** How many trees the last build actually wrote rather than took from the cache. */
+    public int getTreesWritten() {
+        return treesWritten;
+    }
+
+    /** Writes every tree the index implies that it hasn't cached and returns the root tree's id. */
+    public ObjectId build(GitIndex index) throws IOException {
+        return build(index.sortedEntries(), index);
+    }
+
+    /** Builds every tree from scratch for entries already sorted by path. */
+    public ObjectId build(List<GitIndex.Entry> sorted) throws IOException {
+        return build(sorted, null);
+    }
+
+    private ObjectId build(List<GitIndex.Entry> sorted, GitIndex cache) throws IOException {
+        treesWritten = 0;
+        ObjectId cachedRoot = cache == null ? null : cache.getCachedTree("");
+        if (cachedRoot != null) {
+            return cachedRoot;
+        }
+        Deque<Dir> open = new ArrayDeque<>();
+        open.push(new Dir("", ""));
+        int i = 0;
+        entries:
+        while (i < sorted.size()) {
+            String path = sorted.get(i).getPath();
+            while (open.size() > 1 && !path.startsWith(open.peek().prefix)) {
+                close(open, cache);
+            }
+            int start = open.peek().prefix.length();
+            int slash;
+            while ((slash = path.indexOf('/', start)) >= 0) {
+                String name = path.substring(start, slash);
+                ObjectId cached = cache == null ? null : cache.getCachedTree(path.substring(0, slash));
+                if (cached != null) {
+                    open.peek().children.add(new GitObject("tree", cached, name));
+                    i = endOf(sorted, path.substring(0, slash + 1), i);
+                    continue entries;
+                }
+                open.push(new Dir(path.substring(0, slash + 1), name));
+                start = slash + 1;
+            }
+            open.peek().children.add(new GitObject("blob", sorted.get(i).getId(), path.substring(start)));
+            i++;
+        }
+        while (open.size() > 1) {
+            close(open, cache);
+        }
+        return write(open.pop(), cache);
+    }
+
+    private void close(Deque<Dir> open, GitIndex cache) throws IOException {
+        Dir dir = open.pop();
+        open.peek().children.add(new GitObject("tree", write(dir, cache), dir.name));
+    }
+
+    private ObjectId write(Dir dir, GitIndex cache) throws IOException {
+        ObjectId id = store.write(Tree.format(dir.children));
+        treesWritten++;
+        if (cache != null) {
+            String prefix = dir.prefix;
+            cache.cacheTree(prefix.isEmpty() ? "" : prefix.substring(0, prefix.length() - 1), id);
+        }
+        return id;
+    }
+
+    /** Index of the first entry at or after {@code from} that is not under {@code prefix}. */
+    private static int endOf(List<GitIndex.Entry> sorted, String prefix, int from) {
+        // prefix ends in '/', and every path under it sorts before the same string ending in '0'
+        String bound = prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1);
+        int lo = from;
+        int hi = sorted.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted.get(mid).getPath().compareTo(bound) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** A directory whose entries are still being collected. */
+    private static class Dir {
+        /** Path of the directory with a trailing '/', or "" for the root. */
+        final String prefix;
+        final String name;
+        final List<GitObject> children = new ArrayList<>();
+
+        Dir(String prefix, String name) {
+            this.prefix = prefix;
+            this.name = name;
+        }
+    }
+}
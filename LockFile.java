@@ -0,0 +1,110 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Git's lock-file protocol for replacing one file: {@code <file>.lock} is created exclusively, so
+ * there is one holder at a time across every process, the new content is written into the lock
+ * file and forced to disk, and the lock file is renamed over the target. Readers see the old
+ * content or the new, and a crash leaves at most a stale lock file behind. Used for the index
+ * ({@link IndexLock}) and HEAD ({@link Head}).
+ */
+public class LockFile implements Closeable {
+    /** How long {@link #acquire(Path)} waits for another holder before giving up. */
+    static final long TIMEOUT_MILLIS = 10_000;
+    private static final long MAX_BACKOFF_MILLIS = 50;
+
+    private final Path target;
+    private final Path lockFile;
+    private boolean released;
+
+    private LockFile(Path target, Path lockFile) {
+        this.target = target;
+        this.lockFile = lockFile;
+    }
+
+    public static LockFile acquire(Path target) throws IOException {
+        return acquire(target, TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates the lock file, retrying with a short backoff while someone else holds it. Fails once
+     * {@code timeoutMillis} has passed; a lock left by a crashed process has to be removed by hand.
+     */
+    public static LockFile acquire(Path target, long timeoutMillis) throws IOException {
+        Path lockFile = target.resolveSibling(target.getFileName() + ".lock");
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        long backoff = 1;
+        while (true) {
+            try {
+                Files.createFile(lockFile);
+                return new LockFile(target, lockFile);
+            } catch (FileAlreadyExistsException e) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw new IOException("LockFile: " + lockFile + " exists; another process is updating "
+                            + target.getFileName() + ", or one crashed and the file must be removed");
+                }
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("LockFile: interrupted waiting for " + lockFile);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    public Path getLockFile() {
+        return lockFile;
+    }
+
+    /**
+     * Writes {@code content} into the lock file, forces it to disk and renames it over the target,
+     * which also releases the lock. If anything fails the lock is removed and the target stays as
+     * it was. Returns the attributes of the file as committed, read before the rename, so they
+     * describe this write even if another process replaces the target straight after.
+     */
+    public BasicFileAttributes commit(byte[] content) throws IOException {
+        if (released) {
+            throw new IllegalStateException("LockFile: " + lockFile + " was already released");
+        }
+        released = true;
+        try {
+            ByteBuffer data = ByteBuffer.wrap(content);
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            BasicFileAttributes attrs = Files.readAttributes(lockFile, BasicFileAttributes.class);
+            ObjectStore.moveIntoPlace(lockFile, target);
+            return attrs;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(lockFile);
+            throw e;
+        }
+    }
+
+    /** Releases the lock without touching the target, unless it was already committed. */
+    @Override
+    public void close() throws IOException {
+        if (!released) {
+            released = true;
+            Files.deleteIfExists(lockFile);
+        }
+    }
+}
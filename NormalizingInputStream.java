@@ -0,0 +1,152 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Streams file content with the same normalization hashFile has always applied:
+ * a leading UTF-8 BOM is dropped and CRLF / lone CR line endings become LF.
+ * Works on raw bytes in place, so nothing is ever decoded into a String.
+ *
+ * Only text should go through it; {@link #forBlob} decides per file.
+ */
+public class NormalizingInputStream extends FilterInputStream {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /** How much of a file is looked at to tell text from binary, the same window git uses. */
+    static final int DETECT_BYTES = 8000;
+
+    /** Which blobs get normalized; the config spelling is the lower-case name. */
+    public enum Mode {
+        /** Text is normalized, binary (a NUL byte near the start) is stored as-is. */
+        AUTO,
+        /** Every blob is treated as text. */
+        ALWAYS,
+        /** Every blob is stored byte for byte. */
+        NEVER;
+
+        public static Mode parse(String spec) {
+            try {
+                return valueOf(spec.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("NormalizingInputStream: unknown normalization \"" + spec + "\"");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final byte[] single = new byte[1];
+    private byte[] prefix;
+    private int prefixPos;
+    private boolean started = false;
+    private boolean lastWasCR = false;
+
+    public NormalizingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Wraps a blob's raw content for hashing or storing. In AUTO mode the head of the stream is
+     * peeked at and pushed back, so detection costs no second read of the file.
+     */
+    public static InputStream forBlob(InputStream in, Mode mode) throws IOException {
+        switch (mode) {
+            case NEVER:
+                return in;
+            case ALWAYS:
+                return new NormalizingInputStream(in);
+            default:
+                PushbackInputStream peek = new PushbackInputStream(in, DETECT_BYTES);
+                byte[] head = peek.readNBytes(DETECT_BYTES);
+                peek.unread(head);
+                return isBinary(head) ? peek : new NormalizingInputStream(peek);
+        }
+    }
+
+    /** Git's heuristic: text files don't contain NUL bytes. */
+    static boolean isBinary(byte[] head) {
+        for (byte c : head) {
+            if (c == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!started) {
+            started = true;
+            byte[] head = in.readNBytes(3);
+            if (head.length == 3 && (head[0] & 0xff) == 0xEF && (head[1] & 0xff) == 0xBB && (head[2] & 0xff) == 0xBF) {
+                prefix = new byte[0];
+            } else {
+                prefix = head;
+            }
+        }
+        while (true) {
+            int n;
+            if (prefixPos < prefix.length) {
+                n = Math.min(len, prefix.length - prefixPos);
+                System.arraycopy(prefix, prefixPos, b, off, n);
+                prefixPos += n;
+            } else {
+                n = in.read(b, off, len);
+                if (n == -1) {
+                    return -1;
+                }
+            }
+            // compact in place: output never grows, so the write index trails the read index
+            int w = off;
+            for (int r = off; r < off + n; r++) {
+                byte c = b[r];
+                if (c == CR) {
+                    b[w++] = LF;
+                    lastWasCR = true;
+                } else {
+                    if (!(c == LF && lastWasCR)) {
+                        b[w++] = c;
+                    }
+                    lastWasCR = false;
+                }
+            }
+            if (w > off) {
+                return w - off;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // the underlying skip would bypass normalization, so read and discard instead
+        byte[] scratch = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+            if (r == -1) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * How object bytes are encoded on disk. Every stored object starts with a one-byte tag naming
+ * the codec it was written with, so changing the setting never strands objects written before.
+ */
+public abstract class ObjectCodec {
+    public static final byte TAG_NONE = 0;
+    public static final byte TAG_DEFLATE = 1;
+    /** Not a codec: the object is a large blob stored as a {@link ChunkManifest}, read through ObjectStore. */
+    public static final byte TAG_CHUNKED = 2;
+
+    private static final int STREAM_BUFFER = 64 * 1024;
+
+    public abstract byte tag();
+
+    /** Wraps a raw output stream so that bytes written to the result are encoded. */
+    public abstract OutputStream encode(OutputStream out);
+
+    /** Wraps an encoded input stream; decoding happens lazily as the result is read. */
+    public abstract InputStream decode(InputStream in);
+
+    /** Deflate level to use where a zlib stream is always written, e.g. inside packs. */
+    public abstract int deflateLevel();
+
+    /** The config spelling of this codec, e.g. {@code none} or {@code deflate:6}. */
+    public abstract String name();
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    public static ObjectCodec none() {
+        return NONE;
+    }
+
+    public static ObjectCodec deflate(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("ObjectCodec: deflate level must be -1..9, got " + level);
+        }
+        return new DeflateCodec(level);
+    }
+
+    /** Parses {@code none}, {@code deflate} or {@code deflate:<level>}. */
+    public static ObjectCodec parse(String spec) {
+        String s = spec.trim().toLowerCase();
+        if (s.equals("none")) {
+            return none();
+        }
+        if (s.equals("deflate")) {
+            return deflate(Deflater.DEFAULT_COMPRESSION);
+        }
+        if (s.startsWith("deflate:")) {
+            try {
+                return deflate(Integer.parseInt(s.substring("deflate:".length())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ObjectCodec: bad deflate level in \"" + spec + "\"");
+            }
+        }
+        throw new IllegalArgumentException("ObjectCodec: unknown codec \"" + spec + "\"");
+    }
+
+    /** The decoder for objects carrying the given tag; the level only matters when writing. */
+    public static ObjectCodec forTag(int tag) throws IOException {
+        switch (tag) {
+            case TAG_NONE:
+                return NONE;
+            case TAG_DEFLATE:
+                return READ_DEFLATE;
+            default:
+                throw new IOException("ObjectCodec: unknown object codec tag " + tag);
+        }
+    }
+
+    private static final ObjectCodec NONE = new ObjectCodec() {
+        @Override
+        public byte tag() {
+            return TAG_NONE;
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public int deflateLevel() {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+    };
+
+    private static final ObjectCodec READ_DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    private static class DeflateCodec extends ObjectCodec {
+        private final int level;
+
+        DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public byte tag() {
+            return TAG_DEFLATE;
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, STREAM_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, STREAM_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int deflateLevel() {
+            return level;
+        }
+
+        @Override
+        public String name() {
+            return level == Deflater.DEFAULT_COMPRESSION ? "deflate" : "deflate:" + level;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes content into object ids with one algorithm (SHA-1 or SHA-256). MessageDigest.getInstance
+ * does a provider lookup on every call, so each thread keeps one digest per algorithm and resets
+ * it between uses. That makes a hasher safe to share, e.g. across the workers of a parallel tree
+ * build, as long as a thread finishes one hash before starting the next.
+ */
+public final class ObjectHasher {
+    public static final ObjectHasher SHA1 = new ObjectHasher("sha1", "SHA-1", ObjectId.SHA1_LENGTH);
+    public static final ObjectHasher SHA256 = new ObjectHasher("sha256", "SHA-256", ObjectId.SHA256_LENGTH);
+
+    /** How much of a file is mapped at once when hashing it in place. */
+    static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[ObjectStore.BUFFER_SIZE]);
+
+    private final String name;
+    private final String algorithm;
+    private final int idLength;
+    private final ThreadLocal<MessageDigest> digests;
+
+    private ObjectHasher(String name, String algorithm, int idLength) {
+        this.name = name;
+        this.algorithm = algorithm;
+        this.idLength = idLength;
+        this.digests = ThreadLocal.withInitial(this::newDigest);
+    }
+
+    /** Parses the config spelling: {@code sha1} or {@code sha256}. */
+    public static ObjectHasher forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "sha1":
+                return SHA1;
+            case "sha256":
+                return SHA256;
+            default:
+                throw new IllegalArgumentException("ObjectHasher: unknown object format \"" + name + "\"");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Raw id length in bytes; hex ids are twice as long. */
+    public int getIdLength() {
+        return idLength;
+    }
+
+    /**
+     * This thread's digest, reset and ready for input. It is shared with every other use on the
+     * thread, so call {@code digest()} on it before hashing anything else.
+     */
+    public MessageDigest digest() {
+        MessageDigest d = digests.get();
+        d.reset();
+        return d;
+    }
+
+    public ObjectId hash(byte[] content) {
+        return hash(content, 0, content.length);
+    }
+
+    public ObjectId hash(byte[] content, int off, int len) {
+        MessageDigest d = digest();
+        d.update(content, off, len);
+        return ObjectId.fromBytes(d.digest());
+    }
+
+    /** Hashes the buffer's remaining bytes, leaving its position at the limit. */
+    public ObjectId hash(ByteBuffer content) {
+        MessageDigest d = digest();
+        d.update(content);
+        return ObjectId.fromBytes(d.digest());
+    }
+
+    /** Hashes everything left in the stream. Does not close it. */
+    public ObjectId hash(InputStream in) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        MessageDigest d = digest();
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            d.update(buffer, 0, n);
+        }
+        return ObjectId.fromBytes(d.digest());
+    }
+
+    /** Hashes the channel from its current position to the end. Does not close it. */
+    public ObjectId hash(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(BUFFERS.get());
+        MessageDigest d = digest();
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            d.update(buffer);
+            buffer.clear();
+        }
+        return ObjectId.fromBytes(d.digest());
+    }
+
+    /**
+     * Hashes the whole file behind the channel by mapping it {@link #MAP_WINDOW} bytes at a time,
+     * so the content goes from the page cache to the digest without a heap copy. Unlike a single
+     * mapping or a byte[], this has no 2 GB limit.
+     */
+    public ObjectId hashMapped(FileChannel channel) throws IOException {
+        MessageDigest d = digest();
+        long size = channel.size();
+        for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+            d.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos)));
+        }
+        return ObjectId.fromBytes(d.digest());
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /** A digest of its own, for hashing that has to interleave with other hashing on the thread. */
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to provide SHA-1 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
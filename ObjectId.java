@@ -0,0 +1,299 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An object id held as ints instead of a hex String, so an id costs one small object with no
+ * backing array: five words for a 20-byte SHA-1 id, eight for a 32-byte SHA-256 one (a private
+ * subclass, so SHA-1 ids pay nothing for it). Ordering is unsigned byte order, the same order as
+ * the hex form. Hex conversion is table driven and allocates only the resulting String (or
+ * nothing, decoding).
+ */
+public class ObjectId implements Comparable<ObjectId> {
+    public static final int SHA1_LENGTH = 20;
+    public static final int SHA256_LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            DECODE[HEX[i]] = (byte) i;
+            DECODE[Character.toUpperCase(HEX[i])] = (byte) i;
+        }
+    }
+
+    private final int w0;
+    private final int w1;
+    private final int w2;
+    private final int w3;
+    private final int w4;
+
+    private ObjectId(int w0, int w1, int w2, int w3, int w4) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.w4 = w4;
+    }
+
+    /** A SHA-256 id: the first five words live in the base class, the last three here. */
+    private static final class Wide extends ObjectId {
+        private final int w5;
+        private final int w6;
+        private final int w7;
+
+        Wide(int w0, int w1, int w2, int w3, int w4, int w5, int w6, int w7) {
+            super(w0, w1, w2, w3, w4);
+            this.w5 = w5;
+            this.w6 = w6;
+            this.w7 = w7;
+        }
+
+        @Override
+        public int length() {
+            return SHA256_LENGTH;
+        }
+
+        @Override
+        int word(int i) {
+            switch (i) {
+                case 5:
+                    return w5;
+                case 6:
+                    return w6;
+                case 7:
+                    return w7;
+                default:
+                    return super.word(i);
+            }
+        }
+    }
+
+    private static ObjectId of(int[] w) {
+        if (w.length == SHA1_LENGTH / 4) {
+            return new ObjectId(w[0], w[1], w[2], w[3], w[4]);
+        }
+        return new Wide(w[0], w[1], w[2], w[3], w[4], w[5], w[6], w[7]);
+    }
+
+    /** An id from a whole 20- or 32-byte digest. */
+    public static ObjectId fromBytes(byte[] raw) {
+        return fromBytes(raw, 0, raw.length);
+    }
+
+    public static ObjectId fromBytes(byte[] raw, int off, int length) {
+        checkLength(length);
+        if (raw.length - off < length) {
+            throw new IllegalArgumentException("ObjectId: need " + length + " bytes, got " + (raw.length - off));
+        }
+        if (length == SHA1_LENGTH) {
+            return new ObjectId(intAt(raw, off), intAt(raw, off + 4), intAt(raw, off + 8), intAt(raw, off + 12),
+                    intAt(raw, off + 16));
+        }
+        int[] w = new int[length / 4];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = intAt(raw, off + i * 4);
+        }
+        return of(w);
+    }
+
+    /** Reads an id at an absolute index without moving the buffer's position. */
+    public static ObjectId fromBuffer(ByteBuffer buf, int index, int length) {
+        checkLength(length);
+        if (length == SHA1_LENGTH) {
+            return new ObjectId(buf.getInt(index), buf.getInt(index + 4), buf.getInt(index + 8),
+                    buf.getInt(index + 12), buf.getInt(index + 16));
+        }
+        int[] w = new int[length / 4];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = buf.getInt(index + i * 4);
+        }
+        return of(w);
+    }
+
+    public static ObjectId fromHex(CharSequence hex) {
+        if (hex.length() != SHA1_LENGTH * 2 && hex.length() != SHA256_LENGTH * 2) {
+            throw new IllegalArgumentException("ObjectId: not a 40- or 64-character hash: " + hex);
+        }
+        if (hex.length() == SHA1_LENGTH * 2) {
+            return new ObjectId(hexInt(hex, 0), hexInt(hex, 8), hexInt(hex, 16), hexInt(hex, 24), hexInt(hex, 32));
+        }
+        int[] w = new int[hex.length() / 8];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = hexInt(hex, i * 8);
+        }
+        return of(w);
+    }
+
+    public static boolean isHex(CharSequence s) {
+        if (s.length() != SHA1_LENGTH * 2 && s.length() != SHA256_LENGTH * 2) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 128 || DECODE[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Length of the raw id in bytes: 20 for SHA-1, 32 for SHA-256. */
+    public int length() {
+        return SHA1_LENGTH;
+    }
+
+    int word(int i) {
+        switch (i) {
+            case 0:
+                return w0;
+            case 1:
+                return w1;
+            case 2:
+                return w2;
+            case 3:
+                return w3;
+            case 4:
+                return w4;
+            default:
+                throw new IndexOutOfBoundsException("ObjectId: word " + i);
+        }
+    }
+
+    public String toHex() {
+        int words = length() / 4;
+        char[] out = new char[words * 8];
+        for (int i = 0; i < words; i++) {
+            hexInto(word(i), out, i * 8);
+        }
+        return new String(out);
+    }
+
+    public byte[] toBytes() {
+        byte[] out = new byte[length()];
+        copyTo(out, 0);
+        return out;
+    }
+
+    public void copyTo(byte[] dst, int off) {
+        int words = length() / 4;
+        for (int i = 0; i < words; i++) {
+            putInt(dst, off + i * 4, word(i));
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        int words = length() / 4;
+        for (int i = 0; i < words; i++) {
+            out.writeInt(word(i));
+        }
+    }
+
+    /** The first byte of the id, 0-255: the fanout bucket in pack indexes. */
+    public int firstByte() {
+        return w0 >>> 24;
+    }
+
+    /** Compares with an id of the same length stored in a buffer, without materializing it. */
+    public int compareTo(ByteBuffer buf, int index) {
+        int c = Integer.compareUnsigned(w0, buf.getInt(index));
+        if (c != 0) {
+            return c;
+        }
+        int words = length() / 4;
+        for (int i = 1; i < words; i++) {
+            c = Integer.compareUnsigned(word(i), buf.getInt(index + i * 4));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int compareTo(ObjectId o) {
+        int c = Integer.compareUnsigned(w0, o.w0);
+        if (c != 0) {
+            return c;
+        }
+        int words = Math.min(length(), o.length()) / 4;
+        for (int i = 1; i < words; i++) {
+            c = Integer.compareUnsigned(word(i), o.word(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length(), o.length());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        if (w0 != other.w0 || w1 != other.w1 || w2 != other.w2 || w3 != other.w3 || w4 != other.w4) {
+            return false;
+        }
+        for (int i = 5; i < length() / 4; i++) {
+            if (word(i) != other.word(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // the bytes of a cryptographic hash are already uniformly distributed
+        return w1;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static void checkLength(int length) {
+        if (length != SHA1_LENGTH && length != SHA256_LENGTH) {
+            throw new IllegalArgumentException("ObjectId: ids are 20 or 32 bytes, not " + length);
+        }
+    }
+
+    private static int intAt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static int hexInt(CharSequence s, int off) {
+        int v = 0;
+        for (int i = off; i < off + 8; i++) {
+            char c = s.charAt(i);
+            int d = c < 128 ? DECODE[c] : -1;
+            if (d < 0) {
+                throw new IllegalArgumentException("ObjectId: bad hex character '" + c + "' in " + s);
+            }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    private static void hexInto(int v, char[] out, int off) {
+        for (int i = 7; i >= 0; i--) {
+            out[off + i] = HEX[v & 0xf];
+            v >>>= 4;
+        }
+    }
+}
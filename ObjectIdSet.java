@@ -0,0 +1,116 @@
+/**
+ * A set of object ids kept as raw ints in open-addressed tables: 40 to 80 bytes per SHA-1 id (the
+ * id's own words at a load factor between 1/4 and 1/2) and no objects per entry, instead of about
+ * 70 bytes over two objects (the id and its map node) in a {@code HashSet<ObjectId>}. Ids added are
+ * not retained, so marking millions of objects leaves nothing behind for the JVM's collector to trace.
+ *
+ * Ids are spread over 256 stripes by their first byte, each with its own lock and table, so many
+ * threads can add at once with little contention. Ids are already uniformly distributed, so their
+ * bits are used as the hash directly.
+ */
+public class ObjectIdSet {
+    private static final int STRIPES = 256;
+
+    private final int words;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /** A set for ids of {@code idLength} bytes (see {@link ObjectHasher#getIdLength}). */
+    public ObjectIdSet(int idLength) {
+        this.words = idLength / 4;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /** Adds {@code id}; true if it was not already in the set. Safe to call from many threads. */
+    public boolean add(ObjectId id) {
+        return stripes[id.firstByte()].add(id);
+    }
+
+    public boolean contains(ObjectId id) {
+        return stripes[id.firstByte()].contains(id);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe s : stripes) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    private final class Stripe {
+        private int[] table = new int[16 * words];
+        private long[] used = new long[1];
+        private int mask = 15;
+        private int size;
+
+        synchronized boolean add(ObjectId id) {
+            int slot = find(id);
+            if (isUsed(slot)) {
+                return false;
+            }
+            for (int i = 0; i < words; i++) {
+                table[slot * words + i] = id.word(i);
+            }
+            used[slot >>> 6] |= 1L << slot;
+            if (++size * 2 > mask + 1) {
+                grow();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(ObjectId id) {
+            return isUsed(find(id));
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /** The slot holding {@code id}, or the free slot where it would go. */
+        private int find(ObjectId id) {
+            // the first byte picked the stripe; the second word is independent of it
+            int slot = id.word(1) & mask;
+            while (isUsed(slot) && !matches(slot, id)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private boolean matches(int slot, ObjectId id) {
+            int base = slot * words;
+            for (int i = 0; i < words; i++) {
+                if (table[base + i] != id.word(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isUsed(int slot) {
+            return (used[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private void grow() {
+            int[] oldTable = table;
+            long[] oldUsed = used;
+            int oldCapacity = mask + 1;
+            mask = oldCapacity * 2 - 1;
+            table = new int[(mask + 1) * words];
+            used = new long[Math.max(1, (mask + 1) >>> 6)];
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                if ((oldUsed[slot >>> 6] & (1L << slot)) == 0) {
+                    continue;
+                }
+                int base = slot * words;
+                int to = oldTable[base + 1] & mask;
+                while (isUsed(to)) {
+                    to = (to + 1) & mask;
+                }
+                System.arraycopy(oldTable, base, table, to * words, words);
+                used[to >>> 6] |= 1L << to;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads objects through a cache of parsed trees and small blobs, so walking the same trees again
+ * (checkout, diff, status) costs map lookups instead of file reads, inflation and parsing.
+ *
+ * The cache is least-recently-used and bounded by an estimate of the heap its entries hold, not by
+ * their count: one huge tree can't be cached at the price of thousands of small ones without the
+ * budget accounting for it. Blobs above {@link #getMaxBlobSize()} are read straight through and
+ * never cached. Objects never change once written, so nothing needs invalidating.
+ *
+ * Safe to share between threads. What it returns is shared with the cache: do not modify it.
+ */
+public class ObjectReader {
+    static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+    static final int DEFAULT_MAX_BLOB_SIZE = 256 * 1024;
+    /** Rough heap cost of a cache entry beyond its content: map node, key id and holder. */
+    private static final int ENTRY_OVERHEAD = 96;
+    /** Rough heap cost of one parsed tree entry beyond its name: GitObject, id and String headers. */
+    private static final int TREE_ENTRY_OVERHEAD = 112;
+
+    private final ObjectStore store;
+    private final long capacity;
+    private int maxBlobSize = DEFAULT_MAX_BLOB_SIZE;
+    private final LinkedHashMap<ObjectId, Cached> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ObjectReader(ObjectStore store) {
+        this(store, DEFAULT_CAPACITY);
+    }
+
+    /** A reader whose cache holds roughly {@code capacity} bytes of heap at most. */
+    public ObjectReader(ObjectStore store, long capacity) {
+        this.store = store;
+        this.capacity = capacity;
+    }
+
+    public ObjectStore getStore() {
+        return store;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxBlobSize() {
+        return maxBlobSize;
+    }
+
+    public ObjectReader setMaxBlobSize(int maxBlobSize) {
+        this.maxBlobSize = maxBlobSize;
+        return this;
+    }
+
+    /** An object's content; blobs up to the size limit are cached. Do not modify the array. */
+    public byte[] read(ObjectId id) throws IOException {
+        Cached cached = lookup(id, false);
+        if (cached != null) {
+            return cached.content;
+        }
+        byte[] content = store.read(id);
+        if (content.length <= maxBlobSize) {
+            insert(id, new Cached(content, null, ENTRY_OVERHEAD + 16L + content.length));
+        }
+        return content;
+    }
+
+    /** A tree's entries in name order, parsed once and cached. Do not modify them. */
+    public List<GitObject> readTree(ObjectId id) throws IOException {
+        Cached cached = lookup(id, true);
+        if (cached != null) {
+            return cached.tree;
+        }
+        byte[] content = store.read(id);
+        List<GitObject> tree = Collections.unmodifiableList(Tree.parse(content));
+        // the text is UTF-8, mostly ASCII; Strings hold ASCII one byte per char
+        long weight = ENTRY_OVERHEAD + content.length + (long) tree.size() * TREE_ENTRY_OVERHEAD;
+        insert(id, new Cached(null, tree, weight));
+        return tree;
+    }
+
+    /** The cached entry if it holds the form asked for (parsed tree or raw content), counting the outcome. */
+    private synchronized Cached lookup(ObjectId id, boolean tree) {
+        Cached cached = cache.get(id);
+        if (cached != null && (cached.tree != null) == tree) {
+            hits++;
+            return cached;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void insert(ObjectId id, Cached entry) {
+        if (entry.weight > capacity) {
+            return;
+        }
+        Cached old = cache.put(id, entry);
+        weight += entry.weight - (old == null ? 0 : old.weight);
+        Iterator<Map.Entry<ObjectId, Cached>> eldest = cache.entrySet().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            Map.Entry<ObjectId, Cached> e = eldest.next();
+            if (e.getValue() == entry) {
+                continue;
+            }
+            weight -= e.getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Estimated heap held by the cache, in bytes. */
+    public synchronized long getCachedBytes() {
+        return weight;
+    }
+
+    public synchronized int getCachedObjects() {
+        return cache.size();
+    }
+
+    /** Empties the cache; the counters keep running. */
+    public synchronized void clear() {
+        cache.clear();
+        weight = 0;
+    }
+
+    /** A cached object: raw content for blobs, parsed entries for trees. */
+    private static class Cached {
+        final byte[] content;
+        final List<GitObject> tree;
+        final long weight;
+
+        Cached(byte[] content, List<GitObject> tree, long weight) {
+            this.content = content;
+            this.tree = tree;
+            this.weight = weight;
+        }
+    }
+}
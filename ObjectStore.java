@@ -0,0 +1,611 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loose objects under {@code git/objects}, each in a fanout directory named for the first two hex
+ * digits of its id ({@code objects/ab/cdef...}). Content is hashed and encoded in the same streaming
+ * pass, staged in a temp file and renamed into place, so a reader never sees a partial object.
+ * Objects that have been repacked are served from the packs in {@code git/objects/pack}.
+ *
+ * Safe to share between threads, and between processes sharing the directory: every writer has
+ * its own temp file, and two writers racing on the same object rename identical content over
+ * each other. Ids seen to exist are remembered in a concurrent map, so looking up or storing again
+ * an object this store already knows about costs no filesystem call. An object deleted behind the
+ * store's back must be {@link #forget forgotten}, as gc does, or the store reopened.
+ */
+public class ObjectStore {
+    static final int BUFFER_SIZE = 64 * 1024;
+    /** The known-id map is dropped and starts over past this size, bounding its memory. */
+    static final int KNOWN_LIMIT = 1 << 20;
+    /**
+     * How long a loose object's refreshed modification time is trusted before storing it again
+     * touches the file anew; well inside gc's {@link GarbageCollector#DEFAULT_GRACE_PERIOD}.
+     */
+    static final long REFRESH_MILLIS = Duration.ofDays(1).toMillis();
+    /** Remembered for an id seen to exist whose modification time this store hasn't set. */
+    private static final long NOT_REFRESHED = Long.MIN_VALUE;
+
+    private final Path objectsDir;
+    private final ObjectCodec codec;
+    private final ObjectHasher hasher;
+    private long bigFileThreshold = GitConfig.parseSize(GitConfig.DEFAULT_BIG_FILE_THRESHOLD);
+    private NormalizingInputStream.Mode normalization = NormalizingInputStream.Mode.AUTO;
+    private long chunkThreshold;
+    private volatile List<PackFile> packs;
+    private final ConcurrentHashMap<ObjectId, Long> known = new ConcurrentHashMap<>();
+    private final Path[] fanoutDirs = new Path[256];
+
+    public ObjectStore(Path objectsDir, ObjectCodec codec) {
+        this(objectsDir, codec, ObjectHasher.SHA1);
+    }
+
+    public ObjectStore(Path objectsDir, ObjectCodec codec, ObjectHasher hasher) {
+        this.objectsDir = objectsDir;
+        this.codec = codec;
+        this.hasher = hasher;
+    }
+
+    public Path getObjectsDir() {
+        return objectsDir;
+    }
+
+    public ObjectCodec getCodec() {
+        return codec;
+    }
+
+    public ObjectHasher getHasher() {
+        return hasher;
+    }
+
+    public long getBigFileThreshold() {
+        return bigFileThreshold;
+    }
+
+    public ObjectStore setBigFileThreshold(long bigFileThreshold) {
+        this.bigFileThreshold = bigFileThreshold;
+        return this;
+    }
+
+    /** Blobs of at least this many bytes are stored in chunks; 0 means never. */
+    public long getChunkThreshold() {
+        return chunkThreshold;
+    }
+
+    public ObjectStore setChunkThreshold(long chunkThreshold) {
+        this.chunkThreshold = chunkThreshold;
+        return this;
+    }
+
+    public NormalizingInputStream.Mode getNormalization() {
+        return normalization;
+    }
+
+    public ObjectStore setNormalization(NormalizingInputStream.Mode normalization) {
+        this.normalization = normalization;
+        return this;
+    }
+
+    /**
+     * Where a loose object lives: a directory named for the id's first two hex digits, then a file
+     * named for the rest, so no directory holds more than 1/256 of the objects.
+     */
+    public Path path(ObjectId id) {
+        return fanoutDir(id.firstByte()).resolve(id.toHex().substring(2));
+    }
+
+    /** Where a loose object lived before the fanout layout; see {@link FanoutMigration}. */
+    Path flatPath(ObjectId id) {
+        return objectsDir.resolve(id.toHex());
+    }
+
+    /**
+     * The content of a flat object file. The flat layout holds two formats: objects this store
+     * wrote before the fanout layout carry a codec tag like any other, while those from before the
+     * store existed are the file's bytes as they were, untagged and uncompressed, and named by the
+     * hash of that content normalized. Which one hashes to the name tells them apart.
+     */
+    byte[] readFlat(ObjectId id) throws IOException {
+        byte[] file = Files.readAllBytes(flatPath(id));
+        byte[] content = decodeTagged(id, file);
+        if (content == null) {
+            content = decodeLegacy(id, file);
+        }
+        if (content == null) {
+            throw new IOException("ObjectStore: flat object " + id + " does not hash to its name");
+        }
+        return content;
+    }
+
+    /** The content of a tagged object file, or null if it isn't one whose content hashes to {@code id}. */
+    byte[] decodeTagged(ObjectId id, byte[] file) {
+        if (file.length == 0 || (file[0] != ObjectCodec.TAG_NONE && file[0] != ObjectCodec.TAG_DEFLATE)) {
+            return null;
+        }
+        InputStream encoded = new ByteArrayInputStream(file, 1, file.length - 1);
+        try (InputStream in = ObjectCodec.forTag(file[0]).decode(encoded)) {
+            byte[] content = in.readAllBytes();
+            return hasher.hash(content).equals(id) ? content : null;
+        } catch (IOException e) {
+            // not deflate data after all
+            return null;
+        }
+    }
+
+    /** The content of an untagged object from before the store, or null if the file isn't one. */
+    byte[] decodeLegacy(ObjectId id, byte[] file) throws IOException {
+        // hashFile always normalized, but the file was stored as it was read
+        byte[] content = new NormalizingInputStream(new ByteArrayInputStream(file)).readAllBytes();
+        return hasher.hash(content).equals(id) ? content : null;
+    }
+
+    Path fanoutDir(int firstByte) {
+        Path dir = fanoutDirs[firstByte];
+        if (dir == null) {
+            dir = objectsDir.resolve(String.format("%02x", firstByte));
+            fanoutDirs[firstByte] = dir;
+        }
+        return dir;
+    }
+
+    public boolean exists(ObjectId id) {
+        if (known.containsKey(id)) {
+            return true;
+        }
+        // packs first: a lookup there is a memory probe, a loose check is a syscall
+        if (isPacked(id) || Files.exists(path(id))) {
+            remember(id, NOT_REFRESHED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a write of {@code id} can be skipped: it is, without a filesystem call, for an object
+     * this store wrote or refreshed within {@link #REFRESH_MILLIS}.
+     *
+     * Otherwise a loose copy has its modification time set to now, as storing it afresh would have.
+     * gc only removes unreachable objects older than its grace period, so an old object that is
+     * about to be referenced again must not look old. A copy whose time can't be set (another
+     * user's file, say) is written over instead, which leaves a new file in its place.
+     */
+    private boolean isStored(ObjectId id) {
+        long now = System.currentTimeMillis();
+        Long refreshed = known.get(id);
+        if (refreshed != null && now - refreshed < REFRESH_MILLIS) {
+            return true;
+        }
+        try {
+            Files.setLastModifiedTime(path(id), FileTime.fromMillis(now));
+            remember(id, now);
+            return true;
+        } catch (NoSuchFileException e) {
+            known.remove(id);
+        } catch (IOException e) {
+            return false;
+        }
+        if (isPacked(id)) {
+            remember(id, now);
+            return true;
+        }
+        return false;
+    }
+
+    /** Notes that {@code id} exists, its loose copy's time last set at {@code refreshed}. */
+    private void remember(ObjectId id, long refreshed) {
+        // objects are immutable once written, so a remembered id stays true until something deletes it
+        if (known.size() >= KNOWN_LIMIT) {
+            known.clear();
+        }
+        known.merge(id, refreshed, Math::max);
+    }
+
+    public boolean isPacked(ObjectId id) throws UncheckedIOException {
+        for (PackFile pack : getPacks()) {
+            if (pack.has(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<PackFile> getPacks() throws UncheckedIOException {
+        List<PackFile> current = packs;
+        if (current == null) {
+            try {
+                current = reloadPacks();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return current;
+    }
+
+    /** Re-scans {@code objects/pack}; call after packs are added or removed. */
+    public synchronized List<PackFile> reloadPacks() throws IOException {
+        List<PackFile> found = new ArrayList<>();
+        Path packDir = objectsDir.resolve("pack");
+        if (Files.isDirectory(packDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(packDir, "pack-*.idx")) {
+                for (Path idx : stream) {
+                    found.add(PackFile.open(idx));
+                }
+            }
+        }
+        packs = Collections.unmodifiableList(found);
+        return packs;
+    }
+
+    /** Ids of every loose object currently on disk, found by listing each fanout directory. */
+    public List<ObjectId> listLoose() throws IOException {
+        List<ObjectId> ids = new ArrayList<>();
+        for (int b = 0; b < 256; b++) {
+            Path dir = fanoutDir(b);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            String prefix = dir.getFileName().toString();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path p : stream) {
+                    // temp files are never named like an id, so a name check is enough
+                    String name = prefix + p.getFileName();
+                    if (ObjectId.isHex(name)) {
+                        ids.add(ObjectId.fromHex(name));
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Stores everything readable from {@code content} and returns its id. Does not close the stream. */
+    public ObjectId write(InputStream content) throws IOException {
+        MessageDigest mDigest = hasher.digest();
+        Path temp = Files.createTempFile(objectsDir, "tmp_obj_", null);
+        try {
+            try (OutputStream raw = Files.newOutputStream(temp)) {
+                raw.write(codec.tag());
+                try (OutputStream out = codec.encode(raw)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = content.read(buffer)) != -1) {
+                        mDigest.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                    }
+                }
+            }
+            ObjectId id = ObjectId.fromBytes(mDigest.digest());
+            if (isStored(id)) {
+                Files.delete(temp);
+            } else {
+                moveIntoFanout(temp, id);
+                remember(id, System.currentTimeMillis());
+            }
+            return id;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Stores a working-tree file as a blob. Text is normalized on the way through (see
+     * {@link NormalizingInputStream#forBlob}); binary content is stored byte for byte. Files of at
+     * least {@link #getBigFileThreshold()} bytes always count as binary, the way git treats big
+     * files, so they can be hashed straight from a mapping.
+     */
+    public ObjectId writeBlob(Path file) throws IOException {
+        long size = Files.size(file);
+        try (InputStream in = Files.newInputStream(file)) {
+            InputStream content = size >= bigFileThreshold ? in : NormalizingInputStream.forBlob(in, normalization);
+            if (chunkThreshold > 0 && size >= chunkThreshold) {
+                return writeChunked(content);
+            }
+            return write(content);
+        }
+    }
+
+    /**
+     * Stores {@code content} as content-defined chunks (see {@link Chunker}), each an object of its
+     * own that is only written if no earlier blob had it, plus a manifest stored under the id of the
+     * whole content. A one-byte edit to a huge file then costs a chunk or two, not the whole file
+     * again. Reading the id gives back the whole content. Does not close the stream.
+     */
+    public ObjectId writeChunked(InputStream content) throws IOException {
+        // not the thread's shared digest: storing each chunk hashes it in between
+        MessageDigest mDigest = hasher.newDigest();
+        List<ObjectId> ids = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        Chunker chunker = new Chunker(content);
+        byte[] chunk;
+        while ((chunk = chunker.next()) != null) {
+            mDigest.update(chunk);
+            ids.add(write(chunk));
+            sizes.add((long) chunk.length);
+        }
+        ObjectId id = ObjectId.fromBytes(mDigest.digest());
+        if (isStored(id)) {
+            return id;
+        }
+        // recorded before the manifest appears: gc must never see a manifest it doesn't know about
+        recordChunked(id);
+        Path temp = Files.createTempFile(objectsDir, "tmp_obj_", null);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(ObjectCodec.TAG_CHUNKED);
+                out.write(new ChunkManifest(ids, sizes).format());
+            }
+            moveIntoFanout(temp, id);
+            remember(id, System.currentTimeMillis());
+            return id;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Where the ids of chunked blobs are recorded, one hex id per line, so finding the manifests
+     * among the loose objects costs one read instead of opening every blob. Lines are appended
+     * whole, each in one write, so writers in other processes never interleave within a line.
+     */
+    Path chunkedRecord() {
+        return objectsDir.resolve("info").resolve("chunked");
+    }
+
+    private void recordChunked(ObjectId id) throws IOException {
+        byte[] line = (id.toHex() + "\n").getBytes(StandardCharsets.US_ASCII);
+        try {
+            Files.write(chunkedRecord(), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (NoSuchFileException e) {
+            Files.createDirectories(chunkedRecord().getParent());
+            Files.write(chunkedRecord(), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Every blob ever stored in chunks in this directory; some may have been deleted since. Null
+     * if nothing is recorded, which with chunking off means nothing was ever chunked.
+     */
+    public Set<ObjectId> chunkedIds() throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(chunkedRecord(), StandardCharsets.US_ASCII);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        Set<ObjectId> ids = new HashSet<>();
+        for (String line : lines) {
+            // skips anything that isn't a whole id, such as a blank line someone added by hand
+            if (line.length() == hasher.getIdLength() * 2 && ObjectId.isHex(line)) {
+                ids.add(ObjectId.fromHex(line));
+            }
+        }
+        return ids;
+    }
+
+    /** True if {@code id} is a loose blob stored in chunks; its file then holds only the manifest. */
+    public boolean isChunked(ObjectId id) throws IOException {
+        try (InputStream in = Files.newInputStream(path(id))) {
+            return in.read() == ObjectCodec.TAG_CHUNKED;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /** The chunks of a blob stored in chunks, or null if {@code id} is not one. */
+    public ChunkManifest manifest(ObjectId id) throws IOException {
+        try (InputStream in = Files.newInputStream(path(id))) {
+            if (in.read() != ObjectCodec.TAG_CHUNKED) {
+                return null;
+            }
+            return ChunkManifest.parse(in.readAllBytes());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Drops {@code id} from the ids remembered to exist, once its file has been deleted. */
+    public void forget(ObjectId id) {
+        known.remove(id);
+    }
+
+    /** The id {@link #writeBlob} would give the file, without storing anything. */
+    public ObjectId hashBlob(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (isBig(file)) {
+                return hasher.hashMapped(channel);
+            }
+            return hasher.hash(NormalizingInputStream.forBlob(Channels.newInputStream(channel), normalization));
+        }
+    }
+
+    private boolean isBig(Path file) throws IOException {
+        return Files.size(file) >= bigFileThreshold;
+    }
+
+    public ObjectId write(byte[] content) throws IOException {
+        // already in memory, so hash it up front: content we already have is never encoded again
+        ObjectId id = hasher.hash(content);
+        if (isStored(id)) {
+            return id;
+        }
+        return write(new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Opens an object for reading; decoding happens lazily as the stream is consumed. Objects still
+     * in the old flat layout are found too, in either of its formats, so a store can be read before
+     * it is migrated; those are read whole and checked against their name.
+     */
+    public InputStream open(ObjectId id) throws IOException {
+        InputStream in;
+        try {
+            in = Files.newInputStream(path(id));
+        } catch (NoSuchFileException e) {
+            for (PackFile pack : getPacks()) {
+                InputStream packed = pack.open(id);
+                if (packed != null) {
+                    return packed;
+                }
+            }
+            try {
+                return new ByteArrayInputStream(readFlat(id));
+            } catch (NoSuchFileException flat) {
+                throw new NoSuchFileException("object " + id);
+            }
+        }
+        int tag = in.read();
+        if (tag == -1) {
+            in.close();
+            throw new IOException("ObjectStore: object " + id + " is empty");
+        }
+        if (tag == ObjectCodec.TAG_CHUNKED) {
+            byte[] manifest;
+            try (InputStream m = in) {
+                manifest = m.readAllBytes();
+            }
+            return new ChunkedInputStream(ChunkManifest.parse(manifest).getIds());
+        }
+        return ObjectCodec.forTag(tag).decode(in);
+    }
+
+    public byte[] read(ObjectId id) throws IOException {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Writes an object's content to {@code target}, replacing whatever is there, and returns its
+     * length. A loose object stored without compression is copied channel to channel from just past
+     * its tag byte ({@link FileChannel#transferTo}), so its bytes never pass through the heap;
+     * anything else is decoded as it streams through.
+     */
+    public long copyTo(ObjectId id, Path target) throws IOException {
+        FileChannel source;
+        try {
+            source = FileChannel.open(path(id));
+        } catch (NoSuchFileException e) {
+            return copyDecoded(id, target);
+        }
+        try (FileChannel in = source) {
+            ByteBuffer tag = ByteBuffer.allocate(1);
+            if (in.read(tag, 0) != 1) {
+                throw new IOException("ObjectStore: object " + id + " is empty");
+            }
+            if (tag.get(0) != ObjectCodec.TAG_NONE) {
+                return copyDecoded(id, target);
+            }
+            long size = in.size() - 1;
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long done = 0; done < size; ) {
+                    long n = in.transferTo(1 + done, size - done, out);
+                    if (n <= 0) {
+                        // shorter than when its size was read: looping on would never finish
+                        throw new IOException("ObjectStore: object " + id + " is truncated");
+                    }
+                    done += n;
+                }
+            }
+            return size;
+        }
+    }
+
+    private long copyDecoded(ObjectId id, Path target) throws IOException {
+        try (InputStream in = open(id)) {
+            return Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Renames a finished temp file to the object's path, creating its fanout directory on first use. */
+    void moveIntoFanout(Path temp, ObjectId id) throws IOException {
+        Path target = path(id);
+        try {
+            moveIntoPlace(temp, target);
+        } catch (NoSuchFileException e) {
+            // the only missing piece can be the fanout directory: checking for it first would
+            // cost every write a syscall to save 256 of them
+            Files.createDirectories(target.getParent());
+            moveIntoPlace(temp, target);
+        }
+    }
+
+    static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** A chunked blob's content: its chunks opened one after another, each only when reached. */
+    private class ChunkedInputStream extends InputStream {
+        private final List<ObjectId> chunks;
+        private int next;
+        private InputStream current;
+
+        ChunkedInputStream(List<ObjectId> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (current == null) {
+                    if (next == chunks.size()) {
+                        return -1;
+                    }
+                    current = open(chunks.get(next++));
+                }
+                int n = current.read(b, off, len);
+                if (n >= 0) {
+                    return n;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            next = chunks.size();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read side of a pack: a {@code .pack} file of concatenated objects and the {@code .idx} that maps
+ * object ids to offsets in it. Both are memory-mapped, so a lookup is a fanout-table jump plus a
+ * binary search over the sorted ids with no syscalls.
+ *
+ * Index layout: "PIDX", version, id length, object count, 256 cumulative fanout counts, the sorted
+ * ids, one 8-byte pack offset per id, then a SHA-1 of everything before it.
+ *
+ * Pack layout: "PACK", version, object count, then entries of
+ * {@code kind (1) | inflated payload size (8) | [base offset (8) if delta] | zlib payload}.
+ */
+public class PackFile {
+    static final byte[] PACK_MAGIC = { 'P', 'A', 'C', 'K' };
+    static final byte[] INDEX_MAGIC = { 'P', 'I', 'D', 'X' };
+    static final int VERSION = 1;
+    static final int PACK_HEADER_SIZE = 12;
+    static final int INDEX_HEADER_SIZE = 16;
+    static final byte KIND_FULL = 0;
+    static final byte KIND_DELTA = 1;
+    static final int MAX_DELTA_DEPTH = 10;
+
+    private final Path packPath;
+    private final Path indexPath;
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer index;
+    private final int idLength;
+    private final int count;
+    private final int[] fanout = new int[256];
+    private final int idsStart;
+    private final int offsetsStart;
+
+    private PackFile(Path indexPath, Path packPath, MappedByteBuffer index, MappedByteBuffer pack) throws IOException {
+        this.indexPath = indexPath;
+        this.packPath = packPath;
+        this.index = index;
+        this.pack = pack;
+        byte[] magic = new byte[4];
+        index.get(0, magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC) || index.getInt(4) != VERSION) {
+            throw new IOException("PackFile: " + indexPath + " is not a version " + VERSION + " pack index");
+        }
+        pack.get(0, magic);
+        if (!Arrays.equals(magic, PACK_MAGIC) || pack.getInt(4) != VERSION) {
+            throw new IOException("PackFile: " + packPath + " is not a version " + VERSION + " pack");
+        }
+        idLength = index.getInt(8);
+        count = index.getInt(12);
+        if (pack.getInt(8) != count) {
+            throw new IOException("PackFile: " + packPath + " and its index disagree on the object count");
+        }
+        for (int i = 0; i < 256; i++) {
+            fanout[i] = index.getInt(INDEX_HEADER_SIZE + i * 4);
+        }
+        idsStart = INDEX_HEADER_SIZE + 256 * 4;
+        offsetsStart = idsStart + count * idLength;
+    }
+
+    /** Maps a pack through its index file; the {@code .pack} is expected next to it. */
+    public static PackFile open(Path indexPath) throws IOException {
+        String name = indexPath.getFileName().toString();
+        Path packPath = indexPath.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".pack");
+        MappedByteBuffer index = map(indexPath);
+        verifyChecksum(indexPath, index);
+        return new PackFile(indexPath, packPath, index, map(packPath));
+    }
+
+    public Path getPackPath() {
+        return packPath;
+    }
+
+    public Path getIndexPath() {
+        return indexPath;
+    }
+
+    public int getObjectCount() {
+        return count;
+    }
+
+    public boolean has(ObjectId id) {
+        return findOffset(id) >= 0;
+    }
+
+    /** Pack offset of the object, or -1 if this pack does not contain it. */
+    public long findOffset(ObjectId id) {
+        if (id.length() != idLength) {
+            return -1;
+        }
+        int first = id.firstByte();
+        int lo = first == 0 ? 0 : fanout[first - 1];
+        int hi = fanout[first] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = id.compareTo(index, idsStart + mid * idLength);
+            if (cmp > 0) {
+                lo = mid + 1;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                return index.getLong(offsetsStart + mid * 8);
+            }
+        }
+        return -1;
+    }
+
+    /** Every object id in this pack, in sorted order. */
+    public List<ObjectId> ids() {
+        List<ObjectId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(ObjectId.fromBuffer(index, idsStart + i * idLength, idLength));
+        }
+        return ids;
+    }
+
+    /** The object's content, or null if this pack does not contain it. */
+    public byte[] read(ObjectId id) throws IOException {
+        long offset = findOffset(id);
+        return offset < 0 ? null : readAt(offset, 0);
+    }
+
+    /**
+     * Streams the object straight out of the mapping when it is stored whole; deltas have to be
+     * resolved against their base first, so those come back fully materialized.
+     */
+    public InputStream open(ObjectId id) throws IOException {
+        long offset = findOffset(id);
+        if (offset < 0) {
+            return null;
+        }
+        int pos = (int) offset;
+        if (pack.get(pos) == KIND_FULL) {
+            return new InflatingStream(pack.slice(pos + 9, pack.limit() - pos - 9));
+        }
+        return new ByteArrayInputStream(readAt(offset, 0));
+    }
+
+    private byte[] readAt(long offset, int depth) throws IOException {
+        if (depth > MAX_DELTA_DEPTH) {
+            throw new IOException("PackFile: delta chain too deep at offset " + offset + " in " + packPath);
+        }
+        int pos = (int) offset;
+        byte kind = pack.get(pos);
+        long size = pack.getLong(pos + 1);
+        if (kind == KIND_FULL) {
+            return inflate(pos + 9, size);
+        } else if (kind == KIND_DELTA) {
+            long baseOffset = pack.getLong(pos + 9);
+            byte[] base = readAt(baseOffset, depth + 1);
+            return Delta.apply(base, inflate(pos + 17, size));
+        }
+        throw new IOException("PackFile: unknown entry kind " + kind + " at offset " + offset + " in " + packPath);
+    }
+
+    private byte[] inflate(int start, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("PackFile: object at " + start + " is too large to read into memory; use open()");
+        }
+        byte[] out = new byte[(int) size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(pack.slice(start, pack.limit() - start));
+            int n = 0;
+            while (n < out.length) {
+                int r = inflater.inflate(out, n, out.length - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += r;
+            }
+            if (n != out.length) {
+                throw new IOException("PackFile: truncated entry at " + start + " in " + packPath);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("PackFile: corrupt entry at " + start + " in " + packPath, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("PackFile: " + path + " is larger than 2 GB");
+            }
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    private static void verifyChecksum(Path indexPath, MappedByteBuffer index) throws IOException {
+        int bodyLength = index.limit() - 20;
+        if (bodyLength < INDEX_HEADER_SIZE + 256 * 4) {
+            throw new IOException("PackFile: " + indexPath + " is truncated");
+        }
+        MessageDigest mDigest = ObjectHasher.SHA1.digest();
+        mDigest.update(index.slice(0, bodyLength));
+        byte[] expected = new byte[20];
+        index.get(bodyLength, expected);
+        if (!Arrays.equals(mDigest.digest(), expected)) {
+            throw new IOException("PackFile: checksum mismatch in " + indexPath);
+        }
+    }
+
+    /** Inflates a pack entry lazily, straight from the mapped buffer. */
+    private static class InflatingStream extends InputStream {
+        private final Inflater inflater = new Inflater();
+
+        InflatingStream(ByteBuffer data) {
+            inflater.setInput(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    int n = inflater.inflate(b, off, len);
+                    if (n > 0) {
+                        return n;
+                    }
+                    if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IOException("PackFile: truncated pack entry");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("PackFile: corrupt pack entry", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Folds loose objects into packs (see {@link PackFile} for the layout). Objects are visited
+ * largest first and each one is tried as a delta against the last few objects written, the same
+ * sliding-window heuristic real git uses; a delta is kept only if it is under half the object's size.
+ */
+public class PackWriter {
+    static final int WINDOW = 10;
+    static final int HEAD_BYTES = 32;
+    static final long DELTA_SIZE_LIMIT = 4L * 1024 * 1024;
+    static final long BIG_OBJECT_THRESHOLD = 512L * 1024 * 1024;
+    static final long PACK_SIZE_LIMIT = 1024L * 1024 * 1024;
+
+    private final ObjectStore store;
+    private final int level;
+    private boolean useDeltas = true;
+
+    private int objectsPacked;
+    private int deltasWritten;
+    private final List<Path> packsWritten = new ArrayList<>();
+
+    public PackWriter(ObjectStore store) {
+        this.store = store;
+        this.level = store.getCodec().deflateLevel();
+    }
+
+    public PackWriter setDeltas(boolean useDeltas) {
+        this.useDeltas = useDeltas;
+        return this;
+    }
+
+    public int getObjectsPacked() {
+        return objectsPacked;
+    }
+
+    public int getDeltasWritten() {
+        return deltasWritten;
+    }
+
+    public List<Path> getPacksWritten() {
+        return packsWritten;
+    }
+
+    /**
+     * Packs every loose object (except ones above {@link #BIG_OBJECT_THRESHOLD} and chunked blobs'
+     * manifests, which stay loose) and deletes the loose copies once the new packs are in place.
+     */
+    public List<Path> repack() throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        List<ObjectId> alreadyPacked = new ArrayList<>();
+        for (ObjectId id : store.listLoose()) {
+            if (store.isPacked(id)) {
+                alreadyPacked.add(id);
+                continue;
+            }
+            long size = Files.size(store.path(id));
+            // a chunked blob's file is only its manifest; its chunks get packed on their own
+            if (size <= BIG_OBJECT_THRESHOLD && !store.isChunked(id)) {
+                candidates.add(new Candidate(id, size, headHash(id)));
+            }
+        }
+        // we have no path names to group revisions of a file the way real git does, so group by
+        // the first bytes of content instead, largest first so smaller revisions delta against it
+        candidates.sort(Comparator.comparingInt((Candidate c) -> c.headHash)
+                .thenComparing(Comparator.comparingLong((Candidate c) -> c.size).reversed()));
+
+        Path packDir = Files.createDirectories(store.getObjectsDir().resolve("pack"));
+        List<ObjectId> packed = new ArrayList<>();
+        Pack current = null;
+        for (Candidate c : candidates) {
+            if (current == null) {
+                current = new Pack(packDir);
+            }
+            current.add(c);
+            packed.add(c.id);
+            if (current.channel.position() >= PACK_SIZE_LIMIT) {
+                current.finish();
+                current = null;
+            }
+        }
+        if (current != null) {
+            current.finish();
+        }
+
+        store.reloadPacks();
+        for (ObjectId id : packed) {
+            Files.deleteIfExists(store.path(id));
+        }
+        for (ObjectId id : alreadyPacked) {
+            Files.deleteIfExists(store.path(id));
+        }
+        return packsWritten;
+    }
+
+    private int headHash(ObjectId id) throws IOException {
+        try (InputStream in = store.open(id)) {
+            return Arrays.hashCode(in.readNBytes(HEAD_BYTES));
+        }
+    }
+
+    private static class Candidate {
+        final ObjectId id;
+        final long size;
+        final int headHash;
+
+        Candidate(ObjectId id, long size, int headHash) {
+            this.id = id;
+            this.size = size;
+            this.headHash = headHash;
+        }
+    }
+
+    private static class Written {
+        final ObjectId id;
+        final long offset;
+        final int depth;
+        Delta.Index deltaIndex;
+
+        Written(ObjectId id, long offset, int depth) {
+            this.id = id;
+            this.offset = offset;
+            this.depth = depth;
+        }
+    }
+
+    /** One pack being written to a temp file; renamed to its content-derived name on finish. */
+    private class Pack {
+        final Path dir;
+        final Path temp;
+        final FileChannel channel;
+        final List<Written> entries = new ArrayList<>();
+        final ArrayDeque<Written> window = new ArrayDeque<>();
+        final Deflater deflater = new Deflater(level);
+
+        Pack(Path dir) throws IOException {
+            this.dir = dir;
+            this.temp = Files.createTempFile(dir, "tmp_pack_", null);
+            this.channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(PackFile.PACK_HEADER_SIZE);
+            header.put(PackFile.PACK_MAGIC).putInt(PackFile.VERSION).putInt(0).flip();
+            writeFully(header);
+        }
+
+        void add(Candidate c) throws IOException {
+            ObjectId id = c.id;
+            long offset = channel.position();
+            if (c.size > DELTA_SIZE_LIMIT) {
+                streamFull(id);
+                entries.add(new Written(id, offset, 0));
+                objectsPacked++;
+                return;
+            }
+            byte[] content = store.read(id);
+            Written base = null;
+            byte[] bestDelta = null;
+            if (useDeltas) {
+                for (Written w : window) {
+                    if (w.depth >= PackFile.MAX_DELTA_DEPTH) {
+                        continue;
+                    }
+                    int limit = bestDelta == null ? content.length / 2 : bestDelta.length;
+                    byte[] delta = w.deltaIndex.create(content, limit);
+                    if (delta != null) {
+                        bestDelta = delta;
+                        base = w;
+                    }
+                }
+            }
+            Written written;
+            if (bestDelta != null) {
+                ByteBuffer header = ByteBuffer.allocate(17);
+                header.put(PackFile.KIND_DELTA).putLong(bestDelta.length).putLong(base.offset).flip();
+                writeFully(header);
+                deflate(bestDelta);
+                written = new Written(id, offset, base.depth + 1);
+                deltasWritten++;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(9);
+                header.put(PackFile.KIND_FULL).putLong(content.length).flip();
+                writeFully(header);
+                deflate(content);
+                written = new Written(id, offset, 0);
+            }
+            entries.add(written);
+            objectsPacked++;
+            if (useDeltas) {
+                written.deltaIndex = new Delta.Index(content);
+                window.addLast(written);
+                if (window.size() > WINDOW) {
+                    // only the window needs content; drop it so a big repack stays bounded in memory
+                    window.removeFirst().deltaIndex = null;
+                }
+            }
+        }
+
+        private void streamFull(ObjectId id) throws IOException {
+            // too big to hold for delta search: stream it through, then patch in the size
+            long headerPos = channel.position();
+            ByteBuffer header = ByteBuffer.allocate(9);
+            header.put(PackFile.KIND_FULL).putLong(0).flip();
+            writeFully(header);
+            long size = 0;
+            deflater.reset();
+            try (InputStream in = store.open(id)) {
+                DeflaterOutputStream out = new DeflaterOutputStream(unclosable(), deflater, ObjectStore.BUFFER_SIZE);
+                byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    size += n;
+                }
+                out.finish();
+                out.flush();
+            }
+            ByteBuffer sizeBuf = ByteBuffer.allocate(8);
+            sizeBuf.putLong(size).flip();
+            channel.write(sizeBuf, headerPos + 1);
+        }
+
+        private void deflate(byte[] content) throws IOException {
+            deflater.reset();
+            DeflaterOutputStream out = new DeflaterOutputStream(unclosable(), deflater, ObjectStore.BUFFER_SIZE);
+            out.write(content);
+            out.finish();
+            out.flush();
+        }
+
+        private OutputStream unclosable() {
+            OutputStream raw = Channels.newOutputStream(channel);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    raw.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    raw.write(b, off, len);
+                }
+            };
+        }
+
+        private void writeFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+
+        void finish() throws IOException {
+            ByteBuffer countBuf = ByteBuffer.allocate(4);
+            countBuf.putInt(entries.size()).flip();
+            channel.write(countBuf, 8);
+            channel.force(true);
+            channel.close();
+            deflater.end();
+
+            entries.sort((a, b) -> a.id.compareTo(b.id));
+            MessageDigest nameDigest = ObjectHasher.SHA1.digest();
+            for (Written w : entries) {
+                nameDigest.update(w.id.toBytes());
+            }
+            String name = "pack-" + ObjectId.fromBytes(nameDigest.digest()).toHex();
+            Path packPath = dir.resolve(name + ".pack");
+            ObjectStore.moveIntoPlace(temp, packPath);
+
+            // the index goes in last: readers discover packs through their .idx files
+            Path tempIndex = Files.createTempFile(dir, "tmp_idx_", null);
+            Files.write(tempIndex, buildIndex());
+            ObjectStore.moveIntoPlace(tempIndex, dir.resolve(name + ".idx"));
+            packsWritten.add(packPath);
+        }
+
+        private byte[] buildIndex() throws IOException {
+            int idLength = store.getHasher().getIdLength();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    PackFile.INDEX_HEADER_SIZE + 256 * 4 + entries.size() * (idLength + 8) + 20);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(PackFile.INDEX_MAGIC);
+            out.writeInt(PackFile.VERSION);
+            out.writeInt(idLength);
+            out.writeInt(entries.size());
+            int[] fanout = new int[256];
+            for (Written w : entries) {
+                fanout[w.id.firstByte()]++;
+            }
+            int running = 0;
+            for (int i = 0; i < 256; i++) {
+                running += fanout[i];
+                out.writeInt(running);
+            }
+            for (Written w : entries) {
+                w.id.writeTo(out);
+            }
+            for (Written w : entries) {
+                out.writeLong(w.offset);
+            }
+            out.flush();
+            MessageDigest checksum = ObjectHasher.SHA1.digest();
+            checksum.update(bytes.toByteArray());
+            out.write(checksum.digest());
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A repository and its working tree, in any directory. The {@link Git} facade runs its operations
+ * through one of these on the current directory and prints what happens; here failures are thrown
+ * instead, so other callers (a benchmark, a tool working on several repositories) get the same
+ * steps without the printing or the current-directory assumption.
+ *
+ * The object store is opened from {@code git/config} on first use and kept; {@link #reopen} drops
+ * it after a settings change.
+ */
+public class Repository {
+    /** Told about each file {@link #updateIndex(List, Listener)} could not stage. */
+    public interface Listener {
+        /** Called in the caller's thread; throwing stops the update before the index is written. */
+        void skipped(Path file, Exception e) throws IOException;
+    }
+
+    private final Path worktree;
+    private final Path gitDir;
+    private ObjectStore store;
+
+    /** The repository in {@code worktree}/git. Nothing is read or created until it is used. */
+    public Repository(Path worktree) {
+        this.worktree = worktree;
+        this.gitDir = worktree.resolve("git");
+    }
+
+    public Path getWorktree() {
+        return worktree;
+    }
+
+    public Path getGitDir() {
+        return gitDir;
+    }
+
+    /** Creates {@code git/objects}, {@code git/index} and {@code git/HEAD} where missing. */
+    public void init() throws IOException {
+        Files.createDirectories(gitDir.resolve("objects"));
+        for (String name : new String[] { "index", "HEAD" }) {
+            if (!Files.exists(gitDir.resolve(name))) {
+                Files.createFile(gitDir.resolve(name));
+            }
+        }
+    }
+
+    public synchronized ObjectStore getObjectStore() throws IOException {
+        if (store == null) {
+            GitConfig config = GitConfig.load(gitDir);
+            store = new ObjectStore(gitDir.resolve("objects"), config.compression(), config.objectFormat())
+                    .setBigFileThreshold(config.bigFileThreshold()).setNormalization(config.normalization())
+                    .setChunkThreshold(config.chunkThreshold());
+        }
+        return store;
+    }
+
+    /** Drops the object store, so the next use opens it again with the current settings. */
+    public synchronized void reopen() {
+        store = null;
+    }
+
+    /** The blob id of {@code file}; nothing is stored. */
+    public ObjectId hashFile(Path file) throws IOException {
+        return getObjectStore().hashBlob(file);
+    }
+
+    /** Stores {@code file} as a blob in one streaming pass and returns its id. */
+    public ObjectId createBlob(Path file) throws IOException {
+        return getObjectStore().writeBlob(file);
+    }
+
+    /** As {@link #updateIndex(List, Listener)}, failing on the first file that can't be staged. */
+    public int updateIndex(List<Path> files) throws IOException {
+        return updateIndex(files, (file, e) -> {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw (RuntimeException) e;
+        });
+    }
+
+    /**
+     * Stores and stages each file whose size, mtime or inode differ from its index entry, and
+     * returns how many were staged. Files are hashed outside the index lock; the entries then go to
+     * the repository's {@link IndexBatcher}, which folds concurrent callers into one write. A file
+     * that can't be read, or lies outside the working tree, goes to {@code listener} and the rest
+     * are staged regardless.
+     */
+    public int updateIndex(List<Path> files, Listener listener) throws IOException {
+        IndexBatcher batcher = IndexBatcher.forRepo(gitDir);
+        GitIndex snapshot = batcher.snapshot();
+        ObjectStore store = getObjectStore();
+        List<GitIndex.Entry> staged = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                String path = GitIndex.relativePath(worktree, file);
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!snapshot.isUpToDate(path, attrs)) {
+                    staged.add(GitIndex.entryFor(path, store.writeBlob(file), attrs));
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                listener.skipped(file, e);
+            }
+        }
+        if (!staged.isEmpty()) {
+            batcher.update(index -> {
+                for (GitIndex.Entry e : staged) {
+                    index.add(e);
+                }
+            });
+        }
+        return staged.size();
+    }
+
+    /** Stores the trees (and blobs) of {@code dir}, siblings in parallel; see {@link TreeBuilder}. */
+    public ObjectId makeTree(Path dir) throws IOException {
+        return new TreeBuilder(getObjectStore()).build(dir);
+    }
+
+    /**
+     * Stores the trees of what is staged and returns the root's id. Directories the index has a
+     * cached tree for are not rebuilt, and the trees written are cached for next time.
+     */
+    public ObjectId createTreeFromIndex() throws IOException {
+        try (IndexLock lock = IndexLock.acquire(gitDir)) {
+            GitIndex index = lock.load();
+            IndexTreeBuilder builder = new IndexTreeBuilder(getObjectStore());
+            ObjectId root = builder.build(index);
+            if (builder.getTreesWritten() > 0) {
+                lock.commit(index);
+            }
+            return root;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the working tree with the index: which tracked files were modified or deleted, and which
+ * files are not tracked at all. Directories are walked as separate fork/join tasks. A file whose
+ * size, mtime and inode still match its entry is clean without being read. Only files whose stat
+ * data changed, or that are racily clean (see {@link GitIndex#isUpToDate}), are hashed, each as its
+ * own task. Hashing stores nothing.
+ *
+ * Changes go to the listener as they are found, from whichever worker found them, in no particular
+ * order; deletions come last, once the walk knows what it has seen.
+ */
+public class StatusWalker {
+    public enum Kind {
+        MODIFIED("M"), DELETED("D"), UNTRACKED("?");
+
+        private final String code;
+
+        Kind(String code) {
+            this.code = code;
+        }
+
+        /** The one-letter code {@code git status --short} style output uses. */
+        public String code() {
+            return code;
+        }
+    }
+
+    /** Receives changes as they are found. Called from many threads at once. */
+    @FunctionalInterface
+    public interface Listener {
+        void changed(Kind kind, String path);
+    }
+
+    private final ObjectStore store;
+    private final int parallelism;
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder filesHashed = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+
+    public StatusWalker(ObjectStore store, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("StatusWalker: parallelism must be at least 1");
+        }
+        this.store = store;
+        this.parallelism = parallelism;
+    }
+
+    public StatusWalker(ObjectStore store) {
+        this(store, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Files looked at by the last walk. */
+    public long getFilesScanned() {
+        return filesScanned.sum();
+    }
+
+    /** Files the last walk had to read and hash because their stat data was not conclusive. */
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    /** Changes the last walk reported. */
+    public long getChanges() {
+        return changes.sum();
+    }
+
+    /**
+     * Walks {@code worktree} against {@code index}, which is only read, skipping {@code gitDir}.
+     * Returns once every change has gone to the listener.
+     */
+    public void walk(Path worktree, Path gitDir, GitIndex index, Listener listener) throws IOException {
+        filesScanned.reset();
+        filesHashed.reset();
+        changes.reset();
+        Walk walk = new Walk(gitDir.toAbsolutePath().normalize(), index, listener);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(walk.new DirTask(worktree.toAbsolutePath().normalize(), ""));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        for (GitIndex.Entry e : index.entries()) {
+            if (!walk.seen.contains(e.getPath())) {
+                walk.report(Kind.DELETED, e.getPath());
+            }
+        }
+    }
+
+    /** The state of one walk, shared by its tasks. */
+    private class Walk {
+        final Path gitDir;
+        final GitIndex index;
+        final Listener listener;
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        Walk(Path gitDir, GitIndex index, Listener listener) {
+            this.gitDir = gitDir;
+            this.index = index;
+            this.listener = listener;
+        }
+
+        void report(Kind kind, String path) {
+            changes.increment();
+            listener.changed(kind, path);
+        }
+
+        private class DirTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Path dir;
+            /** The directory's index path with a trailing '/', or "" for the root. */
+            private final String prefix;
+
+            DirTask(Path dir, String prefix) {
+                this.dir = dir;
+                this.prefix = prefix;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                        for (Path child : stream) {
+                            String path = prefix + child.getFileName();
+                            BasicFileAttributes attrs;
+                            try {
+                                attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                            } catch (NoSuchFileException e) {
+                                // deleted since the listing; if it was tracked it is reported as deleted
+                                continue;
+                            }
+                            if (attrs.isDirectory()) {
+                                if (!child.equals(gitDir)) {
+                                    tasks.add(new DirTask(child, path + "/"));
+                                }
+                                continue;
+                            }
+                            filesScanned.increment();
+                            GitIndex.Entry entry = index.get(path);
+                            if (entry == null) {
+                                report(Kind.UNTRACKED, path);
+                                continue;
+                            }
+                            seen.add(path);
+                            if (!index.isUpToDate(path, attrs)) {
+                                tasks.add(new HashTask(child, entry));
+                            }
+                        }
+                    }
+                    ForkJoinTask.invokeAll(tasks);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private class HashTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Path file;
+            private final GitIndex.Entry entry;
+
+            HashTask(Path file, GitIndex.Entry entry) {
+                this.file = file;
+                this.entry = entry;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    filesHashed.increment();
+                    // stat data changed but the content may not have (touched, or copied in place)
+                    if (!store.hashBlob(file).equals(entry.getId())) {
+                        report(Kind.MODIFIED, entry.getPath());
+                    }
+                } catch (NoSuchFileException e) {
+                    report(Kind.DELETED, entry.getPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
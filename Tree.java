@@ -0,0 +1,47 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The on-disk tree format: one {@code "<type> <hash> <name>"} line per entry, sorted by name and
+ * joined with newlines. Entries carry the bare name, not the full path, so two identical
+ * directories always hash the same wherever they sit.
+ */
+public class Tree {
+    private Tree() {
+    }
+
+    /** Serializes the entries (whose paths are bare names), sorting them first. */
+    public static byte[] format(List<GitObject> entries) {
+        List<GitObject> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted);
+        StringBuilder contents = new StringBuilder();
+        for (GitObject entry : sorted) {
+            if (contents.length() > 0) {
+                contents.append('\n');
+            }
+            contents.append(entry.getType()).append(' ').append(entry.getHash()).append(' ').append(entry.getPath());
+        }
+        return contents.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Reads back what {@link #format} wrote: entries in name order, paths being bare names. */
+    public static List<GitObject> parse(byte[] content) {
+        List<GitObject> entries = new ArrayList<>();
+        if (content.length == 0) {
+            return entries;
+        }
+        for (String line : new String(content, StandardCharsets.UTF_8).split("\n")) {
+            // names may contain spaces, so split on the first two only
+            int first = line.indexOf(' ');
+            int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+            if (second < 0) {
+                throw new IllegalArgumentException("Tree: malformed entry \"" + line + "\"");
+            }
+            entries.add(new GitObject(line.substring(0, first), line.substring(first + 1, second),
+                    line.substring(second + 1)));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Snapshots a directory into tree and blob objects. Sibling files and subdirectories are hashed
+ * as separate fork/join tasks, and every subtree is built exactly once. Entries are joined back in
+ * name order, so the tree objects are byte-identical whatever the parallelism (1 = no pool at all).
+ */
+public class TreeBuilder {
+    private final ObjectStore store;
+    private final int parallelism;
+
+    public TreeBuilder(ObjectStore store, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("TreeBuilder: parallelism must be at least 1");
+        }
+        this.store = store;
+        this.parallelism = parallelism;
+    }
+
+    public TreeBuilder(ObjectStore store) {
+        this(store, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Stores every file and directory under {@code dir} and returns the root tree's id. */
+    public ObjectId build(Path dir) throws IOException {
+        if (parallelism == 1) {
+            return buildSequential(dir);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new TreeTask(dir));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private ObjectId buildSequential(Path dir) throws IOException {
+        List<GitObject> entries = new ArrayList<>();
+        for (Path child : sortedChildren(dir)) {
+            String name = child.getFileName().toString();
+            if (Files.isDirectory(child)) {
+                entries.add(new GitObject("tree", buildSequential(child), name));
+            } else {
+                entries.add(new GitObject("blob", store.writeBlob(child), name));
+            }
+        }
+        return store.write(Tree.format(entries));
+    }
+
+    private static List<Path> sortedChildren(Path dir) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        }
+        children.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        return children;
+    }
+
+    private class TreeTask extends RecursiveTask<ObjectId> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        TreeTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected ObjectId compute() {
+            try {
+                List<Path> children = sortedChildren(dir);
+                List<ForkJoinTask<ObjectId>> tasks = new ArrayList<>(children.size());
+                for (Path child : children) {
+                    tasks.add(Files.isDirectory(child) ? new TreeTask(child) : new BlobTask(child));
+                }
+                ForkJoinTask.invokeAll(tasks);
+                List<GitObject> entries = new ArrayList<>(children.size());
+                for (int i = 0; i < children.size(); i++) {
+                    String type = tasks.get(i) instanceof TreeTask ? "tree" : "blob";
+                    entries.add(new GitObject(type, tasks.get(i).join(), children.get(i).getFileName().toString()));
+                }
+                return store.write(Tree.format(entries));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class BlobTask extends RecursiveTask<ObjectId> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+
+        BlobTask(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected ObjectId compute() {
+            try {
+                return store.writeBlob(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares two trees file by file. Both trees' entries are already sorted by name, so each level is
+ * one merge pass; a subtree whose id is the same on both sides is identical all the way down and is
+ * skipped without being read. Comparing two snapshots that differ in a few files therefore reads
+ * only the trees on the paths to those files, whatever the size of the rest.
+ *
+ * Changes go to the listener as they are found, in tree order. A directory that only exists on one
+ * side is reported file by file, and an entry that changed between file and directory is reported
+ * as the one removed and the other added.
+ */
+public class TreeDiff {
+    public enum Kind {
+        ADDED("A"), REMOVED("D"), MODIFIED("M");
+
+        private final String code;
+
+        Kind(String code) {
+            this.code = code;
+        }
+
+        /** The one-letter code {@code git diff --name-status} style output uses. */
+        public String code() {
+            return code;
+        }
+    }
+
+    /** Receives changes as they are found. {@code oldId} is null for added files, {@code newId} for removed ones. */
+    @FunctionalInterface
+    public interface Listener {
+        void changed(Kind kind, String path, ObjectId oldId, ObjectId newId);
+    }
+
+    private final ObjectReader reader;
+    private int treesRead;
+    private int subtreesSkipped;
+
+    public TreeDiff(ObjectReader reader) {
+        this.reader = reader;
+    }
+
+    /** Trees the last diff had to read. */
+    public int getTreesRead() {
+        return treesRead;
+    }
+
+    /** Subtrees the last diff skipped because both sides had the same id. */
+    public int getSubtreesSkipped() {
+        return subtreesSkipped;
+    }
+
+    /** Reports every file that differs between {@code oldTree} and {@code newTree}; either may be null for an empty tree. */
+    public void diff(ObjectId oldTree, ObjectId newTree, Listener listener) throws IOException {
+        treesRead = 0;
+        subtreesSkipped = 0;
+        if (oldTree != null && oldTree.equals(newTree)) {
+            subtreesSkipped++;
+            return;
+        }
+        diffTrees("", read(oldTree), read(newTree), listener);
+    }
+
+    private void diffTrees(String prefix, List<GitObject> older, List<GitObject> newer, Listener listener)
+            throws IOException {
+        int i = 0;
+        int j = 0;
+        while (i < older.size() || j < newer.size()) {
+            GitObject a = i < older.size() ? older.get(i) : null;
+            GitObject b = j < newer.size() ? newer.get(j) : null;
+            int cmp = a == null ? 1 : b == null ? -1 : a.getPath().compareTo(b.getPath());
+            if (cmp < 0) {
+                removed(prefix, a, listener);
+                i++;
+            } else if (cmp > 0) {
+                added(prefix, b, listener);
+                j++;
+            } else {
+                same(prefix, a, b, listener);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /** An entry whose name exists on both sides. */
+    private void same(String prefix, GitObject a, GitObject b, Listener listener) throws IOException {
+        boolean aTree = isTree(a);
+        boolean bTree = isTree(b);
+        if (a.getId().equals(b.getId()) && aTree == bTree) {
+            if (aTree) {
+                subtreesSkipped++;
+            }
+            return;
+        }
+        String path = prefix + a.getPath();
+        if (aTree && bTree) {
+            diffTrees(path + "/", read(a.getId()), read(b.getId()), listener);
+        } else if (!aTree && !bTree) {
+            listener.changed(Kind.MODIFIED, path, a.getId(), b.getId());
+        } else {
+            removed(prefix, a, listener);
+            added(prefix, b, listener);
+        }
+    }
+
+    private void removed(String prefix, GitObject entry, Listener listener) throws IOException {
+        String path = prefix + entry.getPath();
+        if (isTree(entry)) {
+            diffTrees(path + "/", read(entry.getId()), Collections.emptyList(), listener);
+        } else {
+            listener.changed(Kind.REMOVED, path, entry.getId(), null);
+        }
+    }
+
+    private void added(String prefix, GitObject entry, Listener listener) throws IOException {
+        String path = prefix + entry.getPath();
+        if (isTree(entry)) {
+            diffTrees(path + "/", Collections.emptyList(), read(entry.getId()), listener);
+        } else {
+            listener.changed(Kind.ADDED, path, null, entry.getId());
+        }
+    }
+
+    private List<GitObject> read(ObjectId tree) throws IOException {
+        if (tree == null) {
+            return Collections.emptyList();
+        }
+        treesRead++;
+        return reader.readTree(tree);
+    }
+
+    private static boolean isTree(GitObject entry) {
+        return "tree".equals(entry.getType());
+    }
+}
@@ -0,0 +1,154 @@
+package gitbench;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The Git operations under benchmark, against one repository: the core's {@code Repository}, the
+ * same object the {@code Git} facade runs every operation through. It lives in the unnamed package
+ * with the rest of the code, which a named package cannot import, and JMH will not generate code
+ * for benchmarks in the unnamed package. So its methods are looked up once per trial as method
+ * handles; next to the file I/O each call does, invoking them costs nothing measurable.
+ *
+ * Ids come back as the core's {@code ObjectId}, typed here as Object.
+ */
+public final class GitOperations {
+    private final Path gitDir;
+    private final MethodHandle hashFile;
+    private final MethodHandle createBlob;
+    private final MethodHandle updateIndex;
+    private final MethodHandle makeTree;
+    private final MethodHandle createTreeFromIndex;
+    private final MethodHandle reopen;
+
+    private GitOperations(Path gitDir, Object repository) throws ReflectiveOperationException {
+        this.gitDir = gitDir;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> type = repository.getClass();
+        this.hashFile = bind(lookup, repository, type.getMethod("hashFile", Path.class), Object.class);
+        this.createBlob = bind(lookup, repository, type.getMethod("createBlob", Path.class), Object.class);
+        this.updateIndex = bind(lookup, repository, type.getMethod("updateIndex", List.class), void.class);
+        this.makeTree = bind(lookup, repository, type.getMethod("makeTree", Path.class), Object.class);
+        this.createTreeFromIndex = bind(lookup, repository, type.getMethod("createTreeFromIndex"), Object.class);
+        this.reopen = bind(lookup, repository, type.getMethod("reopen"), void.class);
+    }
+
+    /** {@code method} on {@code repository}, returning {@code returns} so invokeExact can call it. */
+    private static MethodHandle bind(MethodHandles.Lookup lookup, Object repository, Method method,
+            Class<?> returns) throws IllegalAccessException {
+        MethodHandle handle = lookup.unreflect(method).bindTo(repository);
+        return handle.asType(handle.type().changeReturnType(returns));
+    }
+
+    /** Operations on the repository in {@code worktree}, created there if need be. */
+    public static GitOperations open(Path worktree) throws IOException {
+        try {
+            Object repository = Class.forName("Repository").getConstructor(Path.class).newInstance(worktree);
+            repository.getClass().getMethod("init").invoke(repository);
+            return new GitOperations(worktree.resolve("git"), repository);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("GitOperations: Repository is not on the class path", e);
+        }
+    }
+
+    /** As {@code Git.hashFile}: the blob id, nothing stored. */
+    public Object hashFile(Path file) throws IOException {
+        try {
+            return (Object) hashFile.invokeExact(file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** As {@code Git.createBLOB}. */
+    public Object createBlob(Path file) throws IOException {
+        try {
+            return (Object) createBlob.invokeExact(file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** As {@code Git.updateIndex}: stores and stages each file whose stat data changed. */
+    public void updateIndex(List<Path> files) throws IOException {
+        try {
+            updateIndex.invokeExact(files);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** As {@code Git.makeTree}. */
+    public Object makeTree(Path dir) throws IOException {
+        try {
+            return (Object) makeTree.invokeExact(dir);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** As {@code Git.createTreeFromIndex}: trees the index has cached are not rebuilt. */
+    public Object createTreeFromIndex() throws IOException {
+        try {
+            return (Object) createTreeFromIndex.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Deletes every object, leaving an empty store, and reopens the repository's store so it
+     * forgets the ids it had seen.
+     */
+    public void clearObjects() throws IOException {
+        Path objects = gitDir.resolve("objects");
+        try (Stream<Path> walk = Files.walk(objects)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                if (!p.equals(objects)) {
+                    Files.delete(p);
+                }
+            }
+        }
+        try {
+            reopen.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** The index file as it is now, to put back with {@link #restoreIndex}. */
+    public byte[] saveIndex() throws IOException {
+        return Files.readAllBytes(gitDir.resolve("index"));
+    }
+
+    /** Puts back an index saved earlier; an empty array unstages everything. */
+    public void restoreIndex(byte[] saved) throws IOException {
+        Files.write(gitDir.resolve("index"), saved);
+    }
+
+    private static IOException rethrow(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IOException(t);
+    }
+}
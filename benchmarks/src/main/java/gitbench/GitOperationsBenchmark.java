@@ -0,0 +1,110 @@
+package gitbench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The facade operations over synthetic repositories (see {@link SyntheticRepo} for the
+ * parameters). Each reports throughput and sampled latency, whose percentiles JMH prints;
+ * {@link Run} adds the GC profiler for bytes allocated per operation.
+ *
+ * hashFile works on one file per call, going round the repository. The others work on the whole
+ * repository per call, as a {@code git add .} or a snapshot would.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GitOperationsBenchmark {
+    /** Every call starts from an empty object store, so every blob is written. */
+    public static class EmptyStore extends SyntheticRepo {
+        @Setup(Level.Invocation)
+        public void emptyStore() throws IOException {
+            ops.clearObjects();
+        }
+    }
+
+    /**
+     * Every call starts from an empty index. The blobs stay stored after the first call, as when
+     * re-adding files, so the cost is reading and hashing each file plus writing the index.
+     */
+    public static class EmptyIndex extends SyntheticRepo {
+        @Setup(Level.Invocation)
+        public void emptyIndex() throws IOException {
+            ops.restoreIndex(new byte[0]);
+        }
+    }
+
+    /** Every file stored and staged before the first call. */
+    public static class StagedRepo extends SyntheticRepo {
+        @Override
+        protected void prepare() throws IOException {
+            ops.updateIndex(files);
+        }
+    }
+
+    /** Every file staged, and every call starts from the index as staging left it: no cached trees. */
+    public static class UncachedIndex extends SyntheticRepo {
+        private byte[] staged;
+
+        @Override
+        protected void prepare() throws IOException {
+            ops.updateIndex(files);
+            staged = ops.saveIndex();
+        }
+
+        @Setup(Level.Invocation)
+        public void dropCachedTrees() throws IOException {
+            ops.restoreIndex(staged);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object hashFile(SyntheticRepo repo) throws IOException {
+        return repo.ops.hashFile(repo.nextFile());
+    }
+
+    @Benchmark
+    public void createBlob(EmptyStore repo, Blackhole bh) throws IOException {
+        for (Path file : repo.files) {
+            bh.consume(repo.ops.createBlob(file));
+        }
+    }
+
+    @Benchmark
+    public void updateIndex(EmptyIndex repo) throws IOException {
+        repo.ops.updateIndex(repo.files);
+    }
+
+    /** Blobs and trees are stored by the first call; later calls re-hash every file and find them. */
+    @Benchmark
+    public Object makeTree(SyntheticRepo repo) throws IOException {
+        return repo.ops.makeTree(repo.src);
+    }
+
+    /** Every directory's tree is built each call, then cached in the index, as on a first commit. */
+    @Benchmark
+    public Object createTreeFromIndex(UncachedIndex repo) throws IOException {
+        return repo.ops.createTreeFromIndex();
+    }
+
+    /** After the first call the index holds every tree and nothing is rebuilt. */
+    @Benchmark
+    public Object createTreeFromIndexCached(StagedRepo repo) throws IOException {
+        return repo.ops.createTreeFromIndex();
+    }
+}
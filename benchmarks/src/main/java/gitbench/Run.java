@@ -0,0 +1,25 @@
+package gitbench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The benchmark jar's entry point: JMH's own command line, with the GC profiler on unless other
+ * profilers are asked for, so every run reports bytes allocated per operation.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regex ...]
+ */
+public class Run {
+    private Run() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-prof") && !jmhArgs.contains("-h") && !jmhArgs.contains("-l")) {
+            jmhArgs.add(0, "-prof");
+            jmhArgs.add(1, "gc");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
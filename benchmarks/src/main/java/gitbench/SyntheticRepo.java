@@ -0,0 +1,93 @@
+package gitbench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A repository in a temp directory with {@code fileCount} text files of {@code fileSize} bytes
+ * under {@code src/}, spread {@code depth} directories deep with ten directories per level. File
+ * contents are random lower-case lines, fixed by the file's number, so every trial sees the same
+ * repository. Nothing is stored or staged yet.
+ */
+@State(Scope.Benchmark)
+public class SyntheticRepo {
+    @Param({ "1000", "10000" })
+    public int fileCount;
+
+    @Param({ "1024", "16384" })
+    public int fileSize;
+
+    @Param({ "1", "4" })
+    public int depth;
+
+    public Path root;
+    public Path src;
+    public List<Path> files;
+    public GitOperations ops;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createRepo() throws IOException {
+        root = Files.createTempDirectory("gitbench");
+        src = root.resolve("src");
+        files = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            Path dir = src;
+            int n = i;
+            for (int level = 0; level < depth; level++) {
+                dir = dir.resolve("d" + n % 10);
+                n /= 10;
+            }
+            Files.createDirectories(dir);
+            files.add(Files.write(dir.resolve("f" + i + ".txt"), content(i, fileSize)));
+        }
+        ops = GitOperations.open(root);
+        next = 0;
+        prepare();
+    }
+
+    /**
+     * Runs at the end of trial setup, for subclasses to bring the repository into the state their
+     * benchmark starts from. A subclass's own trial {@code @Setup} could run before this class's.
+     */
+    protected void prepare() throws IOException {
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepo() throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /** The files in turn, round and round. */
+    public Path nextFile() {
+        Path file = files.get(next);
+        next = next + 1 == files.size() ? 0 : next + 1;
+        return file;
+    }
+
+    static byte[] content(int seed, int size) {
+        Random random = new Random(seed);
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = i % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        return content;
+    }
+}